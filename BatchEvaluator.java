@@ -0,0 +1,121 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluates batches of expressions in parallel on a fork-join pool.
+ * The batch is split recursively into ranges of expressions until a range is small enough to be
+ * evaluated sequentially; each result is written at the index of its expression, so results keep
+ * the order of the input. All workers share the calculator and its expression cache, and evaluate
+ * with its arithmetic; exact values of a decimal or long calculator are returned as doubles.
+ */
+public class BatchEvaluator {
+    /**
+     * Number of expressions below which a range is evaluated sequentially
+     */
+    private static final int THRESHOLD = 256;
+
+    private final RPNCalculator calculator;
+    private final ForkJoinPool pool;
+
+    /**
+     * Default constructor, evaluates on the common fork-join pool using all cores
+     */
+    public BatchEvaluator() {
+        this(new RPNCalculator(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor to initialize the evaluator
+     *
+     * @param calculator calculator used to compile the expressions
+     * @param pool       pool running the evaluation
+     */
+    public BatchEvaluator(RPNCalculator calculator, ForkJoinPool pool) {
+        this.calculator = calculator;
+        this.pool = pool;
+    }
+
+    /**
+     * Evaluates a batch of expressions.
+     *
+     * @param expressions math expressions to evaluate
+     * @return {@link BatchResult} - the value or error of each expression, in input order
+     */
+    public BatchResult evaluate(List<String> expressions) {
+        String[] batch = expressions.toArray(new String[0]);
+        double[] values = new double[batch.length];
+        Map<Integer, EvaluationResult> errors = new ConcurrentHashMap<>();
+
+        long start = System.nanoTime();
+        pool.invoke(new EvaluateRange(batch, values, errors, 0, batch.length));
+        return new BatchResult(values, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * Evaluates a stream of expressions as one batch.
+     *
+     * @param expressions math expressions to evaluate
+     * @return {@link BatchResult} - the value or error of each expression, in encounter order
+     */
+    public BatchResult evaluate(Stream<String> expressions) {
+        return evaluate(expressions.collect(Collectors.toList()));
+    }
+
+    /**
+     * Fork-join task evaluating a range of the batch.
+     */
+    private final class EvaluateRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] batch;
+        private final double[] values;
+        private final Map<Integer, EvaluationResult> errors;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructor to initialize the task
+         *
+         * @param batch  all expressions of the batch
+         * @param values receives the value of each expression
+         * @param errors receives the failed result of each failed expression
+         * @param from   index of the first expression of the range, inclusive
+         * @param to     index of the last expression of the range, exclusive
+         */
+        private EvaluateRange(String[] batch, double[] values, Map<Integer, EvaluationResult> errors, int from,
+                              int to) {
+            this.batch = batch;
+            this.values = values;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Splits the range in two until it is below the threshold, then evaluates it
+         */
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateRange(batch, values, errors, from, middle),
+                        new EvaluateRange(batch, values, errors, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                // Evaluated with the backend and within the budget of the calculator, failures carry
+                // the same error code and position as a single evaluation
+                EvaluationResult result = calculator.evaluateResult(batch[i]);
+                values[i] = result.getValue();
+                if (!result.isSuccess())
+                    errors.put(i, result);
+            }
+        }
+    }
+}
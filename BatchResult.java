@@ -0,0 +1,98 @@
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Results of evaluating a batch of expressions, in the order the expressions were given, together
+ * with the time the batch took.
+ */
+public class BatchResult {
+    private final double[] values;
+    private final Map<Integer, EvaluationResult> errors;
+    private final long elapsedNanos;
+
+    /**
+     * Constructor to initialize the result of a batch
+     *
+     * @param values       calculated value of each expression, NaN for failed expressions
+     * @param errors       failed result of each failed expression, keyed by its index
+     * @param elapsedNanos wall-clock time taken by the batch in nanoseconds
+     */
+    BatchResult(double[] values, Map<Integer, EvaluationResult> errors, long elapsedNanos) {
+        this.values = values;
+        this.errors = Collections.unmodifiableMap(errors);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of expressions in the batch
+     * @return {@code int} - number of expressions
+     */
+    public int getSize() { return values.length; }
+
+    /**
+     * Returns the calculated value of an expression
+     * @param i index of the expression in the batch
+     * @return calculated value, NaN if the expression failed
+     */
+    public double getValue(int i) { return values[i]; }
+
+    /**
+     * Returns the calculated values of all expressions. The array is not copied.
+     * @return calculated value of each expression, NaN for failed expressions
+     */
+    public double[] getValues() { return values; }
+
+    /**
+     * Tests whether an expression failed
+     * @param i index of the expression in the batch
+     * @return {@code boolean} - {@code true} if the expression could not be evaluated
+     */
+    public boolean isError(int i) { return errors.containsKey(i); }
+
+    /**
+     * Returns the error message of an expression
+     * @param i index of the expression in the batch
+     * @return error message (or {@code null} if the expression was evaluated)
+     */
+    public String getError(int i) {
+        EvaluationResult failure = errors.get(i);
+        return failure != null ? failure.getErrorMessage() : null;
+    }
+
+    /**
+     * Returns the failed result of an expression, with its error code and position
+     * @param i index of the expression in the batch
+     * @return failed result (or {@code null} if the expression was evaluated)
+     */
+    public EvaluationResult getFailure(int i) { return errors.get(i); }
+
+    /**
+     * Accessor method
+     * @return failed result of each failed expression, keyed by its index
+     */
+    public Map<Integer, EvaluationResult> getErrors() { return errors; }
+
+    /**
+     * Accessor method
+     * @return wall-clock time taken by the batch in nanoseconds
+     */
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    /**
+     * Returns the throughput of the batch
+     * @return number of expressions evaluated per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : values.length * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Method to print the batch statistics in desired format
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("%d expressions, %d errors in %.3f ms (%.0f expressions/s)\n",
+                values.length, errors.size(), elapsedNanos / 1e6, getThroughput());
+    }
+}
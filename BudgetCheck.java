@@ -0,0 +1,63 @@
+import java.math.MathContext;
+
+/**
+ * A driver class to check that {@link EvaluationBudget} limits hold on every path of an evaluation:
+ * each hostile expression must be rejected with {@link EvaluationResult.ErrorCode#BUDGET_EXCEEDED}
+ * rather than evaluated. The check exits with status 1 when an expression gets through.
+ */
+public class BudgetCheck {
+    private static int checks;
+    private static int failures;
+
+    /**
+     * Main method
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        // Chained decimal powers without a precision, bounded by the digits of the result
+        RPNCalculator unlimitedDecimal = new RPNCalculator(new ExpressionCache(),
+                NumericBackend.decimal(MathContext.UNLIMITED), false, EvaluationBudget.DEFAULT);
+        check("9 ^ 1000 ^ 1000 on unlimited decimals", unlimitedDecimal, "9 ^ 1000 ^ 1000");
+        check("products of huge decimals", unlimitedDecimal, "9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000"
+                + " * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000 * 9 ^ 9000");
+
+        // Literal operations folded by the optimizer, which must not calculate what evaluation would refuse
+        RPNCalculator optimizing = new RPNCalculator(new ExpressionCache(), NumericBackend.DOUBLE, true,
+                EvaluationBudget.DEFAULT);
+        check("folded factorial", optimizing, "100000 !");
+        check("folded power", optimizing, "2 ^ 20000");
+        check("folded power of a folded operand", optimizing, "1 + (2 ^ 20000) * 3");
+
+        // Programs cached by a calculator with a larger budget, checked again on every cache hit
+        ExpressionCache shared = new ExpressionCache();
+        String large = "1" + " + 1".repeat(1_000);
+        new RPNCalculator(shared, NumericBackend.DOUBLE, false, EvaluationBudget.UNLIMITED).evaluateResult(large);
+        RPNCalculator limited = new RPNCalculator(shared, NumericBackend.DOUBLE, false,
+                EvaluationBudget.UNLIMITED.withMaxTokens(100));
+        check("cached program over the token limit", limited, large);
+
+        System.out.println(checks + " checks, " + failures + " failures");
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Helper method to check that evaluating an expression exceeds the budget of a calculator
+     *
+     * @param name       description of the case
+     * @param calculator calculator evaluating the expression
+     * @param expression hostile expression
+     */
+    private static void check(String name, RPNCalculator calculator, String expression) {
+        checks++;
+        long start = System.nanoTime();
+        EvaluationResult result = calculator.evaluateResult(expression);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (result.getErrorCode() != EvaluationResult.ErrorCode.BUDGET_EXCEEDED) {
+            failures++;
+            System.out.println(name + ": " + (result.isSuccess() ? "evaluated" : result.getErrorCode() + " "
+                    + result.getErrorMessage()) + " in " + millis + " ms, expected BUDGET_EXCEEDED");
+        }
+    }
+}
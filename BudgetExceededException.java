@@ -0,0 +1,28 @@
+/**
+ * Thrown when an expression exceeds a limit of its {@link EvaluationBudget}, with the limit and the
+ * position of the operator at which the evaluation was aborted.
+ */
+public class BudgetExceededException extends EvaluationException {
+    private static final long serialVersionUID = 1L;
+
+    private final EvaluationBudget.Limit limit;
+
+    /**
+     * Constructor to initialize the exception
+     *
+     * @param limit    limit that was exceeded
+     * @param message  description of the problem
+     * @param position offset of the operator in the expression, -1 if unknown
+     */
+    public BudgetExceededException(EvaluationBudget.Limit limit, String message, int position) {
+        super(message, position);
+        this.limit = limit;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return limit that was exceeded
+     */
+    public EvaluationBudget.Limit getLimit() { return limit; }
+}
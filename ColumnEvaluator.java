@@ -0,0 +1,332 @@
+import java.util.Arrays;
+
+/**
+ * Evaluates one compiled expression over columns of variable values a column at a time.
+ * <p>
+ * Instead of walking the postfix program once per row, the rows are split into blocks of
+ * {@link #BLOCK_SIZE} and the program is run once per block: every stack entry is a block of
+ * values, and each operator is applied to a whole block in one tight loop. Such loops carry no
+ * dispatch and no dependency between rows, so the JIT unrolls them and turns them into SIMD
+ * instructions, and blocks stay small enough to remain in the CPU cache between operators.
+ * Variables are read straight from their columns without being copied, literals are kept as
+ * single values rather than filled into blocks, and operations on literals only are calculated
+ * once per block.
+ * <p>
+ * When several rows of a block fail, the error reported is the one of the first operator to fail
+ * rather than the one of the first row. Instances are immutable and can be shared by many threads.
+ */
+public final class ColumnEvaluator {
+    /**
+     * Number of rows evaluated together
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    private final CompiledExpression compiled;
+    private final int maxDepth;
+
+    /**
+     * Constructor to initialize the evaluator
+     *
+     * @param compiled compiled expression to evaluate
+     */
+    public ColumnEvaluator(CompiledExpression compiled) {
+        this.compiled = compiled;
+
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < compiled.size(); i++) {
+            Operator operator = compiled.operatorAt(i);
+            if (operator == null)
+                maxDepth = Math.max(maxDepth, ++depth);
+            else if (operator != Operator.FACTORIAL)
+                depth--;
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return compiled expression evaluated
+     */
+    public CompiledExpression getCompiled() { return compiled; }
+
+    /**
+     * Evaluates the compiled expression for every row of the columns.
+     *
+     * @param columns one column of values per variable, in the order of {@link CompiledExpression#getVariables()}
+     * @param out     receives the calculated value of each row, its length is the number of rows
+     * @throws IllegalArgumentException when the number of columns does not match the variables
+     *                                  or a column is shorter than the output
+     * @throws EvaluationException      when an operation is not defined for the operands of a row
+     */
+    public void evaluate(double[][] columns, double[] out) {
+        compiled.checkArity(columns.length);
+        for (int v = 0; v < columns.length; v++) {
+            if (columns[v].length < out.length) {
+                throw new IllegalArgumentException("Column for variable " + compiled.getVariables()[v] + " has "
+                        + columns[v].length + " rows, expected " + out.length);
+            }
+        }
+
+        // Function calls take a variable number of operands and conditionals skip tokens row by row,
+        // such programs are evaluated row by row
+        if (compiled.hasFunctions() || compiled.hasBranches()) {
+            compiled.evaluateColumns(columns, out);
+            return;
+        }
+
+        BlockStack stack = new BlockStack(maxDepth);
+        for (int from = 0; from < out.length; from += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, out.length - from);
+            int top = 0;
+            for (int i = 0; i < compiled.size(); i++) {
+                Operator operator = compiled.operatorAt(i);
+                try {
+                    if (operator == null) {
+                        int slot = compiled.slotAt(i);
+                        if (slot < 0) {
+                            stack.setScalar(top++, compiled.literalAt(i));
+                        } else {
+                            stack.setColumn(top++, columns[slot], from);
+                        }
+                    } else if (operator == Operator.FACTORIAL) {
+                        stack.factorial(top - 1, n);
+                    } else {
+                        top--;
+                        stack.binary(operator, top - 1, n);
+                    }
+                } catch (ArithmeticException e) {
+                    throw new EvaluationException(e.getMessage(), compiled.offsetAt(i));
+                }
+            }
+            stack.copyTo(0, out, from, n);
+        }
+    }
+
+    /**
+     * Operand stack whose entries are blocks of rows. An entry is either a scalar, a range of a
+     * variable column, or a block buffer owned by its stack position that holds calculated values.
+     */
+    private static final class BlockStack {
+        private final double[][] arrays;
+        private final int[] bases;
+        private final double[] scalars;
+        private final double[][] buffers;
+
+        /**
+         * Constructor to initialize the stack
+         *
+         * @param depth largest number of entries
+         */
+        private BlockStack(int depth) {
+            this.arrays = new double[depth][];
+            this.bases = new int[depth];
+            this.scalars = new double[depth];
+            this.buffers = new double[depth][BLOCK_SIZE];
+        }
+
+        /**
+         * Mutator method, sets an entry to a single value shared by every row
+         *
+         * @param i     stack position
+         * @param value value of the entry
+         */
+        private void setScalar(int i, double value) {
+            arrays[i] = null;
+            scalars[i] = value;
+        }
+
+        /**
+         * Mutator method, sets an entry to a range of a column
+         *
+         * @param i      stack position
+         * @param column column of values
+         * @param from   index of the first row of the block in the column
+         */
+        private void setColumn(int i, double[] column, int from) {
+            arrays[i] = column;
+            bases[i] = from;
+        }
+
+        /**
+         * Applies a factorial to an entry
+         *
+         * @param i stack position of the operand
+         * @param n number of rows in the block
+         */
+        private void factorial(int i, int n) {
+            double[] a = arrays[i];
+            if (a == null) {
+                scalars[i] = Operator.FACTORIAL.calculate(scalars[i], 0);
+                return;
+            }
+            double[] d = buffers[i];
+            int ao = bases[i];
+            for (int r = 0; r < n; r++) d[r] = Operator.FACTORIAL.calculate(a[ao + r], 0);
+            arrays[i] = d;
+            bases[i] = 0;
+        }
+
+        /**
+         * Applies a binary operator to two entries, leaving the result in the left one
+         *
+         * @param operator binary operator
+         * @param left     stack position of the left operand, the right one is just above it
+         * @param n        number of rows in the block
+         */
+        private void binary(Operator operator, int left, int n) {
+            int right = left + 1;
+            double[] a = arrays[left];
+            double[] b = arrays[right];
+
+            // Both operands are scalars: calculate once
+            if (a == null && b == null) {
+                scalars[left] = operator.calculate(scalars[left], scalars[right]);
+                return;
+            }
+
+            // Write into a calculated block of an operand, or else into the free buffer of the left position
+            double[] d = buffers[left];
+            if (a != buffers[left] && b == buffers[right]) {
+                buffers[right] = d;
+                buffers[left] = b;
+                d = b;
+            }
+
+            if (a == null) {
+                scalarBlock(operator, scalars[left], b, bases[right], d, n);
+            } else if (b == null) {
+                blockScalar(operator, a, bases[left], scalars[right], d, n);
+            } else {
+                blockBlock(operator, a, bases[left], b, bases[right], d, n);
+            }
+            arrays[left] = d;
+            bases[left] = 0;
+        }
+
+        /**
+         * Copies the values of an entry to the output
+         *
+         * @param i    stack position
+         * @param out  output of every row
+         * @param from index of the first row of the block in the output
+         * @param n    number of rows in the block
+         */
+        private void copyTo(int i, double[] out, int from, int n) {
+            if (arrays[i] == null) {
+                Arrays.fill(out, from, from + n, scalars[i]);
+            } else {
+                System.arraycopy(arrays[i], bases[i], out, from, n);
+            }
+        }
+    }
+
+    /**
+     * Helper method to calculate {@code d[r] = a[ao + r] op b[bo + r]}
+     *
+     * @param operator binary operator
+     * @param a        left operands
+     * @param ao       index of the first left operand
+     * @param b        right operands
+     * @param bo       index of the first right operand
+     * @param d        receives the results
+     * @param n        number of rows
+     */
+    private static void blockBlock(Operator operator, double[] a, int ao, double[] b, int bo, double[] d, int n) {
+        switch (operator) {
+            case ADDITION:
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] + b[bo + r];
+                break;
+            case SUBTRACTION:
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] - b[bo + r];
+                break;
+            case MULTIPLICATION:
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] * b[bo + r];
+                break;
+            case DIVISION:
+                checkDivisors(b, bo, n);
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] / b[bo + r];
+                break;
+            default:
+                for (int r = 0; r < n; r++) d[r] = operator.calculate(a[ao + r], b[bo + r]);
+        }
+    }
+
+    /**
+     * Helper method to calculate {@code d[r] = a[ao + r] op b}
+     *
+     * @param operator binary operator
+     * @param a        left operands
+     * @param ao       index of the first left operand
+     * @param b        right operand
+     * @param d        receives the results
+     * @param n        number of rows
+     */
+    private static void blockScalar(Operator operator, double[] a, int ao, double b, double[] d, int n) {
+        switch (operator) {
+            case ADDITION:
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] + b;
+                break;
+            case SUBTRACTION:
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] - b;
+                break;
+            case MULTIPLICATION:
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] * b;
+                break;
+            case DIVISION:
+                // A zero divisor fails every row, check it once
+                Operator.DIVISION.calculate(1, b);
+                for (int r = 0; r < n; r++) d[r] = a[ao + r] / b;
+                break;
+            default:
+                for (int r = 0; r < n; r++) d[r] = operator.calculate(a[ao + r], b);
+        }
+    }
+
+    /**
+     * Helper method to calculate {@code d[r] = a op b[bo + r]}
+     *
+     * @param operator binary operator
+     * @param a        left operand
+     * @param b        right operands
+     * @param bo       index of the first right operand
+     * @param d        receives the results
+     * @param n        number of rows
+     */
+    private static void scalarBlock(Operator operator, double a, double[] b, int bo, double[] d, int n) {
+        switch (operator) {
+            case ADDITION:
+                for (int r = 0; r < n; r++) d[r] = a + b[bo + r];
+                break;
+            case SUBTRACTION:
+                for (int r = 0; r < n; r++) d[r] = a - b[bo + r];
+                break;
+            case MULTIPLICATION:
+                for (int r = 0; r < n; r++) d[r] = a * b[bo + r];
+                break;
+            case DIVISION:
+                checkDivisors(b, bo, n);
+                for (int r = 0; r < n; r++) d[r] = a / b[bo + r];
+                break;
+            default:
+                for (int r = 0; r < n; r++) d[r] = operator.calculate(a, b[bo + r]);
+        }
+    }
+
+    /**
+     * Helper method to check a block of divisors before dividing, so that the division loop
+     * itself has no branch and can be vectorized
+     *
+     * @param b  divisors
+     * @param bo index of the first divisor
+     * @param n  number of rows
+     * @throws ArithmeticException when a divisor is zero
+     */
+    private static void checkDivisors(double[] b, int bo, int n) {
+        for (int r = 0; r < n; r++) {
+            if (b[bo + r] == 0)
+                Operator.DIVISION.calculate(1, 0);
+        }
+    }
+}
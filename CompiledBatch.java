@@ -0,0 +1,395 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of formulas compiled into one shared DAG, so that subexpressions common to several
+ * formulas are evaluated once per row of values instead of once per formula.
+ * <p>
+ * Every formula is compiled to postfix as usual, then its tokens are hash-consed: an operand or an
+ * operation on the same children is looked up before a node is created, so structurally equal
+ * subexpressions, within a formula or across formulas, map to the same node. Operands of
+ * {@code +} and {@code *} are put in a canonical order first, since both are exactly commutative
+ * for doubles, so {@code a * b} and {@code b * a} also share a node. Children are always created
+ * before their parents, so evaluating the nodes in creation order evaluates each one after its
+ * operands.
+ * <p>
+ * Formulas calling functions of the {@link FunctionRegistry} are not supported.
+ * <p>
+ * The variables of all formulas form one namespace: a name means the same value in every formula.
+ * A compiled batch is immutable and can be evaluated from several threads at once.
+ */
+public final class CompiledBatch {
+    /**
+     * Kind of a literal node, operator nodes use the operator ordinal
+     */
+    private static final int LITERAL = -1;
+
+    /**
+     * Kind of a variable node, operator nodes use the operator ordinal
+     */
+    private static final int VARIABLE = -2;
+
+    /**
+     * Identity of a node, used to find an existing node for a subexpression
+     */
+    private static final class NodeKey {
+        private final int kind;
+        private final int left;
+        private final int right;
+        private final long bits;
+
+        /**
+         * Parameterized constructor
+         *
+         * @param kind  operator ordinal, or {@link #LITERAL} or {@link #VARIABLE}
+         * @param left  node of the first operand, -1 for operands
+         * @param right node of the second operand, -1 for operands and unary operators
+         * @param bits  bits of a literal value, or the index of a variable
+         */
+        private NodeKey(int kind, int left, int right, long bits) {
+            this.kind = kind;
+            this.left = left;
+            this.right = right;
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NodeKey))
+                return false;
+            NodeKey other = (NodeKey) o;
+            return kind == other.kind && left == other.left && right == other.right && bits == other.bits;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = kind;
+            hash = 31 * hash + left;
+            hash = 31 * hash + right;
+            return 31 * hash + Long.hashCode(bits);
+        }
+    }
+
+    private final String[] expressions;
+    private final String[] variables;
+    private final Operator[] operators;
+    private final double[] literals;
+    private final int[] slots;
+    private final int[] lefts;
+    private final int[] rights;
+    private final int[] roots;
+    private final int tokenCount;
+    private final ThreadLocal<double[]> registers;
+
+    /**
+     * Private constructor used by {@link #compile(List, RPNCalculator)}
+     */
+    private CompiledBatch(String[] expressions, String[] variables, Operator[] operators, double[] literals,
+                          int[] slots, int[] lefts, int[] rights, int[] roots, int tokenCount) {
+        this.expressions = expressions;
+        this.variables = variables;
+        this.operators = operators;
+        this.literals = literals;
+        this.slots = slots;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.roots = roots;
+        this.tokenCount = tokenCount;
+        this.registers = ThreadLocal.withInitial(() -> new double[operators.length]);
+    }
+
+    /**
+     * Compiles a batch of formulas with a default calculator
+     *
+     * @param expressions math expressions of the batch
+     * @return {@link CompiledBatch} - the shared program
+     * @throws IllegalArgumentException when an expression is invalid
+     */
+    public static CompiledBatch compile(List<String> expressions) {
+        return compile(expressions, new RPNCalculator());
+    }
+
+    /**
+     * Compiles a batch of formulas into one shared DAG
+     *
+     * @param expressions math expressions of the batch
+     * @param calculator  calculator compiling each expression, with the double backend
+     * @return {@link CompiledBatch} - the shared program
+     * @throws IllegalArgumentException when the calculator does not use the double backend, or an
+     *                                  expression is invalid
+     */
+    public static CompiledBatch compile(List<String> expressions, RPNCalculator calculator) {
+        if (calculator.getBackend().getKind() != NumericBackend.Kind.DOUBLE) {
+            throw new IllegalArgumentException("Compiled batches require the double backend");
+        }
+
+        String[] batch = expressions.toArray(new String[0]);
+        Map<String, Integer> variables = new LinkedHashMap<>();
+        Map<NodeKey, Integer> nodes = new HashMap<>();
+        List<Operator> operators = new ArrayList<>();
+        List<NodeKey> keys = new ArrayList<>();
+        int[] roots = new int[batch.length];
+        int tokenCount = 0;
+
+        for (int e = 0; e < batch.length; e++) {
+            CompiledExpression compiled;
+            try {
+                compiled = calculator.compile(batch[e]);
+            } catch (ArithmeticException | IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Expression " + e + " is invalid: " + ex.getMessage());
+            }
+            if (compiled.hasFunctions()) {
+                throw new IllegalArgumentException("Expression " + e + " calls functions, which batches do not share");
+            }
+            if (compiled.hasBranches()) {
+                throw new IllegalArgumentException("Expression " + e + " has conditionals, which batches do not share");
+            }
+
+            // Map the variables of the formula to the shared namespace
+            String[] names = compiled.getVariables();
+            int[] shared = new int[names.length];
+            for (int v = 0; v < names.length; v++) {
+                Integer index = variables.putIfAbsent(names[v], variables.size());
+                shared[v] = index != null ? index : variables.size() - 1;
+            }
+
+            // Replay the postfix program on a stack of nodes, reusing existing nodes
+            int[] stack = new int[compiled.size()];
+            int top = 0;
+            for (int i = 0; i < compiled.size(); i++) {
+                Operator operator = compiled.operatorAt(i);
+                NodeKey key;
+                if (operator == null) {
+                    int slot = compiled.slotAt(i);
+                    key = slot < 0 ? new NodeKey(LITERAL, -1, -1, Double.doubleToLongBits(compiled.literalAt(i)))
+                            : new NodeKey(VARIABLE, -1, -1, shared[slot]);
+                } else if (operator == Operator.FACTORIAL) {
+                    key = new NodeKey(operator.ordinal(), stack[--top], -1, 0);
+                } else {
+                    int right = stack[--top];
+                    int left = stack[--top];
+                    if ((operator == Operator.ADDITION || operator == Operator.MULTIPLICATION) && right < left) {
+                        int swap = left;
+                        left = right;
+                        right = swap;
+                    }
+                    key = new NodeKey(operator.ordinal(), left, right, 0);
+                }
+
+                Integer node = nodes.get(key);
+                if (node == null) {
+                    node = keys.size();
+                    nodes.put(key, node);
+                    keys.add(key);
+                    operators.add(operator);
+                }
+                stack[top++] = node;
+            }
+            roots[e] = stack[0];
+            tokenCount += compiled.size();
+        }
+
+        // Flatten the nodes into parallel arrays, in creation order
+        int size = keys.size();
+        double[] literals = new double[size];
+        int[] slots = new int[size];
+        int[] lefts = new int[size];
+        int[] rights = new int[size];
+        for (int n = 0; n < size; n++) {
+            NodeKey key = keys.get(n);
+            literals[n] = key.kind == LITERAL ? Double.longBitsToDouble(key.bits) : 0;
+            slots[n] = key.kind == VARIABLE ? (int) key.bits : -1;
+            lefts[n] = key.left;
+            rights[n] = key.right;
+        }
+        return new CompiledBatch(batch, variables.keySet().toArray(new String[0]),
+                operators.toArray(new Operator[0]), literals, slots, lefts, rights, roots, tokenCount);
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of formulas in the batch
+     */
+    public int getSize() { return roots.length; }
+
+    /**
+     * Returns a formula of the batch
+     *
+     * @param i index of the formula
+     * @return {@link String} - the math expression
+     */
+    public String getExpression(int i) { return expressions[i]; }
+
+    /**
+     * Returns the variables of all formulas, in order of first appearance. Values are passed to
+     * {@link #evaluate(double...)} in this order.
+     *
+     * @return the variable names
+     */
+    public String[] getVariables() { return variables.clone(); }
+
+    /**
+     * Returns the index of a variable in the values passed to {@link #evaluate(double...)}
+     *
+     * @param name variable name
+     * @return {@code int} - the index (or -1 if no formula uses the variable)
+     */
+    public int indexOfVariable(String name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of postfix tokens of all formulas, compiled separately
+     */
+    public int getTokenCount() { return tokenCount; }
+
+    /**
+     * Accessor method
+     *
+     * @return number of unique nodes of the shared DAG, each evaluated once per row
+     */
+    public int getNodeCount() { return operators.length; }
+
+    /**
+     * Returns how much work sharing saves
+     *
+     * @return {@code double} - postfix tokens per unique node, 1 when nothing is shared
+     */
+    public double getDeduplicationRatio() {
+        return operators.length == 0 ? 1 : (double) tokenCount / operators.length;
+    }
+
+    /**
+     * Evaluates every formula of the batch for one row of values.
+     *
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@link BatchResult} - the value or error of each formula, in batch order
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     */
+    public BatchResult evaluate(double... values) {
+        long start = System.nanoTime();
+        double[] out = new double[roots.length];
+        Map<Integer, EvaluationResult> errors = new HashMap<>();
+        if (!tryEvaluate(values, out))
+            evaluateWithErrors(values, out, errors);
+        return new BatchResult(out, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * Evaluates every formula of the batch for one row of values, without allocating.
+     *
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @param out    receives the value of each formula, NaN for formulas that failed
+     * @throws IllegalArgumentException when the number of values does not match the variables,
+     *                                  or the output is shorter than the batch
+     */
+    public void evaluate(double[] values, double[] out) {
+        if (out.length < roots.length) {
+            throw new IllegalArgumentException("Output has " + out.length + " slots, expected " + roots.length);
+        }
+        if (!tryEvaluate(values, out))
+            evaluateWithErrors(values, out, null);
+    }
+
+    /**
+     * Helper method to evaluate every node once, assuming no operation fails
+     *
+     * @param values value of each variable
+     * @param out    receives the value of each formula
+     * @return {@code boolean} - {@code true} on success, {@code false} if an operation failed
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     */
+    private boolean tryEvaluate(double[] values, double[] out) {
+        checkArity(values.length);
+        double[] registers = this.registers.get();
+        try {
+            for (int n = 0; n < operators.length; n++) {
+                Operator operator = operators[n];
+                if (operator == null) {
+                    registers[n] = slots[n] < 0 ? literals[n] : values[slots[n]];
+                } else {
+                    registers[n] = operator.calculate(registers[lefts[n]], rights[n] < 0 ? 0 : registers[rights[n]]);
+                }
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        for (int e = 0; e < roots.length; e++) {
+            out[e] = registers[roots[e]];
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to evaluate every node once, tracking which nodes failed so that only the
+     * formulas using them fail
+     *
+     * @param values value of each variable
+     * @param out    receives the value of each formula, NaN for formulas that failed
+     * @param errors receives the failed result of each failed formula, keyed by its index,
+     *               {@code null} to ignore the errors
+     */
+    private void evaluateWithErrors(double[] values, double[] out, Map<Integer, EvaluationResult> errors) {
+        double[] registers = this.registers.get();
+        ArithmeticException[] failures = new ArithmeticException[operators.length];
+        for (int n = 0; n < operators.length; n++) {
+            Operator operator = operators[n];
+            if (operator == null) {
+                registers[n] = slots[n] < 0 ? literals[n] : values[slots[n]];
+            } else if (failures[lefts[n]] != null) {
+                failures[n] = failures[lefts[n]];
+            } else if (rights[n] >= 0 && failures[rights[n]] != null) {
+                failures[n] = failures[rights[n]];
+            } else {
+                try {
+                    registers[n] = operator.calculate(registers[lefts[n]], rights[n] < 0 ? 0 : registers[rights[n]]);
+                } catch (ArithmeticException e) {
+                    failures[n] = e;
+                }
+            }
+        }
+
+        for (int e = 0; e < roots.length; e++) {
+            ArithmeticException failure = failures[roots[e]];
+            out[e] = failure == null ? registers[roots[e]] : Double.NaN;
+            // Nodes are shared between formulas, so the error has no position in a single formula
+            if (failure != null && errors != null)
+                errors.put(e, RPNCalculator.failure(expressions[e], null, failure));
+        }
+    }
+
+    /**
+     * Helper method to check that a value is provided for every variable
+     *
+     * @param count number of values provided
+     * @throws IllegalArgumentException when the count does not match the number of variables
+     */
+    private void checkArity(int count) {
+        if (count != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " variable value(s) for "
+                    + String.join(", ", variables) + " but got " + count);
+        }
+    }
+
+    /**
+     * Method to print the batch summary in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("%d formulas, %d tokens, %d unique nodes (%.2fx deduplication), variables %s",
+                roots.length, tokenCount, operators.length, getDeduplicationRatio(), Arrays.toString(variables));
+    }
+}
@@ -0,0 +1,1118 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable, reusable form of an infix math expression. The expression is parsed once by the
+ * {@link ShuntingYard} and stored as a postfix program in which every operator token is already
+ * resolved to its {@link Operator}, every operand is already parsed into a {@code double} and every
+ * variable is already resolved to its index. Evaluating a compiled expression therefore never
+ * touches the original string again.
+ * <p>
+ * Every compiled expression can be evaluated with double arithmetic. Expressions compiled for the
+ * {@link NumericBackend.Kind#DECIMAL} or {@link NumericBackend.Kind#LONG} backend also keep their
+ * literals in that form and can be evaluated with that arithmetic.
+ * <p>
+ * Calls to functions of the {@link FunctionRegistry} are resolved to their {@link MathFunction}
+ * when compiling. Functions use double arithmetic, so expressions calling them can only be
+ * compiled for the {@link NumericBackend.Kind#DOUBLE} backend.
+ * <p>
+ * Logical operators and conditionals are jumps in the program, so the operand that does not
+ * decide the result and the branch that is not taken are skipped without being evaluated. Any value
+ * other than 0 is true, and logical operators give 1 or 0.
+ */
+public final class CompiledExpression {
+    /**
+     * Operand stack of each evaluating thread, reused so that evaluation allocates nothing
+     */
+    private static final ThreadLocal<DoubleStack> STACKS = ThreadLocal.withInitial(DoubleStack::new);
+
+    /**
+     * Marks an expression that is too large to be translated by the {@link FormulaCompiler}
+     */
+    private static final Formula INTERPRETED = vars -> Double.NaN;
+
+    private final String expression;
+    // Rendered from the program on first use when loaded from the binary format
+    private String postfix;
+    private final Operator[] operators;
+    private final double[] literals;
+    private final BigDecimal[] decimalLiterals;
+    private final long[] longLiterals;
+    private final NumericBackend backend;
+    private final int[] slots;
+    private final MathFunction[] functions;
+    private final byte[] branches;
+    private final int[] offsets;
+    private final String[] variables;
+    private final int maxDepth;
+    private final int[] operatorCounts;
+
+    // Number of evaluations, counted without synchronization as it only decides when to translate
+    private int calls;
+    private volatile Formula formula;
+
+    /**
+     * Private constructor used by {@link #compile(String, ShuntingYard, NumericBackend)}.
+     *
+     * @param expression      original infix expression
+     * @param postfix         postfix form of the expression, {@code null} to render it from the program
+     * @param operators       operator of each postfix token, {@code null} for operands
+     * @param literals        value of each literal operand token, unused otherwise
+     * @param decimalLiterals exact value of each literal for the decimal backend, {@code null} otherwise
+     * @param longLiterals    value of each literal for the long backend, {@code null} otherwise
+     * @param backend         arithmetic the expression was compiled for
+     * @param slots           variable index of each variable operand token, argument count of each
+     *                        function token, target of each jump token, -1 otherwise
+     * @param functions       function of each function token, {@code null} if the program calls none
+     * @param branches        {@link TokenStream} type of each jump token and 0 for other tokens,
+     *                        {@code null} if the program has no jumps
+     * @param offsets         position of each token in the original expression
+     * @param variables       names of the variables in order of first appearance
+     * @param maxDepth        largest number of operands on the stack during evaluation
+     */
+    private CompiledExpression(String expression, String postfix, Operator[] operators, double[] literals,
+                               BigDecimal[] decimalLiterals, long[] longLiterals, NumericBackend backend,
+                               int[] slots, MathFunction[] functions, byte[] branches, int[] offsets,
+                               String[] variables, int maxDepth) {
+        this.expression = expression;
+        this.postfix = postfix;
+        this.operators = operators;
+        this.literals = literals;
+        this.decimalLiterals = decimalLiterals;
+        this.longLiterals = longLiterals;
+        this.backend = backend;
+        this.slots = slots;
+        this.functions = functions;
+        this.branches = branches;
+        this.offsets = offsets;
+        this.variables = variables;
+        this.maxDepth = maxDepth;
+
+        // Operators of the program, all applied by an evaluation unless jumps skip some of them
+        this.operatorCounts = new int[Operator.values().length];
+        for (Operator operator : operators) {
+            if (operator != null)
+                operatorCounts[operator.ordinal()]++;
+        }
+    }
+
+    /**
+     * Compiles an infix math expression into a postfix program for double arithmetic.
+     *
+     * @param mathExpression infix math expression, whitespaces between tokens are optional
+     * @param sy             shunting yard used for the conversion
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws InvalidExpressionException when the expression is not a valid math expression
+     * @throws ArithmeticException        when the expression contains no operands
+     */
+    public static CompiledExpression compile(String mathExpression, ShuntingYard sy) {
+        return compile(mathExpression, sy, NumericBackend.DOUBLE);
+    }
+
+    /**
+     * Compiles an infix math expression into a postfix program for the given arithmetic.
+     *
+     * @param mathExpression infix math expression, whitespaces between tokens are optional
+     * @param sy             shunting yard used for the conversion
+     * @param backend        arithmetic the expression is evaluated with
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws InvalidExpressionException when the expression is not a valid math expression, or
+     *                                    a literal is not an integer for the long backend
+     * @throws ArithmeticException        when the expression contains no operands
+     */
+    public static CompiledExpression compile(String mathExpression, ShuntingYard sy, NumericBackend backend) {
+        return build(mathExpression, sy.toPostfix(mathExpression), backend);
+    }
+
+    /**
+     * Compiles a math expression written in postfix (reverse polish) notation, such as {@code 1 2 +}.
+     * No conversion is needed, so the program is the tokens of the expression in their order.
+     *
+     * @param postfixExpression postfix math expression, tokens delimited using whitespaces
+     * @param backend           arithmetic the expression is evaluated with
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws InvalidExpressionException when the expression is not a valid postfix expression, or
+     *                                    a literal is not an integer for the long backend
+     * @throws ArithmeticException        when the expression contains no operands
+     */
+    public static CompiledExpression compilePostfix(String postfixExpression, NumericBackend backend) {
+        TokenStream tokens = Lexer.tokenizePostfix(postfixExpression);
+        for (int i = 0; i < tokens.getSize(); i++) {
+            if (tokens.type(i) == TokenStream.LEFT_BRACKET || tokens.type(i) == TokenStream.RIGHT_BRACKET) {
+                throw new InvalidExpressionException("Brackets are not allowed in postfix expressions",
+                        tokens.offset(i));
+            }
+            if (tokens.type(i) == TokenStream.COMMA) {
+                throw new InvalidExpressionException("Commas are not allowed in postfix expressions",
+                        tokens.offset(i));
+            }
+            if (isBranch(tokens.type(i))) {
+                throw new InvalidExpressionException("Logical operators and conditionals are not allowed in postfix"
+                        + " expressions", tokens.offset(i));
+            }
+        }
+        return build(postfixExpression, tokens, backend);
+    }
+
+    /**
+     * Helper method to resolve postfix tokens into a program
+     *
+     * @param mathExpression original math expression
+     * @param tokens         postfix tokens of the expression
+     * @param backend        arithmetic the expression is evaluated with
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws InvalidExpressionException when the tokens are not a valid postfix program, or
+     *                                    a literal is not an integer for the long backend
+     * @throws ArithmeticException        when there are no tokens
+     */
+    private static CompiledExpression build(String mathExpression, TokenStream tokens, NumericBackend backend) {
+        if (tokens.isEmpty()) {
+            throw new ArithmeticException("Postfix expression is empty. Cannot calculate RPN.");
+        }
+
+        Operator[] operators = new Operator[tokens.getSize()];
+        double[] literals = new double[tokens.getSize()];
+        int[] slots = new int[tokens.getSize()];
+        int[] offsets = new int[tokens.getSize()];
+        BigDecimal[] decimalLiterals = backend.getKind() == NumericBackend.Kind.DECIMAL
+                ? new BigDecimal[tokens.getSize()] : null;
+        long[] longLiterals = backend.getKind() == NumericBackend.Kind.LONG ? new long[tokens.getSize()] : null;
+        MathFunction[] functions = null;
+        byte[] branches = null;
+        int[] entries = null;
+        List<String> variables = new ArrayList<>();
+
+        // Resolve every token once and track the stack depth so that malformed programs
+        // are rejected here instead of on every evaluation
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < tokens.getSize(); i++) {
+            slots[i] = -1;
+            offsets[i] = tokens.offset(i);
+            depth = entryDepth(entries, i, depth);
+            if (depth < 0) {
+                throw new InvalidExpressionException("Invalid expression", tokens.offset(i));
+            }
+
+            if (isBranch(tokens.type(i))) {
+                if (branches == null) {
+                    branches = new byte[tokens.getSize()];
+                    entries = new int[tokens.getSize() + 1];
+                    Arrays.fill(entries, -1);
+                }
+                branches[i] = tokens.type(i);
+                slots[i] = (int) tokens.value(i);
+                depth = branchDepth(branches[i], i, slots[i], depth, entries);
+                if (depth < -1) {
+                    throw new InvalidExpressionException("Invalid expression", tokens.offset(i));
+                }
+                continue;
+            }
+
+            if (tokens.type(i) == TokenStream.NUMBER) {
+                literals[i] = tokens.value(i);
+                if (decimalLiterals != null)
+                    decimalLiterals[i] = new BigDecimal(tokens.text(i));
+                if (longLiterals != null)
+                    longLiterals[i] = toLong(tokens, i);
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+
+            if (tokens.type(i) == TokenStream.VARIABLE) {
+                String name = tokens.text(i);
+                int slot = variables.indexOf(name);
+                if (slot < 0) {
+                    slot = variables.size();
+                    variables.add(name);
+                }
+                slots[i] = slot;
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+
+            if (tokens.type(i) == TokenStream.FUNCTION) {
+                int arguments = (int) tokens.value(i);
+                if (functions == null)
+                    functions = new MathFunction[tokens.getSize()];
+                functions[i] = resolve(tokens, i, arguments, backend);
+                if (depth < arguments) {
+                    throw new InvalidExpressionException("Invalid expression", tokens.offset(i));
+                }
+                depth -= arguments - 1;
+                maxDepth = Math.max(maxDepth, depth);
+                slots[i] = arguments;
+                continue;
+            }
+
+            Operator operator = tokens.operator(i);
+            int operands = operator == Operator.FACTORIAL ? 1 : 2;
+            if (depth < operands) {
+                throw new InvalidExpressionException("Invalid expression", tokens.offset(i));
+            }
+            depth -= operands - 1;
+            operators[i] = operator;
+        }
+
+        if (entryDepth(entries, tokens.getSize(), depth) != 1) {
+            throw new InvalidExpressionException("Invalid expression", -1);
+        }
+        return new CompiledExpression(mathExpression, tokens.toString(), operators, literals, decimalLiterals,
+                longLiterals, backend, slots, functions, branches, offsets, variables.toArray(new String[0]),
+                maxDepth);
+    }
+
+    /**
+     * Helper method to check if a token type is a jump
+     *
+     * @param type {@link TokenStream} type of the token
+     * @return {@code true} for logical operators, parts of conditionals and {@link TokenStream#BOOLEAN}
+     */
+    private static boolean isBranch(byte type) {
+        return type >= TokenStream.AND && type <= TokenStream.BOOLEAN;
+    }
+
+    /**
+     * Helper method to find the stack depth at a token, which must be the same whether the token is
+     * reached from the token before it or by a jump
+     *
+     * @param entries depth at each jump target, -1 where no jump lands ({@code null} if there are no jumps)
+     * @param i       index of the token, the size of the program for its end
+     * @param depth   depth after the token before, -1 if that token always jumps
+     * @return {@code int} - the depth at the token, or -1 if the depths differ or the token is never reached
+     */
+    private static int entryDepth(int[] entries, int i, int depth) {
+        int entry = entries == null ? -1 : entries[i];
+        if (entry < 0)
+            return depth;
+        return depth < 0 || depth == entry ? entry : -1;
+    }
+
+    /**
+     * Helper method to follow the stack depth through a jump token, recording the depth at its target
+     *
+     * @param branch  {@link TokenStream} type of the jump
+     * @param i       index of the jump token
+     * @param target  index of the token jumped to
+     * @param depth   depth before the jump
+     * @param entries depth at each jump target, -1 where no jump lands
+     * @return {@code int} - the depth after the token when it does not jump, -1 if it always jumps,
+     * or -2 if the jump is invalid
+     */
+    private static int branchDepth(byte branch, int i, int target, int depth, int[] entries) {
+        if (depth < 1)
+            return -2;
+        if (branch == TokenStream.BOOLEAN)
+            return depth;
+        if (target <= i || target >= entries.length)
+            return -2;
+
+        // A condition is popped either way, a logical operator leaves its result when it jumps
+        int landing = branch == TokenStream.CONDITION ? depth - 1 : depth;
+        if (entries[target] >= 0 && entries[target] != landing)
+            return -2;
+        entries[target] = landing;
+        return branch == TokenStream.ALTERNATIVE ? -1 : depth - 1;
+    }
+
+    /**
+     * Helper method to decide if a jump token jumps
+     *
+     * @param branch {@link TokenStream} type of the jump
+     * @param truth  whether the value on top of the stack is not 0
+     * @return {@code boolean} - {@code true} if the tokens up to its target are skipped
+     */
+    private static boolean jumps(byte branch, boolean truth) {
+        switch (branch) {
+            case TokenStream.ALTERNATIVE:
+                return true;
+            case TokenStream.CONDITION:
+            case TokenStream.AND:
+                return !truth;
+            case TokenStream.OR:
+                return truth;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Helper method to find the truth of the value a jump token leaves on top of the stack
+     *
+     * @param branch {@link TokenStream} type of the jump
+     * @param truth  whether the value on top of the stack is not 0
+     * @return {@code boolean} - the truth itself for {@link TokenStream#BOOLEAN}, else the result of a
+     * logical operator that jumps
+     */
+    private static boolean result(byte branch, boolean truth) {
+        return branch == TokenStream.BOOLEAN ? truth : branch == TokenStream.OR;
+    }
+
+    /**
+     * Helper method to tell how a jump token changes the stack
+     *
+     * @param branch {@link TokenStream} type of the jump
+     * @param jump   whether the token jumps
+     * @return {@code int} - -1 if it pops the top value, 1 if it replaces the top value by its truth
+     * (or by the result of a logical operator that jumps), 0 if it leaves the stack alone
+     */
+    private static int stackEffect(byte branch, boolean jump) {
+        if (branch == TokenStream.BOOLEAN || (jump && (branch == TokenStream.AND || branch == TokenStream.OR)))
+            return 1;
+        if (branch == TokenStream.CONDITION || (!jump && branch != TokenStream.ALTERNATIVE))
+            return -1;
+        return 0;
+    }
+
+    /**
+     * Helper method to resolve a function call
+     *
+     * @param tokens    postfix tokens
+     * @param i         index of the function token
+     * @param arguments number of arguments of the call
+     * @param backend   arithmetic the expression is evaluated with
+     * @return the function called
+     * @throws InvalidExpressionException when the function is unknown, does not accept the number of
+     *                                    arguments, or the backend is not the double backend
+     */
+    private static MathFunction resolve(TokenStream tokens, int i, int arguments, NumericBackend backend) {
+        String name = tokens.text(i);
+        MathFunction function = FunctionRegistry.lookup(name);
+        if (function == null) {
+            throw new InvalidExpressionException("Unknown function '" + name + "' at position " + tokens.offset(i),
+                    tokens.offset(i));
+        }
+        if (!function.accepts(arguments)) {
+            throw new InvalidExpressionException("Function " + function + " cannot be called with " + arguments
+                    + " argument(s) at position " + tokens.offset(i), tokens.offset(i));
+        }
+        if (backend.getKind() != NumericBackend.Kind.DOUBLE) {
+            throw new InvalidExpressionException("Function " + name + " requires the double backend, not "
+                    + backend.getKind(), tokens.offset(i));
+        }
+        return function;
+    }
+
+    /**
+     * Helper method to convert a literal for the long backend
+     *
+     * @param tokens postfix tokens
+     * @param i      index of the literal
+     * @return the value of the literal
+     * @throws InvalidExpressionException when the literal is not an integer within the long range
+     */
+    private static long toLong(TokenStream tokens, int i) {
+        try {
+            return new BigDecimal(tokens.text(i)).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new InvalidExpressionException("Integer arithmetic requires integer literals: "
+                    + tokens.text(i), tokens.offset(i));
+        }
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return original infix expression
+     */
+    public String getExpression() { return expression; }
+
+    /**
+     * Accessor method
+     *
+     * @return postfix form of the expression, delimited using whitespaces
+     */
+    public String getPostfix() {
+        String text = postfix;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < operators.length; i++) {
+                byte branch = branchAt(i);
+                if (branch == TokenStream.BOOLEAN)
+                    continue;
+                if (sb.length() > 0)
+                    sb.append(' ');
+                if (branch != 0)
+                    sb.append(branch == TokenStream.AND ? "&&" : branch == TokenStream.OR ? "||"
+                            : branch == TokenStream.CONDITION ? "?" : ":");
+                else if (operators[i] != null)
+                    sb.append(operators[i].getSymbol());
+                else if (functions != null && functions[i] != null)
+                    sb.append(functions[i].getName());
+                else
+                    sb.append(slots[i] < 0 ? literalText(literals[i]) : variables[slots[i]]);
+            }
+            postfix = text = sb.toString();
+        }
+        return text;
+    }
+
+    /**
+     * Formats a literal for a postfix program, integers without a fraction
+     *
+     * @param value value of the literal
+     * @return {@link String} - the postfix text of the literal
+     */
+    static String literalText(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return arithmetic the expression was compiled for
+     */
+    public NumericBackend getBackend() { return backend; }
+
+    /**
+     * Returns the names of the variables used by the expression. Values passed to
+     * {@link #evaluate(double...)} and columns passed to {@link #evaluateColumns(double[][], double[])}
+     * are expected in this order.
+     *
+     * @return names of the variables in order of first appearance
+     */
+    public String[] getVariables() { return variables.clone(); }
+
+    /**
+     * Returns the position of a variable in {@link #getVariables()}.
+     *
+     * @param name variable name
+     * @return index of the variable, or -1 if the expression does not use it
+     */
+    public int indexOfVariable(String name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluates the compiled program using reverse polish notation.
+     *
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@code double} - the calculated value
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws ArithmeticException      when an operation is not defined for its operands
+     */
+    public double evaluate(double... values) {
+        checkArity(values.length);
+        Metrics metrics = Metrics.recording();
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        Formula current = formula;
+        if (current == null) {
+            int threshold = FormulaCompiler.getThreshold();
+            if (threshold > 0 && ++calls >= threshold)
+                current = translate();
+        }
+        // Programs with jumps are never translated, the interpreter counts the operators they skip
+        int[] applied = applied(metrics);
+        double value = current != null && current != INTERPRETED
+                ? current.eval(values) : execute(STACKS.get(), values, 0, operators.length, null, applied);
+
+        if (metrics != null)
+            metrics.recordEvaluation(System.nanoTime() - start, applied != null ? applied : operatorCounts);
+        return value;
+    }
+
+    /**
+     * Evaluates the compiled program within a budget. Programs that the budget does not limit while
+     * they run are evaluated like {@link #evaluate(double...)}, the others by the interpreter, which
+     * checks the operands of limited operators and reads the clock before every function call and
+     * every {@value EvaluationBudget#CLOCK_INTERVAL} steps.
+     *
+     * @param budget limits of the evaluation
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@code double} - the calculated value
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws BudgetExceededException  when the evaluation exceeds a limit of the budget
+     * @throws ArithmeticException      when an operation is not defined for its operands
+     */
+    public double evaluate(EvaluationBudget budget, double... values) {
+        budget.checkProgram(this);
+        if (!budget.checksEvaluation(this))
+            return evaluate(values);
+
+        checkArity(values.length);
+        Metrics metrics = Metrics.recording();
+        long start = metrics != null ? System.nanoTime() : 0;
+        int[] applied = applied(metrics);
+        double value = execute(STACKS.get(), values, 0, operators.length, budget, applied);
+        if (metrics != null)
+            metrics.recordEvaluation(System.nanoTime() - start, applied != null ? applied : operatorCounts);
+        return value;
+    }
+
+    /**
+     * Returns the expression as a formula that runs as generated bytecode, translating it now
+     * regardless of how often it was evaluated. Expressions too large to translate are
+     * interpreted by the returned formula instead.
+     * Subsequent calls to {@link #evaluate(double...)} use the same formula.
+     *
+     * @return {@link Formula} - the formula, which does not check the number of values
+     */
+    public Formula toFormula() {
+        Formula current = formula;
+        if (current == null)
+            current = translate();
+        return current != INTERPRETED ? current : values -> execute(STACKS.get(), values, 0, operators.length, null, null);
+    }
+
+    /**
+     * Translates the expression with the {@link FormulaCompiler} once, for every thread
+     *
+     * @return {@link Formula} - the generated formula, or {@link #INTERPRETED} if the expression is too large
+     */
+    private synchronized Formula translate() {
+        if (formula == null) {
+            Formula generated = FormulaCompiler.compile(this);
+            formula = generated != null ? generated : INTERPRETED;
+        }
+        return formula;
+    }
+
+    /**
+     * Evaluates the compiled program using the BigDecimal arithmetic of its backend.
+     *
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@link BigDecimal} - the calculated value
+     * @throws IllegalStateException    when the expression was not compiled for the decimal backend
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws EvaluationException      when an operation is not defined for its operands, or its
+     *                                  result cannot be represented with the backend's precision
+     */
+    public BigDecimal evaluateDecimal(BigDecimal... values) {
+        return evaluateDecimal(EvaluationBudget.UNLIMITED, values);
+    }
+
+    /**
+     * Evaluates the compiled program using the BigDecimal arithmetic of its backend, within a budget
+     * checked before every operator. The clock is also read after every power and factorial, whose
+     * cost grows with their operands.
+     *
+     * @param budget limits of the evaluation
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@link BigDecimal} - the calculated value
+     * @throws IllegalStateException    when the expression was not compiled for the decimal backend
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws BudgetExceededException  when the evaluation exceeds a limit of the budget
+     * @throws EvaluationException      when an operation is not defined for its operands, or its
+     *                                  result cannot be represented with the backend's precision
+     */
+    public BigDecimal evaluateDecimal(EvaluationBudget budget, BigDecimal... values) {
+        checkBackend(NumericBackend.Kind.DECIMAL);
+        checkArity(values.length);
+        budget.checkProgram(this);
+        boolean checked = budget.checksEvaluation(this);
+        long deadline = budget.deadline();
+        int countdown = EvaluationBudget.CLOCK_INTERVAL;
+        Metrics metrics = Metrics.recording();
+        long start = metrics != null ? System.nanoTime() : 0;
+        int[] applied = applied(metrics);
+
+        BigDecimal[] stack = new BigDecimal[maxDepth];
+        int top = 0;
+        int i = 0;
+        try {
+            for (; i < operators.length; i++) {
+                Operator operator = operators[i];
+                if (checked && --countdown == 0) {
+                    countdown = EvaluationBudget.CLOCK_INTERVAL;
+                    budget.checkTime(deadline, offsets[i]);
+                }
+                if (branches != null && branches[i] != 0) {
+                    boolean truth = stack[top - 1].signum() != 0;
+                    boolean jump = jumps(branches[i], truth);
+                    int effect = stackEffect(branches[i], jump);
+                    if (effect < 0)
+                        top--;
+                    else if (effect > 0)
+                        stack[top - 1] = result(branches[i], truth) ? BigDecimal.ONE : BigDecimal.ZERO;
+                    if (jump) {
+                        if (applied != null)
+                            skip(applied, i + 1, slots[i]);
+                        i = slots[i] - 1;
+                    }
+                } else if (operator == null) {
+                    stack[top++] = slots[i] < 0 ? decimalLiterals[i] : values[slots[i]];
+                } else if (operator == Operator.FACTORIAL) {
+                    if (checked)
+                        budget.checkOperation(operator, stack[top - 1], null, backend.getMathContext(), offsets[i]);
+                    stack[top - 1] = operator.calculate(stack[top - 1], null, backend.getMathContext());
+                    if (checked)
+                        budget.checkTime(deadline, offsets[i]);
+                } else {
+                    BigDecimal num2 = stack[--top];
+                    if (checked)
+                        budget.checkOperation(operator, stack[top - 1], num2, backend.getMathContext(), offsets[i]);
+                    stack[top - 1] = operator.calculate(stack[top - 1], num2, backend.getMathContext());
+                    // A single power may take longer than the steps between two readings of the clock
+                    if (checked && operator == Operator.POWER)
+                        budget.checkTime(deadline, offsets[i]);
+                }
+            }
+        } catch (BudgetExceededException e) {
+            throw e;
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), offsets[i]);
+        }
+        if (metrics != null)
+            metrics.recordEvaluation(System.nanoTime() - start, applied != null ? applied : operatorCounts);
+        return stack[0];
+    }
+
+    /**
+     * Evaluates the compiled program using exact long integer arithmetic.
+     *
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@code long} - the calculated value
+     * @throws IllegalStateException    when the expression was not compiled for the long backend
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws EvaluationException      when an operation overflows or its result is not an integer
+     */
+    public long evaluateLong(long... values) {
+        return evaluateLong(EvaluationBudget.UNLIMITED, values);
+    }
+
+    /**
+     * Evaluates the compiled program using exact long integer arithmetic, within a budget checked
+     * before every operator.
+     *
+     * @param budget limits of the evaluation
+     * @param values value of each variable, in the order of {@link #getVariables()}
+     * @return {@code long} - the calculated value
+     * @throws IllegalStateException    when the expression was not compiled for the long backend
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws BudgetExceededException  when the evaluation exceeds a limit of the budget
+     * @throws EvaluationException      when an operation overflows or its result is not an integer
+     */
+    public long evaluateLong(EvaluationBudget budget, long... values) {
+        checkBackend(NumericBackend.Kind.LONG);
+        checkArity(values.length);
+        budget.checkProgram(this);
+        boolean checked = budget.checksEvaluation(this);
+        long deadline = budget.deadline();
+        int countdown = EvaluationBudget.CLOCK_INTERVAL;
+        Metrics metrics = Metrics.recording();
+        long start = metrics != null ? System.nanoTime() : 0;
+        int[] applied = applied(metrics);
+
+        long[] stack = new long[maxDepth];
+        int top = 0;
+        int i = 0;
+        try {
+            for (; i < operators.length; i++) {
+                Operator operator = operators[i];
+                if (checked && --countdown == 0) {
+                    countdown = EvaluationBudget.CLOCK_INTERVAL;
+                    budget.checkTime(deadline, offsets[i]);
+                }
+                if (branches != null && branches[i] != 0) {
+                    boolean truth = stack[top - 1] != 0;
+                    boolean jump = jumps(branches[i], truth);
+                    int effect = stackEffect(branches[i], jump);
+                    if (effect < 0)
+                        top--;
+                    else if (effect > 0)
+                        stack[top - 1] = result(branches[i], truth) ? 1 : 0;
+                    if (jump) {
+                        if (applied != null)
+                            skip(applied, i + 1, slots[i]);
+                        i = slots[i] - 1;
+                    }
+                } else if (operator == null) {
+                    stack[top++] = slots[i] < 0 ? longLiterals[i] : values[slots[i]];
+                } else if (operator == Operator.FACTORIAL) {
+                    if (checked)
+                        budget.checkOperation(operator, stack[top - 1], 0, offsets[i]);
+                    stack[top - 1] = operator.calculate(stack[top - 1], 0L);
+                } else {
+                    long num2 = stack[--top];
+                    if (checked)
+                        budget.checkOperation(operator, stack[top - 1], num2, offsets[i]);
+                    stack[top - 1] = operator.calculate(stack[top - 1], num2);
+                }
+            }
+        } catch (BudgetExceededException e) {
+            throw e;
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), offsets[i]);
+        }
+        if (metrics != null)
+            metrics.recordEvaluation(System.nanoTime() - start, applied != null ? applied : operatorCounts);
+        return stack[0];
+    }
+
+    /**
+     * Helper method to check that the expression was compiled for a backend
+     *
+     * @param kind kind of arithmetic requested
+     * @throws IllegalStateException when the expression was compiled for another backend
+     */
+    private void checkBackend(NumericBackend.Kind kind) {
+        if (backend.getKind() != kind) {
+            throw new IllegalStateException("Expression was compiled for the " + backend + " backend, not " + kind);
+        }
+    }
+
+    /**
+     * Evaluates the compiled program once per row over columns of variable values. The operand
+     * stack and the row of variable values are reused for every row. Large batches can instead be
+     * evaluated a block of rows at a time by a {@link ColumnEvaluator}.
+     *
+     * @param columns one column of values per variable, in the order of {@link #getVariables()}
+     * @param out     receives the calculated value of each row, its length is the number of rows
+     * @throws IllegalArgumentException when the number of columns does not match the variables
+     *                                  or a column is shorter than the output
+     * @throws ArithmeticException      when an operation is not defined for the operands of a row
+     */
+    public void evaluateColumns(double[][] columns, double[] out) {
+        checkArity(columns.length);
+        for (int v = 0; v < columns.length; v++) {
+            if (columns[v].length < out.length) {
+                throw new IllegalArgumentException("Column for variable " + variables[v] + " has "
+                        + columns[v].length + " rows, expected " + out.length);
+            }
+        }
+
+        // Every row counts as an evaluation towards the translation threshold
+        Formula current = formula;
+        int threshold = FormulaCompiler.getThreshold();
+        if (current == null && threshold > 0 && (calls += out.length) >= threshold)
+            current = translate();
+
+        DoubleStack stack = STACKS.get();
+        double[] row = new double[columns.length];
+        boolean generated = current != null && current != INTERPRETED;
+        for (int r = 0; r < out.length; r++) {
+            for (int v = 0; v < columns.length; v++) {
+                row[v] = columns[v][r];
+            }
+            out[r] = generated ? current.eval(row) : execute(stack, row, 0, operators.length, null, null);
+        }
+    }
+
+    /**
+     * Helper method to check that a value is provided for every variable
+     *
+     * @param count number of values provided
+     * @throws IllegalArgumentException when the count does not match the number of variables
+     */
+    void checkArity(int count) {
+        if (count != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " variable value(s) for "
+                    + String.join(", ", variables) + " but got " + count);
+        }
+    }
+
+    /**
+     * Returns the number of tokens of the postfix program
+     *
+     * @return {@code int} - number of tokens
+     */
+    int size() { return operators.length; }
+
+    /**
+     * Returns the largest number of operands on the stack during evaluation
+     *
+     * @return {@code int} - the stack depth
+     */
+    int getMaxDepth() { return maxDepth; }
+
+    /**
+     * Checks if the postfix program applies an operator
+     *
+     * @param operator operator to look for
+     * @return {@code boolean} - {@code true} if at least one token is the operator, else {@code false}
+     */
+    boolean applies(Operator operator) { return operatorCounts[operator.ordinal()] > 0; }
+
+    /**
+     * Helper method to start counting the operators an evaluation applies. Only programs with jumps
+     * need counting, the others apply every operator they hold.
+     *
+     * @param metrics metrics being recorded (or {@code null} if none)
+     * @return counts of the operators of the program, to remove skipped operators from, or {@code null}
+     * if the evaluation is not counted
+     */
+    private int[] applied(Metrics metrics) {
+        return metrics != null && branches != null ? operatorCounts.clone() : null;
+    }
+
+    /**
+     * Helper method to remove the operators skipped by a jump from the counts of applied operators
+     *
+     * @param applied counts of the operators applied by the evaluation
+     * @param from    index of the first skipped token, inclusive
+     * @param to      index of the jump target, exclusive
+     */
+    private void skip(int[] applied, int from, int to) {
+        for (int j = from; j < to; j++) {
+            if (operators[j] != null)
+                applied[operators[j].ordinal()]--;
+        }
+    }
+
+    /**
+     * Returns the operator of a postfix token
+     *
+     * @param i index of the token
+     * @return {@link Operator} - the operator (or {@code null} if the token is an operand)
+     */
+    Operator operatorAt(int i) { return operators[i]; }
+
+    /**
+     * Returns the function of a postfix token. Function tokens have no operator, and their slot is
+     * their number of arguments.
+     *
+     * @param i index of the token
+     * @return {@link MathFunction} - the function (or {@code null} if the token is not a function call)
+     */
+    MathFunction functionAt(int i) { return functions == null ? null : functions[i]; }
+
+    /**
+     * Checks if the program calls any function
+     *
+     * @return {@code boolean} - {@code true} if it has function tokens, else {@code false}
+     */
+    boolean hasFunctions() { return functions != null; }
+
+    /**
+     * Returns the jump type of a postfix token. Jump tokens have no operator, and their slot is the
+     * index of the token they jump to.
+     *
+     * @param i index of the token
+     * @return {@code byte} - the {@link TokenStream} type of the jump, such as {@link TokenStream#AND}
+     * (or 0 if the token is not a jump)
+     */
+    byte branchAt(int i) { return branches == null ? 0 : branches[i]; }
+
+    /**
+     * Checks if the program has logical operators or conditionals
+     *
+     * @return {@code boolean} - {@code true} if it has jump tokens, else {@code false}
+     */
+    boolean hasBranches() { return branches != null; }
+
+    /**
+     * Returns the value of a literal postfix token
+     *
+     * @param i index of the token
+     * @return {@code double} - the value (unused if the token is not a literal)
+     */
+    double literalAt(int i) { return literals[i]; }
+
+    /**
+     * Returns the variable index of a postfix token
+     *
+     * @param i index of the token
+     * @return {@code int} - the index in {@link #getVariables()} (or -1 if the token is not a variable)
+     */
+    int slotAt(int i) { return slots[i]; }
+
+    /**
+     * Returns the position of a postfix token in the original expression
+     *
+     * @param i index of the token
+     * @return {@code int} - the offset
+     */
+    int offsetAt(int i) { return offsets[i]; }
+
+    /**
+     * Creates a double program for the same expression and variables from rewritten postfix tokens,
+     * as done by {@link ExpressionOptimizer}. The tokens must form a complete postfix program.
+     *
+     * @param postfix   postfix form of the rewritten program
+     * @param operators operator of each postfix token, {@code null} for operands
+     * @param literals  value of each literal operand token, unused otherwise
+     * @param slots     variable index of each variable operand token, -1 otherwise
+     * @param offsets   position of each token in the original expression
+     * @return {@link CompiledExpression} - the rewritten program
+     */
+    CompiledExpression rewrite(String postfix, Operator[] operators, double[] literals, int[] slots, int[] offsets) {
+        int depth = 0;
+        int maxDepth = 0;
+        for (Operator operator : operators) {
+            if (operator == null)
+                maxDepth = Math.max(maxDepth, ++depth);
+            else if (operator != Operator.FACTORIAL)
+                depth--;
+        }
+        return new CompiledExpression(expression, postfix, operators, literals, null, null, NumericBackend.DOUBLE,
+                slots, null, null, offsets, variables, maxDepth);
+    }
+
+    /**
+     * Creates a double program from postfix tokens loaded from the binary format of
+     * {@link ExpressionCodec}. The tokens are checked, since they may come from a corrupt file.
+     *
+     * @param expression original math expression
+     * @param operators  operator of each postfix token, {@code null} for operands
+     * @param literals   value of each literal operand token, unused otherwise
+     * @param slots      variable index of each variable operand token, argument count of each
+     *                   function token, target of each jump token, -1 otherwise
+     * @param functions  function of each function token, {@code null} if the program calls none
+     * @param branches   {@link TokenStream} type of each jump token and 0 for other tokens,
+     *                   {@code null} if the program has no jumps
+     * @param offsets    position of each token in the original expression
+     * @param variables  names of the variables in order of first appearance
+     * @return {@link CompiledExpression} - the loaded program
+     * @throws IllegalArgumentException when the tokens are not a complete postfix program
+     */
+    static CompiledExpression load(String expression, Operator[] operators, double[] literals, int[] slots,
+                                   MathFunction[] functions, byte[] branches, int[] offsets, String[] variables) {
+        int[] entries = null;
+        if (branches != null) {
+            entries = new int[operators.length + 1];
+            Arrays.fill(entries, -1);
+        }
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < operators.length; i++) {
+            depth = entryDepth(entries, i, depth);
+            if (depth < 0) {
+                throw new IllegalArgumentException("Invalid compiled expression: " + expression);
+            }
+            if (branches != null && branches[i] != 0) {
+                depth = branchDepth(branches[i], i, slots[i], depth, entries);
+                if (!isBranch(branches[i]) || depth < -1) {
+                    throw new IllegalArgumentException("Invalid jump in compiled expression: " + expression);
+                }
+            } else if (functions != null && functions[i] != null) {
+                if (!functions[i].accepts(slots[i]) || depth < slots[i]) {
+                    throw new IllegalArgumentException("Invalid call of " + functions[i] + " in compiled expression: "
+                            + expression);
+                }
+                depth -= slots[i] - 1;
+                maxDepth = Math.max(maxDepth, depth);
+            } else if (operators[i] == null) {
+                if (slots[i] >= variables.length) {
+                    throw new IllegalArgumentException("Invalid variable index " + slots[i] + " in compiled expression: "
+                            + expression);
+                }
+                maxDepth = Math.max(maxDepth, ++depth);
+            } else {
+                int operands = operators[i] == Operator.FACTORIAL ? 1 : 2;
+                if (depth < operands) {
+                    throw new IllegalArgumentException("Invalid compiled expression: " + expression);
+                }
+                depth -= operands - 1;
+            }
+        }
+        if (entryDepth(entries, operators.length, depth) != 1) {
+            throw new IllegalArgumentException("Invalid compiled expression: " + expression);
+        }
+        return new CompiledExpression(expression, null, operators, literals, null, null, NumericBackend.DOUBLE,
+                slots, functions, branches, offsets, variables, maxDepth);
+    }
+
+    /**
+     * Runs a range of the postfix program on the operand stack of the current thread. The range
+     * must hold a complete subexpression, such as a subtree of an {@link ExpressionTree}.
+     *
+     * @param values value of each variable
+     * @param from   index of the first token of the range, inclusive
+     * @param to     index of the last token of the range, exclusive
+     * @return {@code double} - the calculated value of the range
+     * @throws ArithmeticException when an operation is not defined for its operands
+     */
+    double execute(double[] values, int from, int to) {
+        return execute(STACKS.get(), values, from, to, null, null);
+    }
+
+    /**
+     * Runs a range of the postfix program on a caller-provided operand stack.
+     *
+     * @param stack   operand stack, cleared before use
+     * @param values  value of each variable
+     * @param from    index of the first token of the range, inclusive
+     * @param to      index of the last token of the range, exclusive
+     * @param budget  limits checked while the program runs, {@code null} for none
+     * @param applied counts of the operators of the program, less those skipped by jumps once run,
+     *                {@code null} if not counted
+     * @return {@code double} - the calculated value
+     * @throws BudgetExceededException when the evaluation exceeds a limit of the budget
+     * @throws EvaluationException     when an operation is not defined for its operands
+     */
+    private double execute(DoubleStack stack, double[] values, int from, int to, EvaluationBudget budget,
+                           int[] applied) {
+        stack.clear();
+        stack.ensureCapacity(maxDepth);
+        long deadline = budget != null ? budget.deadline() : 0;
+        int countdown = EvaluationBudget.CLOCK_INTERVAL;
+
+        int i = from;
+        try {
+            for (; i < to; i++) {
+                Operator operator = operators[i];
+
+                // The clock is only read every few steps, as each step takes bounded time
+                if (budget != null && --countdown == 0) {
+                    countdown = EvaluationBudget.CLOCK_INTERVAL;
+                    budget.checkTime(deadline, offsets[i]);
+                }
+
+                // Jumps skip the operand or branch that is not evaluated
+                if (branches != null && branches[i] != 0) {
+                    boolean truth = stack.peekTop() != 0;
+                    boolean jump = jumps(branches[i], truth);
+                    int effect = stackEffect(branches[i], jump);
+                    if (effect < 0)
+                        stack.pop();
+                    else if (effect > 0)
+                        stack.setTop(result(branches[i], truth) ? 1 : 0);
+                    if (jump) {
+                        if (applied != null)
+                            skip(applied, i + 1, slots[i]);
+                        i = slots[i] - 1;
+                    }
+                }
+
+                // Operands are already parsed or resolved, push them onto the stack
+                // Functions are already resolved, replace their arguments by the result
+                else if (operator == null) {
+                    if (functions != null && functions[i] != null) {
+                        if (budget != null)
+                            budget.checkTime(deadline, offsets[i]);
+                        stack.call(functions[i], slots[i]);
+                    } else {
+                        stack.push(slots[i] < 0 ? literals[i] : values[slots[i]]);
+                    }
+                }
+
+                // Operators are already resolved, pop their operands and push the result back
+                else if (operator == Operator.FACTORIAL) {
+                    if (budget != null)
+                        budget.checkOperation(operator, stack.peekTop(), 0, offsets[i]);
+                    stack.setTop(operator.calculate(stack.peekTop(), 0));
+                } else {
+                    double num2 = stack.pop();
+                    if (budget != null)
+                        budget.checkOperation(operator, stack.peekTop(), num2, offsets[i]);
+                    stack.setTop(operator.calculate(stack.peekTop(), num2));
+                }
+            }
+        } catch (BudgetExceededException e) {
+            throw e;
+        } catch (ArithmeticException e) {
+            // Report the position of the operator that failed
+            throw new EvaluationException(e.getMessage(), offsets[i]);
+        }
+
+        return stack.pop();
+    }
+
+    /**
+     * Method to print the compiled expression in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("Expression: %s\nPostfix: %s\n", expression, getPostfix());
+    }
+}
@@ -0,0 +1,180 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversion between doubles and plain decimal text, such as {@code -12.75}, without allocating on
+ * the common paths.
+ * <p>
+ * Parsing reads the characters in place. When the significant digits fit in 2<sup>53</sup> and there
+ * are at most 22 fraction digits, the digits and the power of ten are both exact doubles, so a single
+ * division gives the correctly rounded value; integers of up to 18 digits are converted directly.
+ * Longer numbers fall back to {@link Double#parseDouble(String)}, so every result equals it.
+ * <p>
+ * Formatting to a fixed number of decimals gives the same text as {@code String.format("%.2f", value)}
+ * (for 2 decimals), that is the shortest decimal form of the value rounded half up. Values below
+ * 2<sup>40</sup> once scaled are rounded from a single multiplication and written into the caller's
+ * buffer; exact ties and larger values fall back to {@link BigDecimal}.
+ */
+public final class DecimalText {
+    /**
+     * Exact powers of ten usable for fast decimal conversion
+     */
+    static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Largest number of decimals of a formatted value
+     */
+    public static final int MAX_DECIMALS = 18;
+
+    /**
+     * Largest mantissa that is exact in a double
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * Largest number of digits that always fit in a long
+     */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    /**
+     * Largest scaled value formatted without {@link BigDecimal}, so the rounding error of the scaling
+     * stays far below the distance to a tie
+     */
+    private static final double MAX_FAST_SCALED = 0x1p40;
+
+    /**
+     * Distance to a tie, as a fraction of the last place, within which rounding is left to {@link BigDecimal}
+     */
+    private static final double TIE_MARGIN = 1e-3;
+
+    private DecimalText() {
+    }
+
+    /**
+     * Parses a decimal number: an optional sign, digits and at most one decimal point
+     *
+     * @param text  text holding the number
+     * @param start position of the first character of the number
+     * @param end   position after the last character of the number
+     * @return {@code double} - the value, equal to {@link Double#parseDouble(String)} of the same text
+     * @throws NumberFormatException when the characters are not a decimal number
+     */
+    public static double parse(CharSequence text, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Leading zeros do not count towards the digits that must fit in a long
+                if (mantissa != 0 || c != '0')
+                    significant++;
+                if (significant <= MAX_LONG_DIGITS)
+                    mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (point)
+                    fractionDigits++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                throw new NumberFormatException("Invalid number: " + text.subSequence(start, end));
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Invalid number: " + text.subSequence(start, end));
+        }
+
+        double value;
+        if (significant <= MAX_LONG_DIGITS && fractionDigits == 0) {
+            // Converting a long rounds correctly
+            value = mantissa;
+        } else if (significant <= MAX_LONG_DIGITS && mantissa <= MAX_EXACT_MANTISSA
+                && fractionDigits < POWERS_OF_TEN.length) {
+            // Both operands are exact doubles, so the single division is correctly rounded
+            value = mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            return Double.parseDouble(text.subSequence(start, end).toString());
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal number
+     *
+     * @param text the number
+     * @return {@code double} - the value, equal to {@link Double#parseDouble(String)} of the same text
+     * @throws NumberFormatException when the text is not a decimal number
+     */
+    public static double parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Formats a value with a fixed number of decimals, like {@code String.format("%.nf", value)}
+     *
+     * @param value    value to format
+     * @param decimals number of decimals
+     * @return {@link String} - the formatted value
+     * @throws IllegalArgumentException when the number of decimals is negative or above {@link #MAX_DECIMALS}
+     */
+    public static String format(double value, int decimals) {
+        return appendFixed(new StringBuilder(24), value, decimals).toString();
+    }
+
+    /**
+     * Appends a value with a fixed number of decimals to a buffer, like {@code String.format("%.nf", value)}.
+     * Nothing is allocated unless the value is very large or a tie.
+     *
+     * @param out      buffer to append to, typically reused
+     * @param value    value to format
+     * @param decimals number of decimals
+     * @return {@link StringBuilder} - the buffer
+     * @throws IllegalArgumentException when the number of decimals is negative or above {@link #MAX_DECIMALS}
+     */
+    public static StringBuilder appendFixed(StringBuilder out, double value, int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("Number of decimals must be between 0 and " + MAX_DECIMALS);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return out.append(value);
+        }
+        // The sign is kept even when the value rounds to zero, as by the formatter
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+            value = -value;
+        }
+
+        double scaled = value * POWERS_OF_TEN[decimals];
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (scaled >= MAX_FAST_SCALED || Math.abs(fraction - 0.5) < TIE_MARGIN) {
+            // Round the shortest decimal form of the value, like the formatter
+            return out.append(new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP)
+                    .toPlainString());
+        }
+
+        long rounded = (long) floor + (fraction > 0.5 ? 1 : 0);
+        long scale = (long) POWERS_OF_TEN[decimals];
+        out.append(rounded / scale);
+        if (decimals > 0) {
+            out.append('.');
+            long remainder = rounded % scale;
+            for (long place = scale / 10; place > 0; place /= 10) {
+                out.append((char) ('0' + remainder / place % 10));
+            }
+        }
+        return out;
+    }
+}
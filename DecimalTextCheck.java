@@ -0,0 +1,166 @@
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * A driver class to check {@link DecimalText} against the JDK: every parsed value must equal
+ * {@link Double#parseDouble(String)} bit for bit, and every formatted value must equal
+ * {@code String.format("%.nf", value)}.
+ * <p>
+ * Edge cases such as negative zero, exact ties and numbers too long for the fast paths are always
+ * checked, followed by random decimal texts and values. The check exits with status 1 on the
+ * first mismatches found.
+ */
+public class DecimalTextCheck {
+    /**
+     * Largest number of mismatches printed before giving up
+     */
+    private static final int MAX_REPORTED = 20;
+
+    private static int checks;
+    private static int mismatches;
+
+    /**
+     * Main method
+     *
+     * @param args number of random cases (100000 by default), then the random seed
+     */
+    public static void main(String[] args) {
+        int cases = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        SplittableRandom random = new SplittableRandom(seed);
+
+        // Edge cases of parsing: signs, zeros, leading zeros, and the limits of the fast paths
+        String[] texts = {
+                "0", "-0", "+0", "0.0", "-0.0", ".5", "5.", "-.5", "007", "000.000100",
+                "9007199254740992", "9007199254740993", "-9007199254740993", "999999999999999999",
+                "1000000000000000000", "123456789012345678901234567890", "0.1", "0.2", "0.3",
+                "1.7976931348623157", "0.0000000000000000000001", "0.00000000000000000000001",
+                "2.2250738585072014", "4.9", "123456789.123456789", "3.141592653589793238462643383279"
+        };
+        for (String text : texts) {
+            checkParse(text);
+        }
+
+        // Edge cases of formatting: ties, values that only look like ties, special values and large values
+        double[] values = {
+                0, -0.0, 0.5, 1.5, 2.5, -2.5, 0.125, 0.375, 1.005, 2.675, 0.045, 1.0E-5, 5.0E-5, 0.49999999999999994,
+                1e15, 1e17, 1e20, 1e300, -1e300, Double.MAX_VALUE, Double.MIN_VALUE, Double.MIN_NORMAL,
+                0x1p40, 0x1p40 - 0.5, 0x1p53, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (double value : values) {
+            for (int decimals = 0; decimals <= DecimalText.MAX_DECIMALS; decimals++) {
+                checkFormat(value, decimals);
+            }
+        }
+
+        for (int c = 0; c < cases && mismatches < MAX_REPORTED; c++) {
+            checkParse(randomText(random));
+            checkParse(new BigDecimal(Double.toString(randomValue(random))).toPlainString());
+            int decimals = random.nextInt(DecimalText.MAX_DECIMALS + 1);
+            checkFormat(randomValue(random), decimals);
+            checkFormat(randomTie(random, decimals), decimals);
+        }
+
+        System.out.println(checks + " checks, " + mismatches + " mismatches (seed " + seed + ")");
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Helper method to check that a text parses to the value {@link Double#parseDouble(String)} gives
+     *
+     * @param text plain decimal number
+     */
+    private static void checkParse(String text) {
+        checks++;
+        double expected = Double.parseDouble(text);
+        double actual = DecimalText.parse(text);
+        if (Double.doubleToRawLongBits(actual) != Double.doubleToRawLongBits(expected))
+            mismatch("parse(\"" + text + "\")", Double.toString(actual), Double.toString(expected));
+    }
+
+    /**
+     * Helper method to check that a value is formatted like {@code String.format("%.nf", value)}
+     *
+     * @param value    value to format
+     * @param decimals number of decimals
+     */
+    private static void checkFormat(double value, int decimals) {
+        checks++;
+        String expected = String.format(Locale.ROOT, "%." + decimals + "f", value);
+        String actual = DecimalText.format(value, decimals);
+        if (!actual.equals(expected))
+            mismatch("format(" + value + ", " + decimals + ")", actual, expected);
+    }
+
+    /**
+     * Helper method to record a mismatch, printing the first ones
+     *
+     * @param call     call that gave a wrong result
+     * @param actual   result of the call
+     * @param expected result of the JDK
+     */
+    private static void mismatch(String call, String actual, String expected) {
+        if (++mismatches <= MAX_REPORTED)
+            System.out.println(call + " = " + actual + ", expected " + expected);
+    }
+
+    /**
+     * Helper method to create a random plain decimal text, with up to 25 digits around an optional point
+     *
+     * @param random source of randomness
+     * @return random decimal text
+     */
+    private static String randomText(SplittableRandom random) {
+        StringBuilder text = new StringBuilder();
+        if (random.nextInt(4) == 0)
+            text.append(random.nextBoolean() ? '-' : '+');
+        int digits = 1 + random.nextInt(25);
+        int point = random.nextInt(digits + 2) - 1;
+        for (int d = 0; d < digits; d++) {
+            if (d == point)
+                text.append('.');
+            text.append((char) ('0' + random.nextInt(10)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Helper method to create a random value, of any magnitude or within the range of the fast paths
+     *
+     * @param random source of randomness
+     * @return random finite value
+     */
+    private static double randomValue(SplittableRandom random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                double value;
+                do {
+                    value = Double.longBitsToDouble(random.nextLong());
+                } while (Double.isNaN(value) || Double.isInfinite(value));
+                return value;
+            case 1:
+                return (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-6, 16));
+            default:
+                return random.nextInt(-1_000_000, 1_000_000) / 1000.0;
+        }
+    }
+
+    /**
+     * Helper method to create a value whose text ends in a 5 right after the given decimals, so that
+     * it rounds half up when formatted
+     *
+     * @param random   source of randomness
+     * @param decimals number of decimals
+     * @return random value close to a tie
+     */
+    private static double randomTie(SplittableRandom random, int decimals) {
+        StringBuilder text = new StringBuilder(random.nextBoolean() ? "-" : "").append(random.nextInt(1_000_000))
+                .append('.');
+        for (int d = 0; d < decimals; d++) {
+            text.append((char) ('0' + random.nextInt(10)));
+        }
+        return Double.parseDouble(text.append('5').toString());
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Stack of primitive {@code double} values backed by a growable array.
+ * Unlike {@link Stack}, pushing a value allocates neither a {@link Node} nor a boxed {@link Double},
+ * so a stack that is reused across evaluations allocates nothing once it has grown to its working size.
+ */
+public class DoubleStack {
+    /**
+     * Number of values the stack can hold before it first grows
+     */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] data;
+    private int size;
+
+    /**
+     * Default Constructor used to initialize the attributes of the Stack
+     */
+    public DoubleStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor used to initialize the stack with room for the given number of values
+     * @param capacity initial capacity of the stack
+     */
+    public DoubleStack(int capacity) {
+        this.data = new double[Math.max(1, capacity)];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the current size of the stack
+     * @return {@code int} - current size of stack
+     */
+    public int getSize() { return size; }
+
+    /**
+     * Tests whether the stack is empty.
+     * @return {@code boolean} - {@code true} if the stack is empty, {@code false} otherwise
+     */
+    public boolean isEmpty() { return getSize() == 0; }
+
+    /**
+     * Removes every value from the stack, keeping its capacity for reuse.
+     */
+    public void clear() { size = 0; }
+
+    /**
+     * Grows the backing array, if needed, so that it can hold the given number of values.
+     * @param capacity number of values the stack must be able to hold
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > data.length)
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+    }
+
+    /**
+     * Inserts a value at the top of the stack.
+     * @param value the value to be inserted
+     */
+    public void push(double value) {
+        // If the backing array is full, double its capacity
+        if (size == data.length)
+            ensureCapacity(size + 1);
+        data[size++] = value;
+    }
+
+    /**
+     * Removes and returns the top value from the stack.
+     * @return value removed from top the stack
+     * @throws IllegalStateException when the stack is empty
+     */
+    public double pop() {
+        if (isEmpty())
+            throw new IllegalStateException("Stack is empty");
+        return data[--size];
+    }
+
+    /**
+     * Returns, but does not remove, the value at the top of the stack.
+     * @return top value in the stack
+     * @throws IllegalStateException when the stack is empty
+     */
+    public double peekTop() {
+        if (isEmpty())
+            throw new IllegalStateException("Stack is empty");
+        return data[size - 1];
+    }
+
+    /**
+     * Replaces the value at the top of the stack.
+     * @param value the new top value
+     * @throws IllegalStateException when the stack is empty
+     */
+    public void setTop(double value) {
+        if (isEmpty())
+            throw new IllegalStateException("Stack is empty");
+        data[size - 1] = value;
+    }
+
+    /**
+     * Replaces the values at the top of the stack by the result of a function called with them,
+     * the deepest value being the first argument. The arguments are read in place.
+     * @param function function to call
+     * @param count number of arguments
+     * @throws IllegalStateException when the stack holds fewer values than arguments
+     */
+    void call(MathFunction function, int count) {
+        if (count > size)
+            throw new IllegalStateException("Stack holds fewer than " + count + " values");
+        double result = function.apply(data, size - count, count);
+        size -= count;
+        push(result);
+    }
+
+    /**
+     * Method to print the stack class in desired format.
+     * @return output string in desired format.
+     */
+    @Override
+    public String toString() {
+        if (isEmpty()) return "Stack is empty";
+
+        StringBuilder temp = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            temp.append(String.format("%s ", data[i]));
+        }
+        return temp.toString();
+    }
+}
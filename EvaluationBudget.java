@@ -0,0 +1,361 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.time.Duration;
+
+/**
+ * Limits on the resources a single evaluation may use, so that one hostile or buggy expression such
+ * as {@code 100000!} cannot stall a thread shared with other expressions:
+ * <ul>
+ *     <li>TOKENS - number of tokens of the compiled program. Programs only ever jump forward, so this
+ *     also bounds the number of steps of an evaluation.</li>
+ *     <li>DEPTH - largest number of operands on the stack during evaluation.</li>
+ *     <li>FACTORIAL - largest operand of a factorial.</li>
+ *     <li>EXPONENT - largest magnitude of the exponent of a power.</li>
+ *     <li>DIGITS - largest number of digits of an exact decimal power or product, estimated from its
+ *     operands before it is calculated, as chained powers grow their base past any exponent limit.</li>
+ *     <li>TIME - wall-clock time of an evaluation, checked before every function call and every
+ *     {@value #CLOCK_INTERVAL} steps, and after every decimal power and factorial. Decimal programs,
+ *     whose operands grow with every step, and programs calling functions or applying factorials
+ *     without a limit are timed; every step of the others is bounded, so they are bounded by their
+ *     tokens.</li>
+ * </ul>
+ * The limits on the program are checked when an expression is compiled and before it is evaluated, the
+ * others while it is evaluated. An expression exceeding a limit is aborted with a
+ * {@link BudgetExceededException}. Budgets are immutable, so one budget can be shared by many threads.
+ */
+public final class EvaluationBudget {
+    /**
+     * Limits of a budget
+     */
+    public enum Limit { TOKENS, DEPTH, FACTORIAL, EXPONENT, DIGITS, TIME }
+
+    /**
+     * Budget without any limit
+     */
+    public static final EvaluationBudget UNLIMITED = new EvaluationBudget(Integer.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+
+    /**
+     * Budget for calculators shared by many clients, such as those of an {@link EvaluationServer}:
+     * 100000 tokens, a depth of 10000, factorials and exponents up to 10000, decimal powers and
+     * products up to 100000 digits, and 100 ms
+     */
+    public static final EvaluationBudget DEFAULT = new EvaluationBudget(100_000, 10_000, 10_000, 10_000, 100_000,
+            Duration.ofMillis(100).toNanos());
+
+    /**
+     * Number of steps of an evaluation between two reads of the clock
+     */
+    static final int CLOCK_INTERVAL = 1024;
+
+    private final int maxTokens;
+    private final int maxDepth;
+    private final int maxFactorial;
+    private final int maxExponent;
+    private final int maxDigits;
+    private final long maxNanos;
+
+    /**
+     * Private constructor used by the constants and the {@code with} methods
+     *
+     * @param maxTokens    largest number of tokens of a program
+     * @param maxDepth     largest number of operands on the stack
+     * @param maxFactorial largest operand of a factorial
+     * @param maxExponent  largest magnitude of the exponent of a power
+     * @param maxDigits    largest number of digits of an exact decimal power or product
+     * @param maxNanos     longest evaluation in nanoseconds, 0 for no limit
+     */
+    private EvaluationBudget(int maxTokens, int maxDepth, int maxFactorial, int maxExponent, int maxDigits,
+                             long maxNanos) {
+        this.maxTokens = maxTokens;
+        this.maxDepth = maxDepth;
+        this.maxFactorial = maxFactorial;
+        this.maxExponent = maxExponent;
+        this.maxDigits = maxDigits;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Returns a copy of the budget with another token limit
+     *
+     * @param maxTokens largest number of tokens of a program
+     * @return {@link EvaluationBudget} - the new budget
+     * @throws IllegalArgumentException when the limit is not positive
+     */
+    public EvaluationBudget withMaxTokens(int maxTokens) {
+        return new EvaluationBudget(positive(maxTokens, Limit.TOKENS), maxDepth, maxFactorial, maxExponent,
+                maxDigits, maxNanos);
+    }
+
+    /**
+     * Returns a copy of the budget with another stack depth limit
+     *
+     * @param maxDepth largest number of operands on the stack
+     * @return {@link EvaluationBudget} - the new budget
+     * @throws IllegalArgumentException when the limit is not positive
+     */
+    public EvaluationBudget withMaxDepth(int maxDepth) {
+        return new EvaluationBudget(maxTokens, positive(maxDepth, Limit.DEPTH), maxFactorial, maxExponent,
+                maxDigits, maxNanos);
+    }
+
+    /**
+     * Returns a copy of the budget with another factorial limit
+     *
+     * @param maxFactorial largest operand of a factorial
+     * @return {@link EvaluationBudget} - the new budget
+     * @throws IllegalArgumentException when the limit is not positive
+     */
+    public EvaluationBudget withMaxFactorial(int maxFactorial) {
+        return new EvaluationBudget(maxTokens, maxDepth, positive(maxFactorial, Limit.FACTORIAL), maxExponent,
+                maxDigits, maxNanos);
+    }
+
+    /**
+     * Returns a copy of the budget with another exponent limit
+     *
+     * @param maxExponent largest magnitude of the exponent of a power
+     * @return {@link EvaluationBudget} - the new budget
+     * @throws IllegalArgumentException when the limit is not positive
+     */
+    public EvaluationBudget withMaxExponent(int maxExponent) {
+        return new EvaluationBudget(maxTokens, maxDepth, maxFactorial, positive(maxExponent, Limit.EXPONENT),
+                maxDigits, maxNanos);
+    }
+
+    /**
+     * Returns a copy of the budget with another limit on the digits of exact decimal powers and products
+     *
+     * @param maxDigits largest number of digits of an exact decimal power or product
+     * @return {@link EvaluationBudget} - the new budget
+     * @throws IllegalArgumentException when the limit is not positive
+     */
+    public EvaluationBudget withMaxDigits(int maxDigits) {
+        return new EvaluationBudget(maxTokens, maxDepth, maxFactorial, maxExponent, positive(maxDigits, Limit.DIGITS),
+                maxNanos);
+    }
+
+    /**
+     * Returns a copy of the budget with another time limit
+     *
+     * @param maxTime longest evaluation
+     * @return {@link EvaluationBudget} - the new budget
+     * @throws IllegalArgumentException when the limit is not positive
+     */
+    public EvaluationBudget withMaxTime(Duration maxTime) {
+        if (maxTime == null || maxTime.isNegative() || maxTime.isZero()) {
+            throw new IllegalArgumentException("Limit " + Limit.TIME + " must be positive: " + maxTime);
+        }
+        return new EvaluationBudget(maxTokens, maxDepth, maxFactorial, maxExponent, maxDigits, maxTime.toNanos());
+    }
+
+    /**
+     * Helper method to check the value of a limit
+     *
+     * @param value value of the limit
+     * @param limit limit being set
+     * @return the value
+     * @throws IllegalArgumentException when the value is not positive
+     */
+    private static int positive(int value, Limit limit) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Limit " + limit + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return largest number of tokens of a program
+     */
+    public int getMaxTokens() { return maxTokens; }
+
+    /**
+     * Accessor method
+     *
+     * @return largest number of operands on the stack
+     */
+    public int getMaxDepth() { return maxDepth; }
+
+    /**
+     * Accessor method
+     *
+     * @return largest operand of a factorial
+     */
+    public int getMaxFactorial() { return maxFactorial; }
+
+    /**
+     * Accessor method
+     *
+     * @return largest magnitude of the exponent of a power
+     */
+    public int getMaxExponent() { return maxExponent; }
+
+    /**
+     * Accessor method
+     *
+     * @return largest number of digits of an exact decimal power or product
+     */
+    public int getMaxDigits() { return maxDigits; }
+
+    /**
+     * Accessor method
+     *
+     * @return longest evaluation, {@link Duration#ZERO} if there is no time limit
+     */
+    public Duration getMaxTime() { return Duration.ofNanos(maxNanos); }
+
+    /**
+     * Checks the size of a compiled program
+     *
+     * @param compiled compiled program
+     * @throws BudgetExceededException when the program has too many tokens or needs too deep a stack
+     */
+    void checkProgram(CompiledExpression compiled) {
+        if (compiled.size() > maxTokens) {
+            throw new BudgetExceededException(Limit.TOKENS, "Expression has " + compiled.size()
+                    + " tokens, more than the limit of " + maxTokens, -1);
+        }
+        if (compiled.getMaxDepth() > maxDepth) {
+            throw new BudgetExceededException(Limit.DEPTH, "Expression needs a stack of " + compiled.getMaxDepth()
+                    + " operands, more than the limit of " + maxDepth, -1);
+        }
+    }
+
+    /**
+     * Checks if evaluating a program needs checks, that is if the program is timed or applies
+     * operators the budget limits. Other programs are evaluated as if there was no budget.
+     *
+     * @param compiled compiled program
+     * @return {@code boolean} - {@code true} if the program is evaluated with checks, else {@code false}
+     */
+    boolean checksEvaluation(CompiledExpression compiled) {
+        return checksTime(compiled) || (maxFactorial != Integer.MAX_VALUE && compiled.applies(Operator.FACTORIAL))
+                || (maxExponent != Integer.MAX_VALUE && compiled.applies(Operator.POWER))
+                || (maxDigits != Integer.MAX_VALUE && isDecimal(compiled)
+                    && (compiled.applies(Operator.POWER) || compiled.applies(Operator.MULTIPLICATION)));
+    }
+
+    /**
+     * Checks if the time limit applies to a program, that is if the program is decimal, whose steps
+     * take longer as its operands grow, calls functions, which may take any time, or applies
+     * factorials without a limit. The other steps of a double or long program take bounded time, and
+     * programs only jump forward, so its tokens bound the time it takes.
+     *
+     * @param compiled compiled program
+     * @return {@code boolean} - {@code true} if the evaluation of the program is timed, else {@code false}
+     */
+    boolean checksTime(CompiledExpression compiled) {
+        return maxNanos != 0 && (isDecimal(compiled) || compiled.hasFunctions()
+                || (maxFactorial == Integer.MAX_VALUE && compiled.applies(Operator.FACTORIAL)));
+    }
+
+    /**
+     * Helper method to check if a program is evaluated with BigDecimal operands
+     *
+     * @param compiled compiled program
+     * @return {@code boolean} - {@code true} if the program has a decimal backend, else {@code false}
+     */
+    private static boolean isDecimal(CompiledExpression compiled) {
+        return compiled.getBackend().getKind() == NumericBackend.Kind.DECIMAL;
+    }
+
+    /**
+     * Returns the time by which an evaluation starting now must end
+     *
+     * @return {@code long} - the deadline in {@link System#nanoTime()} units, unused without a time limit
+     */
+    long deadline() {
+        return maxNanos != 0 ? System.nanoTime() + maxNanos : 0;
+    }
+
+    /**
+     * Checks an operation before it is applied to double or long operands
+     *
+     * @param operator operator to apply
+     * @param a        first operand
+     * @param b        second operand, ignored for factorial
+     * @param position offset of the operator in the expression
+     * @throws BudgetExceededException when the operand exceeds its limit
+     */
+    void checkOperation(Operator operator, double a, double b, int position) {
+        if (operator == Operator.FACTORIAL && a > maxFactorial)
+            throw exceeded(Limit.FACTORIAL, "Factorial operand", maxFactorial, position);
+        if (operator == Operator.POWER && Math.abs(b) > maxExponent)
+            throw exceeded(Limit.EXPONENT, "Exponent", maxExponent, position);
+    }
+
+    /**
+     * Checks an operation before it is applied to BigDecimal operands. Without a precision the digits
+     * of a power or product are estimated from its operands: a product has at most the digits of
+     * both operands, and a power at most the digits of its base times its exponent.
+     *
+     * @param operator operator to apply
+     * @param a        first operand
+     * @param b        second operand, ignored for factorial
+     * @param context  math context of the operation
+     * @param position offset of the operator in the expression
+     * @throws BudgetExceededException when an operand or the digits of the result exceed their limit
+     */
+    void checkOperation(Operator operator, BigDecimal a, BigDecimal b, MathContext context, int position) {
+        if (operator == Operator.FACTORIAL && a.compareTo(BigDecimal.valueOf(maxFactorial)) > 0)
+            throw exceeded(Limit.FACTORIAL, "Factorial operand", maxFactorial, position);
+        if (operator == Operator.POWER && b.abs().compareTo(BigDecimal.valueOf(maxExponent)) > 0)
+            throw exceeded(Limit.EXPONENT, "Exponent", maxExponent, position);
+        if (context.getPrecision() != 0 || maxDigits == Integer.MAX_VALUE)
+            return;
+
+        long digits = 0;
+        if (operator == Operator.MULTIPLICATION) {
+            digits = (long) a.precision() + b.precision();
+        } else if (operator == Operator.POWER && a.unscaledValue().abs().compareTo(BigInteger.ONE) > 0) {
+            // Powers of 0, 1 and their shifts such as 0.01 keep a single digit
+            int exponent = b.abs().min(BigDecimal.valueOf(Integer.MAX_VALUE)).intValue();
+            digits = (long) a.precision() * exponent;
+        }
+        if (digits > maxDigits) {
+            throw new BudgetExceededException(Limit.DIGITS, "Result of about " + digits
+                    + " digits exceeds the limit of " + maxDigits, position);
+        }
+    }
+
+    /**
+     * Checks that an evaluation is not late
+     *
+     * @param deadline deadline of the evaluation from {@link #deadline()}
+     * @param position offset of the next operator or function in the expression
+     * @throws BudgetExceededException when the deadline has passed
+     */
+    void checkTime(long deadline, int position) {
+        if (maxNanos != 0 && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException(Limit.TIME, "Evaluation exceeded the time limit of "
+                    + Duration.ofNanos(maxNanos).toMillis() + " ms", position);
+        }
+    }
+
+    /**
+     * Helper method to create the exception of an operand exceeding its limit
+     *
+     * @param limit    limit exceeded
+     * @param operand  description of the operand
+     * @param max      value of the limit
+     * @param position offset of the operator in the expression
+     * @return {@link BudgetExceededException} - the exception
+     */
+    private static BudgetExceededException exceeded(Limit limit, String operand, int max, int position) {
+        return new BudgetExceededException(limit, operand + " exceeds the limit of " + max, position);
+    }
+
+    /**
+     * Method to print the budget in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("EvaluationBudget[tokens=%d, depth=%d, factorial=%d, exponent=%d, digits=%d, time=%s]",
+                maxTokens, maxDepth, maxFactorial, maxExponent, maxDigits, maxNanos != 0 ? getMaxTime() : "unlimited");
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Thrown when an operation of a math expression is not defined for its operands, with the
+ * position of the operator in the expression.
+ */
+public class EvaluationException extends ArithmeticException {
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    /**
+     * Constructor to initialize the exception
+     *
+     * @param message  description of the problem
+     * @param position offset of the operator in the expression, -1 if unknown
+     */
+    public EvaluationException(String message, int position) {
+        super(message);
+        this.position = position;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return offset of the operator in the expression, -1 if unknown
+     */
+    public int getPosition() { return position; }
+}
@@ -0,0 +1,174 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Outcome of evaluating a math expression: either the calculated value, or an error code with
+ * the position in the expression where the error was found.
+ * Nothing is formatted until a formatted value or message is asked for.
+ */
+public final class EvaluationResult {
+    /**
+     * Error codes of an evaluation:
+     * <ul>
+     *     <li>NONE - the expression was evaluated.</li>
+     *     <li>EMPTY_EXPRESSION - the expression is null or empty.</li>
+     *     <li>UNBALANCED_BRACKETS - the brackets of the expression do not pair up.</li>
+     *     <li>INVALID_EXPRESSION - the expression is not a valid math expression.</li>
+     *     <li>ARITHMETIC_ERROR - an operation is not defined for its operands.</li>
+     *     <li>BUDGET_EXCEEDED - the expression exceeds a limit of the {@link EvaluationBudget}.</li>
+     * </ul>
+     */
+    public enum ErrorCode {
+        NONE, EMPTY_EXPRESSION, UNBALANCED_BRACKETS, INVALID_EXPRESSION, ARITHMETIC_ERROR, BUDGET_EXCEEDED
+    }
+
+    private final String expression;
+    private final CompiledExpression compiled;
+    private final double value;
+    private final BigDecimal decimalValue;
+    private final ErrorCode errorCode;
+    private final String errorMessage;
+    private final int position;
+
+    /**
+     * Private constructor used by the factory methods
+     *
+     * @param expression   evaluated math expression
+     * @param compiled     compiled form of the expression, {@code null} if it could not be compiled
+     * @param value        calculated value, NaN on error
+     * @param decimalValue exact calculated value of a decimal or long evaluation, {@code null} otherwise
+     * @param errorCode    error code of the evaluation
+     * @param errorMessage description of the error, {@code null} on success
+     * @param position     offset of the error in the expression, -1 if unknown or on success
+     */
+    private EvaluationResult(String expression, CompiledExpression compiled, double value, BigDecimal decimalValue,
+                             ErrorCode errorCode, String errorMessage, int position) {
+        this.expression = expression;
+        this.compiled = compiled;
+        this.value = value;
+        this.decimalValue = decimalValue;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+        this.position = position;
+    }
+
+    /**
+     * Creates the result of a successful evaluation
+     *
+     * @param compiled compiled form of the evaluated expression
+     * @param value    calculated value
+     * @return {@link EvaluationResult} - the result
+     */
+    public static EvaluationResult success(CompiledExpression compiled, double value) {
+        return new EvaluationResult(compiled.getExpression(), compiled, value, null, ErrorCode.NONE, null, -1);
+    }
+
+    /**
+     * Creates the result of a successful evaluation with exact arithmetic
+     *
+     * @param compiled compiled form of the evaluated expression
+     * @param value    exact calculated value
+     * @return {@link EvaluationResult} - the result
+     */
+    public static EvaluationResult success(CompiledExpression compiled, BigDecimal value) {
+        return new EvaluationResult(compiled.getExpression(), compiled, value.doubleValue(), value,
+                ErrorCode.NONE, null, -1);
+    }
+
+    /**
+     * Creates the result of a failed evaluation
+     *
+     * @param expression   evaluated math expression
+     * @param compiled     compiled form of the expression, {@code null} if it could not be compiled
+     * @param errorCode    error code of the evaluation
+     * @param errorMessage description of the error
+     * @param position     offset of the error in the expression, -1 if unknown
+     * @return {@link EvaluationResult} - the result
+     */
+    public static EvaluationResult failure(String expression, CompiledExpression compiled, ErrorCode errorCode,
+                                           String errorMessage, int position) {
+        return new EvaluationResult(expression, compiled, Double.NaN, null, errorCode, errorMessage, position);
+    }
+
+    /**
+     * Tests whether the expression was evaluated.
+     * @return {@code boolean} - {@code true} if there is a value, {@code false} if there is an error
+     */
+    public boolean isSuccess() { return errorCode == ErrorCode.NONE; }
+
+    /**
+     * Accessor method
+     * @return evaluated math expression
+     */
+    public String getExpression() { return expression; }
+
+    /**
+     * Accessor method
+     * @return calculated value (rounded to a double for exact arithmetic), NaN on error
+     */
+    public double getValue() { return value; }
+
+    /**
+     * Returns the calculated value as a BigDecimal, exact when evaluated with exact arithmetic
+     * @return calculated value (or {@code null} on error or when the value is not finite)
+     */
+    public BigDecimal getDecimalValue() {
+        if (decimalValue != null)
+            return decimalValue;
+        return isSuccess() && Double.isFinite(value) ? BigDecimal.valueOf(value) : null;
+    }
+
+    /**
+     * Returns the postfix form of the expression
+     * @return postfix expression (or {@code null} if the expression could not be compiled)
+     */
+    public String getPostfix() { return compiled == null ? null : compiled.getPostfix(); }
+
+    /**
+     * Accessor method
+     * @return error code of the evaluation
+     */
+    public ErrorCode getErrorCode() { return errorCode; }
+
+    /**
+     * Accessor method
+     * @return description of the error (or {@code null} on success)
+     */
+    public String getErrorMessage() { return errorMessage; }
+
+    /**
+     * Accessor method
+     * @return offset of the error in the expression, -1 if unknown or on success
+     */
+    public int getPosition() { return position; }
+
+    /**
+     * Formats the calculated value with two decimals
+     * @return formatted value (or {@code null} on error)
+     */
+    public String getFormattedValue() {
+        if (decimalValue != null)
+            return decimalValue.setScale(2, RoundingMode.HALF_UP).toPlainString();
+        return isSuccess() ? DecimalText.format(value, 2) : null;
+    }
+
+    /**
+     * Method to print the result in desired format
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        switch (errorCode) {
+            case NONE:
+                return "Math Expression: " + expression +
+                        "\nPostfix Expression: " + getPostfix() +
+                        "\nCalculated Result: " + getFormattedValue();
+            case INVALID_EXPRESSION:
+                return "IllegalArgumentException: " + errorMessage;
+            case ARITHMETIC_ERROR:
+                return "ArithmeticException: " + errorMessage;
+            default:
+                return errorMessage;
+        }
+    }
+}
@@ -0,0 +1,636 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Standalone evaluation server, so that many clients share one warmed-up calculator and its
+ * compiled-expression cache instead of each paying the warmup of its own.
+ * <p>
+ * The protocol is line oriented over TCP. A request is a line holding a math expression, optionally
+ * followed by a semicolon and the values of its variables separated by whitespace, in the order of
+ * {@link CompiledExpression#getVariables()}:
+ * <pre>
+ * ( x + 1 ) * y ; 2 3
+ * </pre>
+ * Each request is answered by one line, {@code OK <value>} or
+ * {@code ERR <error code> <position> <message>}, where the value is printed so that it parses back
+ * to the same double. Requests can be pipelined: a client may send any number of requests without
+ * waiting, and the responses come back in request order.
+ * <p>
+ * Connections are spread over a fixed number of event loops, each a thread with its own selector.
+ * An event loop reads every connection that is ready, then evaluates all the complete requests it
+ * read as one micro-batch: each distinct expression of the batch is looked up in the shared cache
+ * once, requests without variables are evaluated once per expression, and the responses of a
+ * connection are written with a single write. Batches therefore grow with the load, without ever
+ * delaying a request to wait for others. A connection whose responses are not read stops being
+ * read until they are.
+ * <p>
+ * Every expression is compiled and evaluated within an {@link EvaluationBudget}, by default
+ * {@link EvaluationBudget#DEFAULT}, so that one hostile expression cannot stall an event loop and
+ * the connections it serves. Expressions exceeding it are answered with {@code ERR BUDGET_EXCEEDED}.
+ */
+public final class EvaluationServer implements Closeable {
+    /**
+     * Longest request line accepted, in bytes
+     */
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Responses pending on a connection, in bytes, beyond which it is no longer read
+     */
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    private static final double[] NO_VALUES = new double[0];
+
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final Thread acceptor;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile boolean open = true;
+
+    /**
+     * Starts a server on a port of all local addresses, with one event loop per processor and a
+     * cache of default capacity
+     *
+     * @param port port to listen on, 0 for any free port
+     * @throws IOException when the port cannot be bound
+     */
+    public EvaluationServer(int port) throws IOException {
+        this(new InetSocketAddress(port), Runtime.getRuntime().availableProcessors(), new ExpressionCache());
+    }
+
+    /**
+     * Starts a server with the default budget
+     *
+     * @param address address to listen on
+     * @param loops   number of event loops
+     * @param cache   cache shared by the calculators of all event loops
+     * @throws IOException              when the address cannot be bound
+     * @throws IllegalArgumentException when the number of event loops is not positive
+     */
+    public EvaluationServer(InetSocketAddress address, int loops, ExpressionCache cache) throws IOException {
+        this(address, loops, cache, EvaluationBudget.DEFAULT);
+    }
+
+    /**
+     * Starts a server
+     *
+     * @param address address to listen on
+     * @param loops   number of event loops
+     * @param cache   cache shared by the calculators of all event loops
+     * @param budget  limits of every request
+     * @throws IOException              when the address cannot be bound
+     * @throws IllegalArgumentException when the number of event loops is not positive
+     */
+    public EvaluationServer(InetSocketAddress address, int loops, ExpressionCache cache, EvaluationBudget budget)
+            throws IOException {
+        if (loops < 1) {
+            throw new IllegalArgumentException("Number of event loops must be positive: " + loops);
+        }
+        this.server = ServerSocketChannel.open();
+        this.loops = new EventLoop[loops];
+        try {
+            server.bind(address);
+            for (int i = 0; i < loops; i++) {
+                this.loops[i] = new EventLoop(new RPNCalculator(cache, NumericBackend.DOUBLE, false, budget));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        for (int i = 0; i < loops; i++) {
+            Thread thread = new Thread(this.loops[i], "evaluation-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.acceptor = new Thread(this::accept, "evaluation-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return port the server listens on
+     */
+    public int getPort() { return server.socket().getLocalPort(); }
+
+    /**
+     * Accessor method
+     *
+     * @return number of requests answered
+     */
+    public long getRequestCount() { return requests.sum(); }
+
+    /**
+     * Accessor method
+     *
+     * @return number of micro-batches evaluated
+     */
+    public long getBatchCount() { return batches.sum(); }
+
+    /**
+     * Returns the mean number of requests per micro-batch
+     *
+     * @return {@code double} - mean batch size, 0 before the first batch
+     */
+    public double getMeanBatchSize() {
+        long n = batches.sum();
+        return n == 0 ? 0 : (double) requests.sum() / n;
+    }
+
+    /**
+     * Stops accepting connections and closes all open connections
+     */
+    @Override
+    public void close() {
+        open = false;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null)
+                loop.close();
+        }
+    }
+
+    /**
+     * Accepts connections and hands them to the event loops in turn, until the server is closed
+     */
+    private void accept() {
+        int next = 0;
+        while (open) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                // A failed accept only loses that connection, unless the server was closed
+                if (!server.isOpen())
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Helper method to parse the variable values of a request
+     *
+     * @param text values separated by whitespace
+     * @return the values
+     * @throws IllegalArgumentException when a value is not a number
+     */
+    private static double[] parseValues(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty())
+            return NO_VALUES;
+        String[] parts = trimmed.split("\\s+");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                values[i] = Double.parseDouble(parts[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid variable value: " + parts[i]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Helper method to format an error response
+     *
+     * @param errorCode error code of the evaluation
+     * @param position  offset of the error in the expression, -1 if unknown
+     * @param message   description of the error
+     * @return response line
+     */
+    private static String error(EvaluationResult.ErrorCode errorCode, int position, String message) {
+        return "ERR " + errorCode + " " + position + " " + message.replace('\n', ' ') + "\n";
+    }
+
+    /**
+     * Helper method to format the response to an evaluation that threw
+     *
+     * @param e ArithmeticException or IllegalArgumentException thrown
+     * @return response line
+     */
+    private static String error(RuntimeException e) {
+        if (e instanceof BudgetExceededException) {
+            return error(EvaluationResult.ErrorCode.BUDGET_EXCEEDED, ((BudgetExceededException) e).getPosition(),
+                    e.getMessage());
+        }
+        if (e instanceof UnbalancedBracketsException) {
+            return error(EvaluationResult.ErrorCode.UNBALANCED_BRACKETS,
+                    ((UnbalancedBracketsException) e).getPosition(), e.getMessage());
+        }
+        if (e instanceof ArithmeticException) {
+            int position = e instanceof EvaluationException ? ((EvaluationException) e).getPosition() : -1;
+            return error(EvaluationResult.ErrorCode.ARITHMETIC_ERROR, position, e.getMessage());
+        }
+        int position = e instanceof InvalidExpressionException ? ((InvalidExpressionException) e).getPosition() : -1;
+        return error(EvaluationResult.ErrorCode.INVALID_EXPRESSION, position, e.getMessage());
+    }
+
+    /**
+     * Method to print the server summary in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return "Evaluation server on port " + getPort() + ": " + loops.length + " event loops, "
+                + getRequestCount() + " requests in " + getBatchCount() + " batches";
+    }
+
+    /**
+     * Starts a server and runs until the process is stopped
+     *
+     * @param args optional port (default 7070) and number of event loops (default one per processor)
+     * @throws IOException          when the port cannot be bound
+     * @throws InterruptedException when interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        int loops = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        EvaluationServer server = new EvaluationServer(new InetSocketAddress(port), loops, new ExpressionCache());
+        System.out.println(server);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.acceptor.join();
+    }
+
+    /**
+     * Connection of a client, owned by a single event loop
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        private ByteBuffer out = ByteBuffer.allocate(4096);
+        private boolean ended;
+        private boolean touched;
+
+        /**
+         * Parameterized constructor
+         *
+         * @param channel connected channel
+         * @param key     registration of the channel with the selector of the event loop
+         */
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Appends a response to the pending output
+         *
+         * @param response response line
+         */
+        private void respond(String response) {
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > out.remaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out = larger.put(out.flip());
+            }
+            out.put(bytes);
+        }
+    }
+
+    /**
+     * Request read from a connection, waiting for its micro-batch to be evaluated
+     */
+    private static final class Request {
+        private final Connection connection;
+        private final String expression;
+        private final String values;
+
+        /**
+         * Parameterized constructor
+         *
+         * @param connection connection the request was read from
+         * @param expression math expression
+         * @param values     variable values as sent (or {@code null} if none were sent)
+         */
+        private Request(Connection connection, String expression, String values) {
+            this.connection = connection;
+            this.expression = expression;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Compiled form of an expression within a micro-batch
+     */
+    private static final class Entry {
+        private CompiledExpression compiled;
+        private String response;
+    }
+
+    /**
+     * Thread serving a share of the connections
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final RPNCalculator calculator;
+        private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+        private final List<Request> batch = new ArrayList<>();
+        private final List<Connection> touched = new ArrayList<>();
+        private final Map<String, Entry> entries = new HashMap<>();
+
+        /**
+         * Parameterized constructor
+         *
+         * @param calculator calculator compiling the expressions of this event loop
+         * @throws IOException when the selector cannot be opened
+         */
+        private EventLoop(RPNCalculator calculator) throws IOException {
+            this.selector = Selector.open();
+            this.calculator = calculator;
+        }
+
+        /**
+         * Hands a new connection to the event loop
+         *
+         * @param channel connected channel
+         */
+        private void add(SocketChannel channel) {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Closes the selector and every connection of the event loop
+         */
+        private void close() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException ignored) {
+                // Already closed
+            }
+        }
+
+        /**
+         * Serves connections until the server is closed
+         */
+        @Override
+        public void run() {
+            try {
+                while (open) {
+                    selector.select();
+                    register();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isReadable())
+                            read(connection);
+                        if (key.isValid() && key.isWritable())
+                            touch(connection);
+                    }
+                    evaluate();
+                    for (Connection connection : touched) {
+                        connection.touched = false;
+                        flush(connection);
+                    }
+                    touched.clear();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // The selector was closed with the server
+            }
+        }
+
+        /**
+         * Helper method to register the connections handed to the event loop
+         */
+        private void register() {
+            SocketChannel channel;
+            while ((channel = added.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key));
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        /**
+         * Helper method to read what a connection sent and queue its complete requests
+         *
+         * @param connection connection that is ready to be read
+         */
+        private void read(Connection connection) {
+            int read;
+            try {
+                read = connection.channel.read(connection.in);
+            } catch (IOException e) {
+                drop(connection);
+                return;
+            }
+            if (read < 0) {
+                // The client is done sending, answer what was read and close once written
+                connection.ended = true;
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+
+            ByteBuffer in = connection.in;
+            byte[] bytes = in.array();
+            int start = 0;
+            for (int i = 0; i < in.position(); i++) {
+                if (bytes[i] == '\n') {
+                    int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                    queue(connection, new String(bytes, start, end - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            if (start == 0 && !in.hasRemaining()) {
+                connection.respond(error(EvaluationResult.ErrorCode.INVALID_EXPRESSION, -1,
+                        "Request exceeds " + MAX_LINE_LENGTH + " bytes"));
+                connection.ended = true;
+                in.clear();
+            } else {
+                // A client that is done sending may leave out the terminator of its last request
+                if (connection.ended && start < in.position()) {
+                    int end = bytes[in.position() - 1] == '\r' ? in.position() - 1 : in.position();
+                    String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+                    if (!line.isBlank())
+                        queue(connection, line);
+                    start = in.position();
+                }
+                // Keep the incomplete last line for the next read
+                in.limit(in.position()).position(start);
+                in.compact();
+            }
+            touch(connection);
+        }
+
+        /**
+         * Helper method to flush a connection at the end of the current round
+         *
+         * @param connection connection that was read or can be written
+         */
+        private void touch(Connection connection) {
+            if (!connection.touched) {
+                connection.touched = true;
+                touched.add(connection);
+            }
+        }
+
+        /**
+         * Helper method to split a request line and add it to the micro-batch
+         *
+         * @param connection connection the line was read from
+         * @param line       request line without its line terminator
+         */
+        private void queue(Connection connection, String line) {
+            int separator = line.indexOf(';');
+            String expression = (separator < 0 ? line : line.substring(0, separator)).trim();
+            batch.add(new Request(connection, expression, separator < 0 ? null : line.substring(separator + 1)));
+        }
+
+        /**
+         * Helper method to evaluate the micro-batch, appending each response to its connection
+         * in request order
+         */
+        private void evaluate() {
+            if (batch.isEmpty())
+                return;
+            for (Request request : batch) {
+                Entry entry = entries.get(request.expression);
+                if (entry == null) {
+                    entry = compile(request.expression);
+                    entries.put(request.expression, entry);
+                }
+                request.connection.respond(respond(entry, request.values));
+            }
+            requests.add(batch.size());
+            batches.increment();
+            batch.clear();
+            entries.clear();
+        }
+
+        /**
+         * Helper method to compile an expression of the micro-batch through the shared cache
+         *
+         * @param expression math expression
+         * @return {@link Entry} - the compiled expression, or the response to every request for it
+         */
+        private Entry compile(String expression) {
+            Entry entry = new Entry();
+            if (expression.isEmpty()) {
+                entry.response = error(EvaluationResult.ErrorCode.EMPTY_EXPRESSION, -1, "Math expression is empty");
+                return entry;
+            }
+            try {
+                entry.compiled = calculator.compile(expression);
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                entry.response = error(e);
+            }
+            return entry;
+        }
+
+        /**
+         * Helper method to answer a request
+         *
+         * @param entry  compiled expression of the request
+         * @param values variable values as sent (or {@code null} if none were sent)
+         * @return response line
+         */
+        private String respond(Entry entry, String values) {
+            boolean constant = values == null || values.isBlank();
+            if (entry.response != null && (constant || entry.compiled == null))
+                return entry.response;
+
+            String response;
+            try {
+                response = "OK " + entry.compiled.evaluate(calculator.getBudget(),
+                        constant ? NO_VALUES : parseValues(values)) + "\n";
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                response = error(e);
+            }
+            // Requests without values always get the same response
+            if (constant)
+                entry.response = response;
+            return response;
+        }
+
+        /**
+         * Helper method to write the pending responses of a connection, reading it again once they
+         * are written
+         *
+         * @param connection connection with pending responses
+         */
+        private void flush(Connection connection) {
+            ByteBuffer out = connection.out.flip();
+            try {
+                connection.channel.write(out);
+            } catch (IOException e) {
+                drop(connection);
+                return;
+            } finally {
+                out.compact();
+            }
+            if (!connection.key.isValid())
+                return;
+
+            boolean pending = out.position() > 0;
+            if (!pending && connection.ended) {
+                drop(connection);
+                return;
+            }
+            int ops = pending ? SelectionKey.OP_WRITE : 0;
+            if (!connection.ended && out.position() < MAX_PENDING_OUTPUT)
+                ops |= SelectionKey.OP_READ;
+            connection.key.interestOps(ops);
+        }
+
+        /**
+         * Helper method to close a connection
+         *
+         * @param connection connection to close
+         */
+        private void drop(Connection connection) {
+            connection.key.cancel();
+            closeQuietly(connection.channel);
+        }
+    }
+
+    /**
+     * Helper method to close a channel, ignoring failures
+     *
+     * @param channel channel to close
+     */
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+    }
+}
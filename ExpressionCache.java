@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of {@link CompiledExpression}s keyed by their infix expression.
+ * Lookups are lock-free; when the cache grows past its capacity the least recently used (LRU)
+ * or least frequently used (LFU) entry is evicted, depending on the selected policy.
+ */
+public class ExpressionCache {
+    /**
+     * Default number of compiled expressions kept by the cache
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Fraction of the capacity, as its reciprocal, freed by each eviction
+     */
+    private static final int EVICTION_SLICE = 16;
+
+    /**
+     * Eviction policies supported by the cache:
+     * <ul>
+     *     <li>LRU - evicts the entry that has not been looked up for the longest time.</li>
+     *     <li>LFU - evicts the entry with the fewest lookups. Counts are halved on every eviction, so
+     *     entries that are no longer looked up age out, and new entries start with the lookup that
+     *     missed them.</li>
+     * </ul>
+     */
+    public enum EvictionPolicy { LRU, LFU }
+
+    /**
+     * Cached value together with the bookkeeping used by the eviction policies.
+     */
+    private static final class Entry {
+        private final CompiledExpression value;
+        private final AtomicLong frequency = new AtomicLong(1);
+        private volatile long lastAccess;
+
+        /**
+         * Constructor to initialize entry
+         *
+         * @param value  compiled expression to cache
+         * @param access logical time of the first access, unused by LFU
+         */
+        private Entry(CompiledExpression value, long access) {
+            this.value = value;
+            this.lastAccess = access;
+        }
+
+        /**
+         * Halves the number of lookups of this entry, so that past lookups weigh less than recent ones
+         */
+        private void age() {
+            frequency.updateAndGet(count -> count >>> 1);
+        }
+
+        /**
+         * Returns the value used to rank this entry for eviction, lowest is evicted first
+         *
+         * @param policy eviction policy in use
+         * @return rank of the entry
+         */
+        private long rank(EvictionPolicy policy) {
+            return policy == EvictionPolicy.LFU ? frequency.get() : lastAccess;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final EvictionPolicy policy;
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Default constructor, creates an LRU cache with {@link #DEFAULT_CAPACITY} entries
+     */
+    public ExpressionCache() {
+        this(DEFAULT_CAPACITY, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Constructor to initialize cache
+     *
+     * @param capacity maximum number of compiled expressions to keep
+     * @param policy   eviction policy used once the capacity is reached
+     * @throws IllegalArgumentException when the capacity is not positive
+     */
+    public ExpressionCache(int capacity, EvictionPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Looks up the compiled form of an expression and records a hit or a miss.
+     *
+     * @param expression infix math expression
+     * @return {@link CompiledExpression} - the cached program (or {@code null} if absent)
+     */
+    public CompiledExpression get(String expression) {
+        Entry entry = entries.get(expression);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        // Only LRU needs the shared clock, LFU counts lookups on the entry itself
+        if (policy == EvictionPolicy.LRU)
+            entry.lastAccess = clock.incrementAndGet();
+        else
+            entry.frequency.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Adds a compiled expression to the cache, evicting entries if the capacity is exceeded.
+     * If another thread cached the same expression first, its value is kept and returned.
+     *
+     * @param expression infix math expression
+     * @param compiled   compiled form of the expression
+     * @return {@link CompiledExpression} - the value held by the cache for the expression
+     */
+    public CompiledExpression put(String expression, CompiledExpression compiled) {
+        Entry entry = new Entry(compiled, policy == EvictionPolicy.LRU ? clock.incrementAndGet() : 0);
+        Entry existing = entries.putIfAbsent(expression, entry);
+        if (existing != null) {
+            return existing.value;
+        }
+        if (entries.size() > capacity) {
+            evict();
+        }
+        return compiled;
+    }
+
+    /**
+     * Removes the lowest ranked entries once the cache exceeds its capacity. A slice of the
+     * capacity is freed at a time, so that a stream of distinct expressions pays for ranking the
+     * entries once every few inserts rather than on every insert. Under LFU the counts of all
+     * entries are halved as they are ranked.
+     * Eviction is serialized so that concurrent inserts do not evict more than necessary.
+     */
+    private synchronized void evict() {
+        int size = entries.size();
+        if (size <= capacity) {
+            return;
+        }
+
+        // Snapshot the ranks, as they keep changing while other threads look entries up
+        List<Map.Entry<String, Entry>> candidates = new ArrayList<>(size);
+        long[] ranks = new long[size];
+        for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+            if (candidates.size() == ranks.length)
+                ranks = Arrays.copyOf(ranks, ranks.length * 2);
+            ranks[candidates.size()] = candidate.getValue().rank(policy);
+            if (policy == EvictionPolicy.LFU)
+                candidate.getValue().age();
+            candidates.add(candidate);
+        }
+
+        // Every entry ranked at or below the threshold is a victim
+        int target = capacity - capacity / EVICTION_SLICE;
+        long[] sorted = Arrays.copyOf(ranks, candidates.size());
+        Arrays.sort(sorted);
+        long threshold = sorted[Math.max(0, Math.min(sorted.length, size - target) - 1)];
+
+        for (int i = 0; i < candidates.size() && entries.size() > target; i++) {
+            Map.Entry<String, Entry> victim = candidates.get(i);
+            if (ranks[i] <= threshold && entries.remove(victim.getKey(), victim.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes every entry from the cache. Counters are left untouched.
+     */
+    public void clear() { entries.clear(); }
+
+    /**
+     * Returns the current number of cached expressions
+     * @return {@code int} - number of entries
+     */
+    public int getSize() { return entries.size(); }
+
+    /**
+     * Accessor method
+     * @return maximum number of entries
+     */
+    public int getCapacity() { return capacity; }
+
+    /**
+     * Accessor method
+     * @return eviction policy of the cache
+     */
+    public EvictionPolicy getPolicy() { return policy; }
+
+    /**
+     * Accessor method
+     * @return number of lookups that found a compiled expression
+     */
+    public long getHits() { return hits.sum(); }
+
+    /**
+     * Accessor method
+     * @return number of lookups that did not find a compiled expression
+     */
+    public long getMisses() { return misses.sum(); }
+
+    /**
+     * Accessor method
+     * @return number of entries removed to respect the capacity
+     */
+    public long getEvictions() { return evictions.sum(); }
+
+    /**
+     * Method to print the cache statistics in desired format
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("%s cache: %d/%d entries, %d hits, %d misses, %d evictions\n",
+                policy, getSize(), capacity, getHits(), getMisses(), getEvictions());
+    }
+}
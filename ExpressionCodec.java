@@ -0,0 +1,349 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary format of compiled double programs, loaded without parsing any text.
+ * <p>
+ * A record holds the original expression, the variable names, and the postfix program: one opcode
+ * byte per token, followed for a literal by its raw little-endian IEEE-754 bits and for a variable
+ * by its index, then the position of the token in the expression. Lengths, indices and positions
+ * are unsigned LEB128 varints, so small values take a single byte, and integer literals are
+ * zigzag-encoded varints instead of eight raw bytes. A function call stores the name of the
+ * function and its number of arguments, and is resolved through the {@link FunctionRegistry} on
+ * load. A jump of a logical operator or conditional stores its kind and the index it jumps to.
+ * Loading a record is a linear scan of its bytes; the postfix text is only rendered if asked for.
+ * <p>
+ * Only programs compiled for the {@link NumericBackend.Kind#DOUBLE} backend can be encoded.
+ */
+public final class ExpressionCodec {
+    /**
+     * Opcode of a literal operand
+     */
+    static final byte LITERAL = 0;
+
+    /**
+     * Opcode of a variable operand
+     */
+    static final byte VARIABLE = 1;
+
+    /**
+     * Opcode of a literal operand holding an int, stored as a zigzag varint
+     */
+    static final byte INTEGER = 2;
+
+    /**
+     * Opcode of the first operator, operators follow in ordinal order
+     */
+    static final byte OPERATOR = 3;
+
+    /**
+     * Opcode of a function call, followed by the function name and the number of arguments
+     */
+    static final byte FUNCTION = 127;
+
+    /**
+     * Opcode of a jump, followed by its {@link TokenStream} type and the index of its target
+     */
+    static final byte BRANCH = 126;
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private ExpressionCodec() {
+    }
+
+    /**
+     * Encodes a compiled program into a new buffer
+     *
+     * @param compiled compiled program
+     * @return {@link ByteBuffer} - little-endian buffer holding the record, ready to be read
+     * @throws IllegalArgumentException when the program was not compiled for the double backend
+     */
+    public static ByteBuffer encode(CompiledExpression compiled) {
+        ByteBuffer out = ByteBuffer.allocate(encodedSize(compiled)).order(ByteOrder.LITTLE_ENDIAN);
+        encode(compiled, out);
+        return out.flip();
+    }
+
+    /**
+     * Encodes a compiled program at the position of a little-endian buffer
+     *
+     * @param compiled compiled program
+     * @param out      buffer receiving the record, with at least {@link #encodedSize} bytes remaining
+     * @throws IllegalArgumentException when the program was not compiled for the double backend
+     */
+    public static void encode(CompiledExpression compiled, ByteBuffer out) {
+        checkBackend(compiled);
+        putString(out, compiled.getExpression());
+        String[] variables = compiled.getVariables();
+        putVarint(out, variables.length);
+        for (String variable : variables) {
+            putString(out, variable);
+        }
+
+        putVarint(out, compiled.size());
+        for (int i = 0; i < compiled.size(); i++) {
+            Operator operator = compiled.operatorAt(i);
+            MathFunction function = compiled.functionAt(i);
+            if (operator != null) {
+                out.put((byte) (OPERATOR + operator.ordinal()));
+            } else if (compiled.branchAt(i) != 0) {
+                out.put(BRANCH);
+                out.put(compiled.branchAt(i));
+                putVarint(out, compiled.slotAt(i));
+            } else if (function != null) {
+                out.put(FUNCTION);
+                putString(out, function.getName());
+                putVarint(out, compiled.slotAt(i));
+            } else if (compiled.slotAt(i) < 0 && isInteger(compiled.literalAt(i))) {
+                out.put(INTEGER);
+                putVarint(out, zigzag((int) compiled.literalAt(i)));
+            } else if (compiled.slotAt(i) < 0) {
+                out.put(LITERAL);
+                out.putDouble(compiled.literalAt(i));
+            } else {
+                out.put(VARIABLE);
+                putVarint(out, compiled.slotAt(i));
+            }
+            // Positions are shifted by one, as tokens created by rewrites may have none
+            putVarint(out, compiled.offsetAt(i) + 1);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the record of a compiled program takes
+     *
+     * @param compiled compiled program
+     * @return {@code int} - size of the record in bytes
+     * @throws IllegalArgumentException when the program was not compiled for the double backend
+     */
+    public static int encodedSize(CompiledExpression compiled) {
+        checkBackend(compiled);
+        int size = stringSize(compiled.getExpression());
+        String[] variables = compiled.getVariables();
+        size += varintSize(variables.length);
+        for (String variable : variables) {
+            size += stringSize(variable);
+        }
+
+        size += varintSize(compiled.size());
+        for (int i = 0; i < compiled.size(); i++) {
+            size += 1 + varintSize(compiled.offsetAt(i) + 1);
+            if (compiled.operatorAt(i) != null)
+                continue;
+            if (compiled.branchAt(i) != 0)
+                size += 1 + varintSize(compiled.slotAt(i));
+            else if (compiled.functionAt(i) != null)
+                size += stringSize(compiled.functionAt(i).getName()) + varintSize(compiled.slotAt(i));
+            else if (compiled.slotAt(i) >= 0)
+                size += varintSize(compiled.slotAt(i));
+            else if (isInteger(compiled.literalAt(i)))
+                size += varintSize(zigzag((int) compiled.literalAt(i)));
+            else
+                size += Double.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * Decodes the record at the position of a little-endian buffer, advancing past it
+     *
+     * @param in buffer holding the record
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws IllegalArgumentException when the record is corrupt
+     */
+    public static CompiledExpression decode(ByteBuffer in) {
+        try {
+            String expression = getString(in);
+            String[] variables = new String[checkCount(in, getVarint(in))];
+            for (int v = 0; v < variables.length; v++) {
+                variables[v] = getString(in);
+            }
+
+            int size = checkCount(in, getVarint(in));
+            Operator[] operators = new Operator[size];
+            double[] literals = new double[size];
+            int[] slots = new int[size];
+            int[] offsets = new int[size];
+            MathFunction[] functions = null;
+            byte[] branches = null;
+            for (int i = 0; i < size; i++) {
+                int opcode = in.get() & 0xFF;
+                slots[i] = -1;
+                if (opcode == LITERAL) {
+                    literals[i] = in.getDouble();
+                } else if (opcode == INTEGER) {
+                    int zigzag = getVarint(in);
+                    literals[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                } else if (opcode == VARIABLE) {
+                    slots[i] = getVarint(in);
+                } else if (opcode == FUNCTION) {
+                    String name = getString(in);
+                    if (functions == null)
+                        functions = new MathFunction[size];
+                    functions[i] = FunctionRegistry.lookup(name);
+                    if (functions[i] == null) {
+                        throw new IllegalArgumentException("Unknown function " + name + " in compiled expression: "
+                                + expression);
+                    }
+                    slots[i] = getVarint(in);
+                } else if (opcode == BRANCH) {
+                    if (branches == null)
+                        branches = new byte[size];
+                    branches[i] = in.get();
+                    slots[i] = getVarint(in);
+                } else if (opcode - OPERATOR < OPERATORS.length) {
+                    operators[i] = OPERATORS[opcode - OPERATOR];
+                } else {
+                    throw new IllegalArgumentException("Invalid opcode " + opcode + " in compiled expression: "
+                            + expression);
+                }
+                offsets[i] = getVarint(in) - 1;
+            }
+            return CompiledExpression.load(expression, operators, literals, slots, functions, branches, offsets,
+                    variables);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated compiled expression record");
+        }
+    }
+
+    /**
+     * Helper method to check that a program can be encoded
+     *
+     * @param compiled compiled program
+     * @throws IllegalArgumentException when the program was not compiled for the double backend
+     */
+    private static void checkBackend(CompiledExpression compiled) {
+        if (compiled.getBackend().getKind() != NumericBackend.Kind.DOUBLE) {
+            throw new IllegalArgumentException("Only double programs can be encoded, not "
+                    + compiled.getBackend().getKind());
+        }
+    }
+
+    /**
+     * Helper method to check a count read from a record before allocating for it, every counted
+     * item taking at least one byte
+     *
+     * @param in    buffer being read
+     * @param count count read
+     * @return the count
+     * @throws BufferUnderflowException when fewer bytes remain than counted items
+     */
+    private static int checkCount(ByteBuffer in, int count) {
+        if (count < 0 || count > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    /**
+     * Helper method to check if a literal is stored as an integer. Negative zero is not, as it
+     * would come back as positive zero.
+     *
+     * @param value value of the literal
+     * @return {@code true} for an int other than negative zero, else {@code false}
+     */
+    private static boolean isInteger(double value) {
+        return value == (int) value && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    /**
+     * Helper method to map a signed int to an unsigned one, small magnitudes to small values
+     *
+     * @param value signed value
+     * @return zigzag-encoded value
+     */
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Helper method to write an unsigned LEB128 varint
+     *
+     * @param out   buffer to write to
+     * @param value non-negative value
+     */
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Helper method to read an unsigned LEB128 varint
+     *
+     * @param in buffer to read from
+     * @return the value
+     * @throws IllegalArgumentException when the varint is longer than an int
+     */
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Invalid varint in compiled expression record");
+    }
+
+    /**
+     * Helper method to count the bytes of a varint
+     *
+     * @param value non-negative value
+     * @return number of bytes
+     */
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Helper method to write a string as its UTF-8 length and bytes
+     *
+     * @param out   buffer to write to
+     * @param value string to write
+     */
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    /**
+     * Helper method to read a string written by {@link #putString}
+     *
+     * @param in buffer to read from
+     * @return the string
+     */
+    private static String getString(ByteBuffer in) {
+        int length = checkCount(in, getVarint(in));
+        if (in.hasArray()) {
+            // Heap buffers are decoded in place
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method to count the bytes of a string written by {@link #putString}
+     *
+     * @param value string to write
+     * @return number of bytes
+     */
+    private static int stringSize(String value) {
+        int length = value.getBytes(StandardCharsets.UTF_8).length;
+        return varintSize(length) + length;
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.Arrays;
+
+/**
+ * Rewrites compiled double programs so that evaluating them does less work:
+ * <ul>
+ *     <li>Constant folding - an operation whose operands are all literals is calculated once, at
+ *     compile time. Operations that throw, such as {@code 1 / 0}, or exceed the budget of the
+ *     evaluation, such as {@code 100000 !}, are kept so that the error is still reported at its
+ *     position on evaluation.</li>
+ *     <li>Identities - {@code x * 1}, {@code 1 * x}, {@code x / 1}, {@code x ^ 1}, {@code x + 0},
+ *     {@code 0 + x} and {@code x - 0} become {@code x}, and {@code x ^ 0} becomes {@code 1} when
+ *     {@code x} is a single operand. These hold for every double, including NaN and infinities,
+ *     except that adding zero turns a negative zero into a positive one. Identities that drop an
+ *     operand, such as {@code x * 0}, do not hold for NaN or infinities and are not applied.</li>
+ *     <li>Strength reduction - a single operand raised to 2, 3 or 4 becomes a chain of multiplications,
+ *     which is much cheaper than {@link Math#pow(double, double)}. Squares are exact, higher powers
+ *     round once per multiplication and may differ from the power call in the last bit.</li>
+ * </ul>
+ * Since children come before their parent in a postfix program, the pass rewrites the program
+ * bottom-up in a single scan, and a folded subtree can be folded again by its parent.
+ * Only programs compiled for the {@link NumericBackend.Kind#DOUBLE} backend that call no function
+ * are rewritten.
+ */
+public final class ExpressionOptimizer {
+    /**
+     * Largest integer exponent replaced by multiplications
+     */
+    static final int MAX_REDUCED_EXPONENT = 4;
+
+    private Operator[] operators;
+    private double[] literals;
+    private int[] slots;
+    private int[] offsets;
+    private String[] texts;
+    private int size;
+    private final EvaluationBudget budget;
+
+    private int folded;
+    private int identities;
+    private int strengthReductions;
+
+    /**
+     * Private constructor used by {@link #optimize(CompiledExpression, EvaluationBudget)}
+     *
+     * @param capacity initial number of tokens
+     * @param budget   limits of the operations folded
+     */
+    private ExpressionOptimizer(int capacity, EvaluationBudget budget) {
+        this.budget = budget;
+        this.operators = new Operator[capacity];
+        this.literals = new double[capacity];
+        this.slots = new int[capacity];
+        this.offsets = new int[capacity];
+        this.texts = new String[capacity];
+    }
+
+    /**
+     * Optimizes a compiled program. The optimized program keeps the expression and the variables of
+     * the original one, so it is evaluated with the same values.
+     *
+     * @param compiled compiled program to optimize
+     * @return {@link OptimizationReport} - the optimized program and the rewrites applied
+     */
+    public static OptimizationReport optimize(CompiledExpression compiled) {
+        return optimize(compiled, EvaluationBudget.UNLIMITED);
+    }
+
+    /**
+     * Optimizes a compiled program evaluated within a budget. Operations exceeding the budget are not
+     * folded, so that evaluating the optimized program exceeds it at the same position.
+     *
+     * @param compiled compiled program to optimize
+     * @param budget   limits of the evaluation of the program
+     * @return {@link OptimizationReport} - the optimized program and the rewrites applied
+     */
+    public static OptimizationReport optimize(CompiledExpression compiled, EvaluationBudget budget) {
+        if (compiled.getBackend().getKind() != NumericBackend.Kind.DOUBLE || compiled.hasFunctions()
+                || compiled.hasBranches()) {
+            return new OptimizationReport(compiled, compiled, 0, 0, 0);
+        }
+
+        ExpressionOptimizer optimizer = new ExpressionOptimizer(compiled.size(), budget);
+        String[] tokens = compiled.getPostfix().split(" ");
+        int[] starts = new int[compiled.size()];
+        int top = 0;
+
+        // Rewrite the program bottom-up, tracking where the subtree of each stack entry starts
+        for (int i = 0; i < compiled.size(); i++) {
+            Operator operator = compiled.operatorAt(i);
+            if (operator == null) {
+                starts[top++] = optimizer.size;
+                optimizer.add(null, compiled.literalAt(i), compiled.slotAt(i), compiled.offsetAt(i), tokens[i]);
+            } else if (operator == Operator.FACTORIAL) {
+                optimizer.unary(operator, starts[top - 1], compiled.offsetAt(i), tokens[i]);
+            } else {
+                top--;
+                optimizer.binary(operator, starts[top - 1], starts[top], compiled.offsetAt(i), tokens[i]);
+            }
+        }
+
+        int n = optimizer.size;
+        CompiledExpression optimized = compiled.rewrite(String.join(" ", Arrays.copyOf(optimizer.texts, n)),
+                Arrays.copyOf(optimizer.operators, n), Arrays.copyOf(optimizer.literals, n),
+                Arrays.copyOf(optimizer.slots, n), Arrays.copyOf(optimizer.offsets, n));
+        return new OptimizationReport(compiled, optimized, optimizer.folded, optimizer.identities,
+                optimizer.strengthReductions);
+    }
+
+    /**
+     * Rewrites a factorial whose operand is the subtree starting at {@code start}
+     *
+     * @param operator factorial operator
+     * @param start    index of the first token of the operand
+     * @param offset   position of the operator in the original expression
+     * @param text     postfix text of the operator
+     */
+    private void unary(Operator operator, int start, int offset, String text) {
+        if (isLiteral(start, size)) {
+            try {
+                budget.checkOperation(operator, literals[start], 0, offset);
+                double value = operator.calculate(literals[start], 0);
+                size = start;
+                addLiteral(value, offset);
+                folded++;
+                return;
+            } catch (ArithmeticException e) {
+                // Keep the operation so that the error, or the exceeded budget, is reported on evaluation
+            }
+        }
+        add(operator, 0, -1, offset, text);
+    }
+
+    /**
+     * Rewrites a binary operation whose operands are the subtrees {@code [left, right)} and
+     * {@code [right, size)}
+     *
+     * @param operator binary operator
+     * @param left     index of the first token of the left operand
+     * @param right    index of the first token of the right operand
+     * @param offset   position of the operator in the original expression
+     * @param text     postfix text of the operator
+     */
+    private void binary(Operator operator, int left, int right, int offset, String text) {
+        boolean leftLiteral = isLiteral(left, right);
+        boolean rightLiteral = isLiteral(right, size);
+
+        // Both operands are known: calculate the operation now
+        if (leftLiteral && rightLiteral) {
+            try {
+                budget.checkOperation(operator, literals[left], literals[right], offset);
+                double value = operator.calculate(literals[left], literals[right]);
+                size = left;
+                addLiteral(value, offset);
+                folded++;
+                return;
+            } catch (ArithmeticException e) {
+                // Keep the operation so that the error, or the exceeded budget, is reported on evaluation
+            }
+        }
+
+        // Right identity: drop the literal and the operator, the left operand is the result
+        if (rightLiteral && isRightIdentity(operator, literals[right])) {
+            size = right;
+            identities++;
+            return;
+        }
+
+        // Left identity: drop the literal and shift the right operand into its place
+        if (leftLiteral && isLeftIdentity(operator, literals[left])) {
+            remove(left);
+            identities++;
+            return;
+        }
+
+        // Powers of a single operand by a small integer
+        if (operator == Operator.POWER && rightLiteral && right - left == 1) {
+            double exponent = literals[right];
+            if (exponent == 0) {
+                size = left;
+                addLiteral(1, offset);
+                identities++;
+                return;
+            }
+            if (exponent >= 2 && exponent <= MAX_REDUCED_EXPONENT && exponent == (int) exponent) {
+                size = right;
+                for (int k = 1; k < (int) exponent; k++) {
+                    add(null, literals[left], slots[left], offsets[left], texts[left]);
+                    add(Operator.MULTIPLICATION, 0, -1, offset, Operator.MULTIPLICATION.getSymbol());
+                }
+                strengthReductions++;
+                return;
+            }
+        }
+
+        add(operator, 0, -1, offset, text);
+    }
+
+    /**
+     * Tests whether an operator leaves its left operand unchanged for a right operand
+     *
+     * @param operator binary operator
+     * @param value    literal right operand
+     * @return {@code boolean} - {@code true} if {@code x op value} is {@code x}
+     */
+    private static boolean isRightIdentity(Operator operator, double value) {
+        switch (operator) {
+            case ADDITION:
+            case SUBTRACTION:
+                return value == 0;
+            case MULTIPLICATION:
+            case DIVISION:
+            case POWER:
+                return value == 1;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Tests whether an operator leaves its right operand unchanged for a left operand
+     *
+     * @param operator binary operator
+     * @param value    literal left operand
+     * @return {@code boolean} - {@code true} if {@code value op x} is {@code x}
+     */
+    private static boolean isLeftIdentity(Operator operator, double value) {
+        return (operator == Operator.ADDITION && value == 0) || (operator == Operator.MULTIPLICATION && value == 1);
+    }
+
+    /**
+     * Tests whether a subtree is a single literal
+     *
+     * @param from index of the first token of the subtree, inclusive
+     * @param to   index of the last token of the subtree, exclusive
+     * @return {@code boolean} - {@code true} if the subtree is a literal
+     */
+    private boolean isLiteral(int from, int to) {
+        return to - from == 1 && operators[from] == null && slots[from] < 0;
+    }
+
+    /**
+     * Appends a literal calculated at compile time
+     *
+     * @param value  value of the literal
+     * @param offset position of the folded operation in the original expression
+     */
+    private void addLiteral(double value, int offset) {
+        add(null, value, -1, offset, CompiledExpression.literalText(value));
+    }
+
+    /**
+     * Appends a token
+     *
+     * @param operator operator of the token, {@code null} for an operand
+     * @param literal  value of a literal operand, unused otherwise
+     * @param slot     variable index of a variable operand, -1 otherwise
+     * @param offset   position of the token in the original expression
+     * @param text     postfix text of the token
+     */
+    private void add(Operator operator, double literal, int slot, int offset, String text) {
+        if (size == operators.length) {
+            int capacity = Math.max(4, size * 2);
+            operators = Arrays.copyOf(operators, capacity);
+            literals = Arrays.copyOf(literals, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        operators[size] = operator;
+        literals[size] = literal;
+        slots[size] = slot;
+        offsets[size] = offset;
+        texts[size] = text;
+        size++;
+    }
+
+    /**
+     * Removes a token, shifting the following tokens down
+     *
+     * @param i index of the token
+     */
+    private void remove(int i) {
+        int moved = size - i - 1;
+        System.arraycopy(operators, i + 1, operators, i, moved);
+        System.arraycopy(literals, i + 1, literals, i, moved);
+        System.arraycopy(slots, i + 1, slots, i, moved);
+        System.arraycopy(offsets, i + 1, offsets, i, moved);
+        System.arraycopy(texts, i + 1, texts, i, moved);
+        size--;
+    }
+}
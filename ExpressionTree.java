@@ -0,0 +1,226 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Expression tree of a compiled expression, evaluated in parallel on a fork-join pool.
+ * <p>
+ * In a postfix program every subtree is a contiguous range of tokens that ends with the subtree's
+ * operator, so the tree is stored as the index at which each subtree starts. A subtree whose two
+ * operands are both larger than the threshold is split: its left operand is forked while its right
+ * operand is evaluated by the current thread. Subtrees at or below the threshold are evaluated by
+ * the sequential stack evaluator. When only one operand is large, as in long chains such as
+ * {@code 1 + 2 + 3 + ...}, the small operand is evaluated directly and the walk continues down the
+ * large one without forking, so deep trees never exhaust the call stack.
+ */
+public class ExpressionTree {
+    /**
+     * Default number of tokens at or below which a subtree is evaluated sequentially
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private final CompiledExpression compiled;
+    private final int[] subtreeStart;
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor to initialize the tree with the default threshold on the common pool
+     *
+     * @param compiled compiled expression to build the tree from
+     */
+    public ExpressionTree(CompiledExpression compiled) {
+        this(compiled, DEFAULT_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor to initialize the tree
+     *
+     * @param compiled  compiled expression to build the tree from
+     * @param threshold number of tokens at or below which a subtree is evaluated sequentially
+     * @param pool      pool running the evaluation
+     * @throws IllegalArgumentException when the threshold is not positive
+     */
+    public ExpressionTree(CompiledExpression compiled, int threshold, ForkJoinPool pool) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+        this.compiled = compiled;
+        this.threshold = threshold;
+        this.pool = pool;
+        this.subtreeStart = new int[compiled.size()];
+
+        // Function calls take a variable number of operands and conditionals skip tokens, such
+        // programs are evaluated sequentially
+        if (compiled.hasFunctions() || compiled.hasBranches()) {
+            return;
+        }
+
+        // Replay the postfix program on a stack of subtree start indices
+        int[] starts = new int[compiled.size()];
+        int top = 0;
+        for (int i = 0; i < compiled.size(); i++) {
+            Operator operator = compiled.operatorAt(i);
+            if (operator == null) {
+                subtreeStart[i] = i;
+                starts[top++] = i;
+            } else if (operator == Operator.FACTORIAL) {
+                subtreeStart[i] = starts[top - 1];
+            } else {
+                top--;
+                subtreeStart[i] = starts[top - 1];
+            }
+        }
+    }
+
+    /**
+     * Evaluates the expression, splitting large subtrees across the pool.
+     *
+     * @param values value of each variable, in the order of {@link CompiledExpression#getVariables()}
+     * @return {@code double} - the calculated value
+     * @throws IllegalArgumentException when the number of values does not match the variables
+     * @throws EvaluationException      when an operation is not defined for its operands
+     */
+    public double evaluate(double... values) {
+        compiled.checkArity(values.length);
+        if (subtreeStart.length <= threshold || compiled.hasFunctions() || compiled.hasBranches()) {
+            return compiled.execute(values, 0, subtreeStart.length);
+        }
+        return pool.invoke(new EvaluateSubtree(values, 0, subtreeStart.length));
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return compiled expression the tree was built from
+     */
+    public CompiledExpression getCompiled() { return compiled; }
+
+    /**
+     * Helper method to apply the operator at the root of a subtree, reporting its position on failure
+     *
+     * @param root index of the operator
+     * @param a    first operand
+     * @param b    second operand, ignored for factorial
+     * @return {@code double} - the result
+     * @throws EvaluationException when the operation is not defined for its operands
+     */
+    private double apply(int root, double a, double b) {
+        try {
+            return compiled.operatorAt(root).calculate(a, b);
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), compiled.offsetAt(root));
+        }
+    }
+
+    /**
+     * Fork-join task evaluating one subtree.
+     */
+    private final class EvaluateSubtree extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] values;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructor to initialize the task
+         *
+         * @param values value of each variable
+         * @param from   index of the first token of the subtree, inclusive
+         * @param to     index of the last token of the subtree, exclusive
+         */
+        private EvaluateSubtree(double[] values, int from, int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Evaluates the subtree
+         *
+         * @return calculated value of the subtree
+         */
+        @Override
+        protected Double compute() {
+            // Operators on the way down a chain, with the already calculated value of their small operand
+            DoubleStack smallValues = new DoubleStack();
+            int[] pending = new int[16];
+            int count = 0;
+
+            int start = from;
+            int end = to;
+            double value;
+            while (true) {
+                if (end - start <= threshold) {
+                    value = compiled.execute(values, start, end);
+                    break;
+                }
+
+                int root = end - 1;
+                Operator operator = compiled.operatorAt(root);
+                if (count == pending.length)
+                    pending = Arrays.copyOf(pending, count * 2);
+
+                // Factorial has a single operand that ends right before it
+                if (operator == Operator.FACTORIAL) {
+                    pending[count++] = root;
+                    smallValues.push(0);
+                    end = root;
+                    continue;
+                }
+
+                int rightStart = subtreeStart[root - 1];
+                boolean leftLarge = rightStart - start > threshold;
+                boolean rightLarge = root - rightStart > threshold;
+
+                // Both operands are large: fork the left one and evaluate the right one here
+                // The left operand comes first in the program, so its error takes precedence, as when
+                // evaluating sequentially
+                if (leftLarge && rightLarge) {
+                    EvaluateSubtree left = new EvaluateSubtree(values, start, rightStart);
+                    left.fork();
+                    double right;
+                    try {
+                        right = new EvaluateSubtree(values, rightStart, root).compute();
+                    } catch (ArithmeticException e) {
+                        left.join();
+                        throw e;
+                    }
+                    value = apply(root, left.join(), right);
+                    break;
+                }
+
+                // One operand is small: evaluate it now and continue down the large one
+                // A negative index marks that the small operand is the left one
+                if (leftLarge) {
+                    try {
+                        smallValues.push(compiled.execute(values, rightStart, root));
+                    } catch (ArithmeticException e) {
+                        new EvaluateSubtree(values, start, rightStart).compute();
+                        throw e;
+                    }
+                    pending[count++] = root;
+                    end = rightStart;
+                } else {
+                    smallValues.push(compiled.execute(values, start, rightStart));
+                    pending[count++] = -root - 1;
+                    start = rightStart;
+                    end = root;
+                }
+            }
+
+            // Apply the operators met on the way down, innermost first
+            while (count > 0) {
+                int root = pending[--count];
+                double small = smallValues.pop();
+                if (root < 0) {
+                    value = apply(-root - 1, small, value);
+                } else {
+                    value = apply(root, value, small);
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A driver class to check that {@link ExpressionTree} reports the same error as the sequential
+ * evaluator: when several operands fail, the error of the leftmost one, at its position, must be
+ * thrown whichever task fails first. The check exits with status 1 on a mismatch.
+ */
+public class ExpressionTreeCheck {
+    /**
+     * Threshold small enough to split the checked expressions into many tasks
+     */
+    private static final int THRESHOLD = 8;
+
+    /**
+     * Number of evaluations of each expression, as the order in which tasks fail varies between runs
+     */
+    private static final int RUNS = 200;
+
+    private static int checks;
+    private static int mismatches;
+
+    /**
+     * Main method
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        String ones = "1" + " + 1".repeat(50);
+        // Both operands are large and both fail
+        check("(" + ones + " + 1 / 0) + (" + ones + " + 2 / 0)");
+        check("((" + ones + " + 1 / 0) * (" + ones + ")) - ((" + ones + ") * (" + ones + " + 2 / 0))");
+        // The left operand is large and the small right operand fails too
+        check("(" + ones + " + 1 / 0) + 2 / 0");
+        check("(" + ones + " + (-1)!) * (2 / 0)");
+
+        System.out.println(checks + " checks, " + mismatches + " mismatches");
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    /**
+     * Helper method to check that the tree and the sequential evaluator fail alike on an expression
+     *
+     * @param expression expression with several failing operands
+     */
+    private static void check(String expression) {
+        CompiledExpression compiled = new RPNCalculator().compile(expression);
+        String expected = error(() -> compiled.evaluate());
+        ExpressionTree tree = new ExpressionTree(compiled, THRESHOLD, ForkJoinPool.commonPool());
+        for (int run = 0; run < RUNS; run++) {
+            checks++;
+            String actual = error(() -> tree.evaluate());
+            if (!actual.equals(expected)) {
+                mismatches++;
+                System.out.println(expression + ": " + actual + ", expected " + expected);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper method to describe the error thrown by an evaluation
+     *
+     * @param evaluation evaluation expected to fail
+     * @return message and position of the error, or the value if the evaluation succeeded
+     */
+    private static String error(Evaluation evaluation) {
+        try {
+            return "value " + evaluation.evaluate();
+        } catch (EvaluationException e) {
+            return e.getMessage() + " at position " + e.getPosition();
+        }
+    }
+
+    /**
+     * An evaluation of a compiled expression
+     */
+    @FunctionalInterface
+    private interface Evaluation {
+        /**
+         * Evaluates the expression
+         *
+         * @return {@code double} - the calculated value
+         */
+        double evaluate();
+    }
+}
@@ -0,0 +1,152 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Factorial values shared by every operator evaluation.
+ * <ul>
+ *     <li>double - a precomputed table of every factorial up to 170!, the largest one a double can hold.
+ *     Each entry is the exact factorial rounded once, rather than the product of rounded steps.</li>
+ *     <li>long - a precomputed table up to 20!, the largest one a long can hold.</li>
+ *     <li>BigInteger - a memo of exact values that grows on demand up to {@link #CACHE_LIMIT}. Larger
+ *     factorials continue from the last memoized value and multiply the remaining range by binary
+ *     splitting, which keeps the operands of each multiplication balanced.</li>
+ * </ul>
+ * Every method is iterative or recursive only on the halves of a range, so large operands cannot
+ * exhaust the call stack. The class is thread-safe.
+ */
+final class Factorials {
+    /**
+     * Largest operand whose factorial is memoized
+     */
+    static final int CACHE_LIMIT = 1024;
+
+    /**
+     * Largest operand whose factorial fits in a double
+     */
+    static final int MAX_DOUBLE = 170;
+
+    /**
+     * Largest operand whose factorial fits in a long
+     */
+    static final int MAX_LONG = 20;
+
+    /**
+     * Number of factors below which a range is multiplied directly instead of being split
+     */
+    private static final int SPLIT_THRESHOLD = 16;
+
+    private static final double[] DOUBLES = new double[MAX_DOUBLE + 1];
+    private static final long[] LONGS = new long[MAX_LONG + 1];
+
+    /**
+     * Memoized exact values, replaced by a longer copy when it grows
+     */
+    private static volatile BigInteger[] exact;
+
+    static {
+        BigInteger[] values = new BigInteger[MAX_DOUBLE + 1];
+        values[0] = BigInteger.ONE;
+        for (int i = 1; i <= MAX_DOUBLE; i++) {
+            values[i] = values[i - 1].multiply(BigInteger.valueOf(i));
+        }
+        for (int i = 0; i <= MAX_DOUBLE; i++) {
+            DOUBLES[i] = values[i].doubleValue();
+        }
+        for (int i = 0; i <= MAX_LONG; i++) {
+            LONGS[i] = values[i].longValue();
+        }
+        exact = values;
+    }
+
+    /**
+     * Private constructor, the class only has static methods
+     */
+    private Factorials() {
+    }
+
+    /**
+     * Returns a factorial as a double.
+     *
+     * @param n non-negative operand
+     * @return {@code double} - the factorial, infinity once it exceeds the double range
+     */
+    static double asDouble(int n) {
+        return n <= MAX_DOUBLE ? DOUBLES[n] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns a factorial as a long.
+     *
+     * @param n non-negative operand
+     * @return {@code long} - the factorial
+     * @throws ArithmeticException when the factorial exceeds the long range
+     */
+    static long asLong(long n) {
+        if (n > MAX_LONG) {
+            throw new ArithmeticException("long overflow");
+        }
+        return LONGS[(int) n];
+    }
+
+    /**
+     * Returns the exact value of a factorial.
+     *
+     * @param n non-negative operand
+     * @return {@link BigInteger} - the factorial
+     */
+    static BigInteger exact(int n) {
+        BigInteger[] values = exact;
+        if (n < values.length) {
+            return values[n];
+        }
+        if (n <= CACHE_LIMIT) {
+            return grow(n)[n];
+        }
+
+        // Continue from the largest memoized value
+        BigInteger[] memo = grow(CACHE_LIMIT);
+        return memo[CACHE_LIMIT].multiply(product(CACHE_LIMIT + 1, n));
+    }
+
+    /**
+     * Extends the memo up to an operand. Growth is serialized, while readers keep using the
+     * previous copy until the new one is published.
+     *
+     * @param n largest operand to memoize
+     * @return memoized values, at least up to {@code n}
+     */
+    private static synchronized BigInteger[] grow(int n) {
+        BigInteger[] values = exact;
+        if (n < values.length) {
+            return values;
+        }
+
+        // Grow geometrically so that increasing operands do not copy the memo every time
+        int length = Math.min(CACHE_LIMIT + 1, Math.max(n + 1, values.length * 2));
+        BigInteger[] grown = Arrays.copyOf(values, length);
+        for (int i = values.length; i < length; i++) {
+            grown[i] = grown[i - 1].multiply(BigInteger.valueOf(i));
+        }
+        exact = grown;
+        return grown;
+    }
+
+    /**
+     * Multiplies every integer of a range by binary splitting
+     *
+     * @param from first factor, inclusive
+     * @param to   last factor, inclusive
+     * @return {@link BigInteger} - the product of the range
+     */
+    private static BigInteger product(int from, int to) {
+        if (to - from < SPLIT_THRESHOLD) {
+            BigInteger result = BigInteger.valueOf(from);
+            for (int i = from + 1; i <= to; i++) {
+                result = result.multiply(BigInteger.valueOf(i));
+            }
+            return result;
+        }
+        int middle = (from + to) >>> 1;
+        return product(from, middle).multiply(product(middle + 1, to));
+    }
+}
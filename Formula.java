@@ -0,0 +1,13 @@
+/**
+ * Compiled form of an expression that is evaluated as straight-line code, see {@link FormulaCompiler}.
+ */
+public interface Formula {
+    /**
+     * Evaluates the formula. The number of values is not checked.
+     *
+     * @param vars value of each variable, in the order of {@link CompiledExpression#getVariables()}
+     * @return {@code double} - the calculated value
+     * @throws EvaluationException when an operation is not defined for its operands
+     */
+    double eval(double[] vars);
+}
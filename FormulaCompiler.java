@@ -0,0 +1,499 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translates a compiled postfix program into a JVM class implementing {@link Formula}.
+ * <p>
+ * The class is generated as straight-line bytecode: literals are constants, variables are array
+ * loads, and addition, subtraction, multiplication and power are single instructions or a call to
+ * {@link Math#pow(double, double)}. Operations that can fail call a small static helper that reports
+ * the error at the position of the operator, just like the interpreter; comparisons call a helper
+ * too, so the generated code has no branches. The JIT then compiles the
+ * formula like any hand-written method, with no operand stack and no dispatch per token.
+ * <p>
+ * The class is defined as a hidden class, so it is unloaded together with the compiled expression.
+ * Programs whose bytecode would exceed {@link #MAX_CODE_LENGTH} are not translated, as the JIT does
+ * not compile methods that large and the interpreter is faster than interpreted bytecode. Programs
+ * calling functions of the {@link FunctionRegistry} or with logical operators and conditionals, whose
+ * untaken branches must be skipped, are not translated either.
+ * <p>
+ * {@link CompiledExpression#evaluate(double...)} switches to the generated class once an expression
+ * was evaluated {@link #getThreshold()} times. The threshold defaults to {@link #DEFAULT_THRESHOLD} and
+ * can be set with the {@code rpn.compile.threshold} system property or {@link #setThreshold(int)}.
+ */
+public final class FormulaCompiler {
+    /**
+     * Default number of evaluations after which an expression is translated
+     */
+    public static final int DEFAULT_THRESHOLD = 10_000;
+
+    /**
+     * Largest bytecode size of a generated method, the size up to which HotSpot compiles methods
+     */
+    static final int MAX_CODE_LENGTH = 8000;
+
+    private static final String CLASS_NAME = "GeneratedFormula";
+    private static final String HELPER_NAME = "FormulaCompiler";
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private static volatile int threshold = Integer.getInteger("rpn.compile.threshold", DEFAULT_THRESHOLD);
+
+    /**
+     * Private constructor, the class only has static methods
+     */
+    private FormulaCompiler() {
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of evaluations after which an expression is translated, 0 if never
+     */
+    public static int getThreshold() { return threshold; }
+
+    /**
+     * Mutator method, applies to every expression that was not translated yet
+     *
+     * @param evaluations number of evaluations after which an expression is translated, 0 to never translate
+     * @throws IllegalArgumentException when the threshold is negative
+     */
+    public static void setThreshold(int evaluations) {
+        if (evaluations < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + evaluations);
+        }
+        threshold = evaluations;
+    }
+
+    /**
+     * Translates a compiled program into a formula.
+     *
+     * @param compiled compiled program to translate
+     * @return {@link Formula} - the generated formula (or {@code null} if the program is too large)
+     */
+    static Formula compile(CompiledExpression compiled) {
+        byte[] bytes = generate(compiled);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Formula) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot define formula for " + compiled.getExpression(), e);
+        }
+    }
+
+    /**
+     * Helper method called by generated formulas to divide
+     *
+     * @param a      dividend
+     * @param b      divisor
+     * @param offset position of the operator in the expression
+     * @return {@code double} - the quotient
+     * @throws EvaluationException when dividing by zero
+     */
+    static double divide(double a, double b, int offset) {
+        try {
+            return Operator.DIVISION.calculate(a, b);
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), offset);
+        }
+    }
+
+    /**
+     * Helper method called by generated formulas to calculate a remainder
+     *
+     * @param a      dividend
+     * @param b      divisor
+     * @param offset position of the operator in the expression
+     * @return {@code double} - the remainder
+     * @throws EvaluationException when dividing by zero
+     */
+    static double modulus(double a, double b, int offset) {
+        try {
+            return Operator.MODULUS.calculate(a, b);
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), offset);
+        }
+    }
+
+    /**
+     * Helper method called by generated formulas to calculate a factorial
+     *
+     * @param a      operand
+     * @param offset position of the operator in the expression
+     * @return {@code double} - the factorial
+     * @throws EvaluationException when the operand is not a non-negative integer
+     */
+    static double factorial(double a, int offset) {
+        try {
+            return Operator.FACTORIAL.calculate(a, 0);
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), offset);
+        }
+    }
+
+    /**
+     * Helper method called by generated formulas to compare two values
+     *
+     * @param a        left operand
+     * @param b        right operand
+     * @param operator ordinal of the comparison operator
+     * @return {@code double} - 1 if the comparison holds, else 0
+     */
+    static double compare(double a, double b, int operator) {
+        return OPERATORS[operator].calculate(a, b);
+    }
+
+    /**
+     * Generates the class file of a formula
+     *
+     * @param compiled compiled program to translate
+     * @return class file bytes (or {@code null} if the program is too large, calls functions or has jumps)
+     */
+    private static byte[] generate(CompiledExpression compiled) {
+        if (compiled.hasFunctions() || compiled.hasBranches()) {
+            return null;
+        }
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int formula = pool.classRef("Formula");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int pow = pool.methodRef("java/lang/Math", "pow", "(DD)D");
+        int divide = pool.methodRef(HELPER_NAME, "divide", "(DDI)D");
+        int modulus = pool.methodRef(HELPER_NAME, "modulus", "(DDI)D");
+        int factorial = pool.methodRef(HELPER_NAME, "factorial", "(DI)D");
+        int compare = pool.methodRef(HELPER_NAME, "compare", "(DDI)D");
+
+        // Translate every token into the instructions that push its value
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < compiled.size(); i++) {
+            Operator operator = compiled.operatorAt(i);
+            if (operator == null) {
+                if (compiled.slotAt(i) < 0) {
+                    emitIndex(code, 0x14, pool.doubleConstant(compiled.literalAt(i)));   // ldc2_w
+                } else {
+                    code.write(0x2b);                                                    // aload_1
+                    pushInt(code, pool, compiled.slotAt(i));
+                    code.write(0x31);                                                    // daload
+                }
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+
+            switch (operator) {
+                case ADDITION:
+                    code.write(0x63);                                                    // dadd
+                    break;
+                case SUBTRACTION:
+                    code.write(0x67);                                                    // dsub
+                    break;
+                case MULTIPLICATION:
+                    code.write(0x6b);                                                    // dmul
+                    break;
+                case POWER:
+                    emitIndex(code, 0xb8, pow);                                          // invokestatic
+                    break;
+                case DIVISION:
+                    pushInt(code, pool, compiled.offsetAt(i));
+                    emitIndex(code, 0xb8, divide);
+                    break;
+                case MODULUS:
+                    pushInt(code, pool, compiled.offsetAt(i));
+                    emitIndex(code, 0xb8, modulus);
+                    break;
+                case FACTORIAL:
+                    pushInt(code, pool, compiled.offsetAt(i));
+                    emitIndex(code, 0xb8, factorial);
+                    break;
+                case LESS:
+                case LESS_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL:
+                case EQUAL:
+                case NOT_EQUAL:
+                    pushInt(code, pool, operator.ordinal());
+                    emitIndex(code, 0xb8, compare);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported operator: " + operator);
+            }
+            if (operator != Operator.FACTORIAL)
+                depth--;
+            if (code.size() > MAX_CODE_LENGTH)
+                return null;
+        }
+        code.write(0xaf);                                                                // dreturn
+
+        // Doubles take two stack slots, plus the array and index of a load or the offset of a helper call
+        int maxStack = maxDepth * 2 + 2;
+        if (code.size() > MAX_CODE_LENGTH || pool.isFull()) {
+            return null;
+        }
+
+        int codeAttribute = pool.utf8("Code");
+        int initName = pool.utf8("<init>");
+        int initDescriptor = pool.utf8("()V");
+        int evalName = pool.utf8("eval");
+        int evalDescriptor = pool.utf8("([D)D");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(code.size() + pool.size() + 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020);                                    // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(formula);
+            out.writeShort(0);                                                           // fields
+            out.writeShort(2);                                                           // methods
+
+            // public <init>() { super(); }
+            byte[] init = {0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xb1};
+            writeMethod(out, initName, initDescriptor, codeAttribute, 1, 1, init);
+
+            // public double eval(double[] vars)
+            writeMethod(out, evalName, evalDescriptor, codeAttribute, maxStack, 2, code.toByteArray());
+
+            out.writeShort(0);                                                           // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper method to write a public method with its code
+     *
+     * @param out           class file being written
+     * @param name          constant pool index of the method name
+     * @param descriptor    constant pool index of the method descriptor
+     * @param codeAttribute constant pool index of the name of the code attribute
+     * @param maxStack      largest operand stack size in slots
+     * @param maxLocals     number of local variable slots, including {@code this}
+     * @param code          bytecode of the method
+     * @throws IOException never, the output is in memory
+     */
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                                                               // exception table
+        out.writeShort(0);                                                               // attributes
+    }
+
+    /**
+     * Helper method to write an instruction taking a two byte constant pool index
+     *
+     * @param code   bytecode being written
+     * @param opcode instruction
+     * @param index  constant pool index
+     */
+    private static void emitIndex(ByteArrayOutputStream code, int opcode, int index) {
+        code.write(opcode);
+        code.write(index >> 8);
+        code.write(index);
+    }
+
+    /**
+     * Helper method to write the shortest instruction pushing an int
+     *
+     * @param code  bytecode being written
+     * @param pool  constant pool of the class
+     * @param value value to push
+     */
+    private static void pushInt(ByteArrayOutputStream code, ConstantPool pool, int value) {
+        if (value >= -1 && value <= 5) {
+            code.write(0x03 + value);                                                    // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.write(0x10);                                                            // bipush
+            code.write(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.write(0x11);                                                            // sipush
+            code.write(value >> 8);
+            code.write(value);
+        } else {
+            emitIndex(code, 0x13, pool.intConstant(value));                              // ldc_w
+        }
+    }
+
+    /**
+     * Constant pool of a generated class. Equal constants share one entry.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<Object, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        /**
+         * Returns the index of a UTF-8 string entry, adding it if absent
+         *
+         * @param value string value
+         * @return constant pool index
+         */
+        private int utf8(String value) {
+            Integer index = indices.get(value);
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add(value, 1);
+        }
+
+        /**
+         * Returns the index of a class entry, adding it if absent
+         *
+         * @param internalName class name with slashes as package separators
+         * @return constant pool index
+         */
+        private int classRef(String internalName) {
+            String key = "class:" + internalName;
+            Integer index = indices.get(key);
+            if (index != null)
+                return index;
+            int name = utf8(internalName);
+            write(7, name);
+            return add(key, 1);
+        }
+
+        /**
+         * Returns the index of a method reference entry, adding it if absent
+         *
+         * @param owner      internal name of the declaring class
+         * @param name       method name
+         * @param descriptor method descriptor
+         * @return constant pool index
+         */
+        private int methodRef(String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            write(12, nameIndex, descriptorIndex);
+            int nameAndType = add(new Object(), 1);
+            write(10, ownerClass, nameAndType);
+            return add(new Object(), 1);
+        }
+
+        /**
+         * Returns the index of a double entry, adding it if absent
+         *
+         * @param value double value
+         * @return constant pool index
+         */
+        private int doubleConstant(double value) {
+            // Key on the bits so that NaN, -0.0 and 0.0 are told apart correctly
+            Long key = Double.doubleToRawLongBits(value);
+            Integer index = indices.get(key);
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(6);
+                out.writeLong(key);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add(key, 2);
+        }
+
+        /**
+         * Returns the index of an int entry, adding it if absent
+         *
+         * @param value int value
+         * @return constant pool index
+         */
+        private int intConstant(int value) {
+            Integer key = value;
+            Integer index = indices.get(key);
+            if (index != null)
+                return index;
+            try {
+                out.writeByte(3);
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add(key, 1);
+        }
+
+        /**
+         * Helper method to write an entry made of a tag and two byte indices
+         *
+         * @param tag     entry tag
+         * @param refs    indices referenced by the entry
+         */
+        private void write(int tag, int... refs) {
+            try {
+                out.writeByte(tag);
+                for (int index : refs) {
+                    out.writeShort(index);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Helper method to register an entry that was just written
+         *
+         * @param key   key identifying the entry
+         * @param slots number of pool slots taken by the entry, 2 for doubles
+         * @return constant pool index of the entry
+         */
+        private int add(Object key, int slots) {
+            int index = count;
+            indices.put(key, index);
+            count += slots;
+            return index;
+        }
+
+        /**
+         * Tests whether the pool exceeds the number of entries a class file can hold
+         *
+         * @return {@code boolean} - {@code true} if the pool is too large
+         */
+        private boolean isFull() { return count > 0xFFFF - 8; }
+
+        /**
+         * Returns the size of the pool entries
+         *
+         * @return number of bytes written
+         */
+        private int size() { return bytes.size(); }
+
+        /**
+         * Writes the entry count and the entries
+         *
+         * @param classFile class file being written
+         * @throws IOException never, the output is in memory
+         */
+        private void writeTo(DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            bytes.writeTo(classFile);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Library of precompiled formulas stored in the binary format of {@link ExpressionCodec}, for
+ * services that start with a large set of known formulas.
+ * <p>
+ * A library file starts with a header (magic number, version, number of formulas) and a table of
+ * the position of every record, followed by the records. Opening a library maps the file into
+ * memory and reads only the header: a formula is decoded straight from the mapped bytes the first
+ * time it is requested, and kept for later requests. Nothing is ever parsed from text.
+ * <p>
+ * A library is thread-safe. Files are limited to 2 GB, the size of a single mapping.
+ */
+public final class FormulaLibrary {
+    /**
+     * First bytes of a library file, "RPNC" in ASCII
+     */
+    static final int MAGIC = 0x52504E43;
+
+    /**
+     * Version of the binary format
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Bytes of the header before the position table: magic number, version and number of formulas
+     */
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    /**
+     * Size of the buffer used to write a library
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final AtomicReferenceArray<CompiledExpression> loaded;
+
+    /**
+     * Private constructor used by {@link #wrap(ByteBuffer)}
+     *
+     * @param buffer little-endian buffer holding the library
+     * @param size   number of formulas
+     */
+    private FormulaLibrary(ByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+        this.loaded = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Writes a library file
+     *
+     * @param path     file to write, replaced if it exists
+     * @param formulas compiled double programs, in library order
+     * @throws IOException              when the file cannot be written
+     * @throws IllegalArgumentException when a program was not compiled for the double backend, or the
+     *                                  library would exceed 2 GB
+     */
+    public static void write(Path path, List<CompiledExpression> formulas) throws IOException {
+        // Lay out the records first, the position table comes before them
+        int[] sizes = new int[formulas.size()];
+        long position = HEADER_SIZE + (long) Integer.BYTES * formulas.size();
+        ByteBuffer table = ByteBuffer.allocate((int) position).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(MAGIC).putInt(VERSION).putInt(formulas.size());
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = ExpressionCodec.encodedSize(formulas.get(i));
+            table.putInt((int) position);
+            position += sizes[i];
+            if (position > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Formula library exceeds 2 GB");
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, table.flip());
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < sizes.length; i++) {
+                if (sizes[i] > out.remaining()) {
+                    writeFully(channel, out.flip());
+                    out.clear();
+                }
+                if (sizes[i] > out.capacity()) {
+                    writeFully(channel, ExpressionCodec.encode(formulas.get(i)));
+                } else {
+                    ExpressionCodec.encode(formulas.get(i), out);
+                }
+            }
+            writeFully(channel, out.flip());
+        }
+    }
+
+    /**
+     * Opens a library file by mapping it into memory
+     *
+     * @param path library file
+     * @return {@link FormulaLibrary} - the library
+     * @throws IOException              when the file cannot be read
+     * @throws IllegalArgumentException when the file is not a library or exceeds 2 GB
+     */
+    public static FormulaLibrary open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Formula library exceeds 2 GB: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Opens a library held in a buffer, from its position to its limit. The buffer is not copied.
+     *
+     * @param buffer buffer holding the library
+     * @return {@link FormulaLibrary} - the library
+     * @throws IllegalArgumentException when the buffer does not hold a library
+     */
+    public static FormulaLibrary wrap(ByteBuffer buffer) {
+        ByteBuffer library = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (library.remaining() < HEADER_SIZE || library.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a formula library");
+        }
+        if (library.getInt(Integer.BYTES) != VERSION) {
+            throw new IllegalArgumentException("Unsupported formula library version " + library.getInt(Integer.BYTES));
+        }
+        int size = library.getInt(2 * Integer.BYTES);
+        if (size < 0 || HEADER_SIZE + (long) Integer.BYTES * size > library.remaining()) {
+            throw new IllegalArgumentException("Truncated formula library");
+        }
+        return new FormulaLibrary(library, size);
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of formulas in the library
+     */
+    public int getSize() { return size; }
+
+    /**
+     * Returns a formula of the library, decoding it on first use
+     *
+     * @param i index of the formula
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws IndexOutOfBoundsException when there is no such formula
+     * @throws IllegalArgumentException  when the record of the formula is corrupt
+     */
+    public CompiledExpression get(int i) {
+        CompiledExpression compiled = loaded.get(i);
+        if (compiled == null) {
+            int position = buffer.getInt(HEADER_SIZE + Integer.BYTES * i);
+            if (position < HEADER_SIZE || position >= buffer.limit()) {
+                throw new IllegalArgumentException("Invalid position of formula " + i + " in library");
+            }
+            // Each reader decodes from its own view of the shared bytes
+            compiled = ExpressionCodec.decode(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position));
+            if (!loaded.compareAndSet(i, null, compiled))
+                compiled = loaded.get(i);
+        }
+        return compiled;
+    }
+
+    /**
+     * Helper method to write a whole buffer to a channel
+     *
+     * @param channel channel to write to
+     * @param buffer  bytes to write
+     * @throws IOException when the channel cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Method to print the library summary in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return "Formula library: " + size + " formulas, " + buffer.limit() + " bytes";
+    }
+}
@@ -0,0 +1,494 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spreadsheet-style set of named inputs and formulas that are kept up to date incrementally.
+ * <p>
+ * Formulas are compiled once and may reference inputs and other formulas by name. The sheet keeps
+ * the dependency DAG of its cells and the last value of each one. Updating inputs recomputes only
+ * the formulas downstream of them, in order of their topological level, so every formula is
+ * evaluated at most once per update and after all of its dependencies. A formula whose
+ * dependencies all kept their value is not evaluated again, and does not dirty its own dependents.
+ * Formulas are evaluated within the budget of the calculator that compiled them.
+ * <p>
+ * Formulas of the same level do not depend on each other. With a fork-join pool, levels with
+ * enough dirty formulas are evaluated in parallel.
+ * <p>
+ * A sheet is not thread-safe: updates and reads must not run concurrently.
+ */
+public class FormulaSheet {
+    /**
+     * Number of dirty formulas of a level below which it is evaluated sequentially
+     */
+    private static final int THRESHOLD = 256;
+
+    /**
+     * Node of the dependency DAG: an input, or a formula over other cells
+     */
+    private static final class Cell {
+        private final String name;
+        private CompiledExpression formula;
+        private Cell[] dependencies = new Cell[0];
+        private double[] arguments = new double[0];
+        private final List<Cell> dependents = new ArrayList<>();
+        private int level;
+        private double value;
+        private String error;
+        private long changed;
+        private long dirty;
+        private long evaluated;
+
+        /**
+         * Parameterized constructor
+         *
+         * @param name name of the cell
+         */
+        private Cell(String name) {
+            this.name = name;
+        }
+    }
+
+    private final RPNCalculator calculator;
+    private final ForkJoinPool pool;
+    private final Map<String, Cell> cells = new LinkedHashMap<>();
+    private final List<List<Cell>> levels = new ArrayList<>();
+    private long pass;
+    private long evaluations;
+
+    /**
+     * Default constructor, evaluates sequentially
+     */
+    public FormulaSheet() {
+        this(new RPNCalculator(), null);
+    }
+
+    /**
+     * Constructor to initialize the sheet
+     *
+     * @param calculator calculator used to compile the formulas, with the double backend
+     * @param pool       pool evaluating large levels in parallel, {@code null} to evaluate sequentially
+     * @throws IllegalArgumentException when the calculator does not use the double backend
+     */
+    public FormulaSheet(RPNCalculator calculator, ForkJoinPool pool) {
+        if (calculator.getBackend().getKind() != NumericBackend.Kind.DOUBLE) {
+            throw new IllegalArgumentException("Formula sheets require the double backend");
+        }
+        this.calculator = calculator;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the value of an input, creating it if needed, and recomputes the formulas depending on it
+     *
+     * @param name  name of the input
+     * @param value new value
+     * @throws IllegalArgumentException when the name is not a variable name, or is a formula
+     */
+    public void setInput(String name, double value) {
+        setInputs(Map.of(name, value));
+    }
+
+    /**
+     * Sets the values of several inputs, creating them if needed, and recomputes the formulas
+     * depending on any of them once.
+     *
+     * @param values new value of each input, keyed by name
+     * @throws IllegalArgumentException when a name is not a variable name, or is a formula
+     */
+    public void setInputs(Map<String, Double> values) {
+        for (String name : values.keySet()) {
+            Cell cell = cells.get(name);
+            if (cell == null) {
+                checkName(name);
+            } else if (cell.formula != null) {
+                throw new IllegalArgumentException("Cell " + name + " is a formula, not an input");
+            }
+        }
+
+        long current = ++pass;
+        List<Cell> changed = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            Cell cell = cells.get(entry.getKey());
+            if (cell == null) {
+                cell = new Cell(entry.getKey());
+                cell.value = Double.NaN;
+                cells.put(cell.name, cell);
+            }
+
+            double value = entry.getValue();
+            if (Double.doubleToLongBits(value) != Double.doubleToLongBits(cell.value)) {
+                cell.value = value;
+                cell.changed = current;
+                changed.add(cell);
+            }
+        }
+        recompute(changed, current);
+    }
+
+    /**
+     * Defines or redefines a formula and computes its value along with the formulas depending on it
+     *
+     * @param name       name of the formula
+     * @param expression math expression, whose variables are names of existing cells
+     * @throws IllegalArgumentException when the name is not a variable name or is an input, the
+     *                                  expression is invalid, references an unknown cell, or would
+     *                                  create a circular reference
+     * @throws ArithmeticException      when the expression contains no operands
+     */
+    public void define(String name, String expression) {
+        CompiledExpression formula = calculator.compile(expression);
+        Cell cell = cells.get(name);
+        if (cell != null && cell.formula == null) {
+            throw new IllegalArgumentException("Cell " + name + " is an input, not a formula");
+        }
+
+        // Resolve the references and reject cycles before changing anything
+        String[] variables = formula.getVariables();
+        Cell[] dependencies = new Cell[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            dependencies[i] = cells.get(variables[i]);
+            if (dependencies[i] == null) {
+                throw new IllegalArgumentException("Unknown cell " + variables[i] + " in formula " + name);
+            }
+            if (dependencies[i] == cell || (cell != null && reaches(cell, dependencies[i]))) {
+                throw new IllegalArgumentException("Circular reference to " + name + " through " + variables[i]);
+            }
+        }
+
+        if (cell == null) {
+            cell = new Cell(checkName(name));
+            cells.put(name, cell);
+        } else {
+            for (Cell dependency : cell.dependencies) {
+                dependency.dependents.remove(cell);
+            }
+        }
+        cell.formula = formula;
+        cell.dependencies = dependencies;
+        cell.arguments = new double[dependencies.length];
+        for (Cell dependency : dependencies) {
+            dependency.dependents.add(cell);
+        }
+
+        // Levels downstream may change, the new formula is dirty whatever its dependencies
+        long current = ++pass;
+        updateLevels(cell);
+        cell.changed = current;
+        cell.dirty = current;
+        levelOf(cell.level).add(cell);
+        List<Cell> changed = new ArrayList<>();
+        changed.add(cell);
+        recompute(changed, current);
+    }
+
+    /**
+     * Returns the current value of a cell
+     *
+     * @param name name of the cell
+     * @return {@code double} - the value, NaN if the formula failed
+     * @throws IllegalArgumentException when there is no such cell
+     */
+    public double getValue(String name) {
+        return cell(name).value;
+    }
+
+    /**
+     * Returns the error of the last evaluation of a formula
+     *
+     * @param name name of the cell
+     * @return {@link String} - the error message (or {@code null} if the value is valid)
+     * @throws IllegalArgumentException when there is no such cell
+     */
+    public String getError(String name) {
+        return cell(name).error;
+    }
+
+    /**
+     * Checks if the sheet has a cell
+     *
+     * @param name name of the cell
+     * @return {@code boolean} - {@code true} if it is an input or a formula, else {@code false}
+     */
+    public boolean contains(String name) {
+        return cells.containsKey(name);
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of inputs and formulas
+     */
+    public int getSize() { return cells.size(); }
+
+    /**
+     * Accessor method
+     *
+     * @return number of formula evaluations since the sheet was created
+     */
+    public long getEvaluationCount() { return evaluations; }
+
+    /**
+     * Helper method to recompute the formulas downstream of changed cells, level by level
+     *
+     * @param changed cells whose value changed in this pass
+     * @param current number of this pass
+     */
+    private void recompute(List<Cell> changed, long current) {
+        // Collect the dirty formulas by level, each one once
+        List<Cell> pending = new ArrayList<>(changed);
+        int deepest = 0;
+        while (!pending.isEmpty()) {
+            Cell cell = pending.remove(pending.size() - 1);
+            deepest = Math.max(deepest, cell.level);
+            for (Cell dependent : cell.dependents) {
+                if (dependent.dirty != current) {
+                    dependent.dirty = current;
+                    levelOf(dependent.level).add(dependent);
+                    pending.add(dependent);
+                }
+            }
+        }
+
+        // Evaluate level after level, every dependency is up to date before its dependents
+        for (int level = 1; level <= deepest && level < levels.size(); level++) {
+            List<Cell> dirty = levels.get(level);
+            if (dirty.isEmpty())
+                continue;
+            if (pool != null && dirty.size() > THRESHOLD) {
+                pool.invoke(new EvaluateRange(dirty, calculator.getBudget(), current, 0, dirty.size()));
+            } else {
+                evaluate(dirty, calculator.getBudget(), current, 0, dirty.size());
+            }
+            for (Cell cell : dirty) {
+                if (cell.evaluated == current)
+                    evaluations++;
+            }
+            dirty.clear();
+        }
+    }
+
+    /**
+     * Helper method to evaluate a range of dirty formulas of one level
+     *
+     * @param dirty   dirty formulas of the level
+     * @param budget  limits of every evaluation
+     * @param current number of this pass
+     * @param from    index of the first formula of the range, inclusive
+     * @param to      index of the last formula of the range, exclusive
+     */
+    private static void evaluate(List<Cell> dirty, EvaluationBudget budget, long current, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Cell cell = dirty.get(i);
+
+            // Skip formulas whose dependencies all kept their value
+            boolean stale = cell.changed == current;
+            String failed = null;
+            for (int d = 0; d < cell.dependencies.length; d++) {
+                Cell dependency = cell.dependencies[d];
+                stale |= dependency.changed == current;
+                if (dependency.error != null && failed == null)
+                    failed = dependency.name;
+                cell.arguments[d] = dependency.value;
+            }
+            if (!stale)
+                continue;
+
+            cell.evaluated = current;
+            double value;
+            String error = null;
+            if (failed != null) {
+                value = Double.NaN;
+                error = "Depends on failed cell " + failed;
+            } else {
+                try {
+                    value = cell.formula.evaluate(budget, cell.arguments);
+                } catch (ArithmeticException e) {
+                    value = Double.NaN;
+                    error = e.getMessage();
+                }
+            }
+
+            if (Double.doubleToLongBits(value) != Double.doubleToLongBits(cell.value)
+                    || !Objects.equals(error, cell.error) || cell.changed == current) {
+                cell.value = value;
+                cell.error = error;
+                cell.changed = current;
+            }
+        }
+    }
+
+    /**
+     * Helper method to check if a cell is downstream of another one
+     *
+     * @param from   upstream cell
+     * @param target cell to look for
+     * @return {@code true} if the target depends on the upstream cell, directly or not, else {@code false}
+     */
+    private static boolean reaches(Cell from, Cell target) {
+        Set<Cell> visited = new HashSet<>();
+        Deque<Cell> pending = new ArrayDeque<>();
+        pending.push(from);
+        while (!pending.isEmpty()) {
+            Cell cell = pending.pop();
+            if (cell == target)
+                return true;
+            for (Cell dependent : cell.dependents) {
+                if (visited.add(dependent))
+                    pending.push(dependent);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to recompute the level of a formula and of every cell downstream of it: one more
+     * than the deepest of its dependencies, inputs being level 0
+     *
+     * @param root formula whose dependencies changed
+     */
+    private static void updateLevels(Cell root) {
+        // Depth-first post-order over the dependents, reversed it is a topological order
+        List<Cell> order = new ArrayList<>();
+        Set<Cell> visited = new HashSet<>();
+        Deque<Cell> cells = new ArrayDeque<>();
+        Deque<Integer> next = new ArrayDeque<>();
+        visited.add(root);
+        cells.push(root);
+        next.push(0);
+        while (!cells.isEmpty()) {
+            Cell cell = cells.peek();
+            int i = next.pop();
+            if (i < cell.dependents.size()) {
+                next.push(i + 1);
+                Cell dependent = cell.dependents.get(i);
+                if (visited.add(dependent)) {
+                    cells.push(dependent);
+                    next.push(0);
+                }
+            } else {
+                order.add(cells.pop());
+            }
+        }
+
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Cell cell = order.get(i);
+            int level = 0;
+            for (Cell dependency : cell.dependencies) {
+                level = Math.max(level, dependency.level);
+            }
+            cell.level = level + 1;
+        }
+    }
+
+    /**
+     * Helper method to get the dirty formulas of a level
+     *
+     * @param level topological level
+     * @return the dirty formulas of the level
+     */
+    private List<Cell> levelOf(int level) {
+        while (levels.size() <= level) {
+            levels.add(new ArrayList<>());
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * Helper method to look up a cell
+     *
+     * @param name name of the cell
+     * @return the cell
+     * @throws IllegalArgumentException when there is no such cell
+     */
+    private Cell cell(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            throw new IllegalArgumentException("Unknown cell " + name);
+        }
+        return cell;
+    }
+
+    /**
+     * Helper method to check that a cell name can be referenced from formulas
+     *
+     * @param name name of the cell
+     * @return the name
+     * @throws IllegalArgumentException when the name is not a variable name
+     */
+    private static String checkName(String name) {
+        if (name == null || !Lexer.isVariable(name)) {
+            throw new IllegalArgumentException("Invalid cell name: " + name);
+        }
+        return name;
+    }
+
+    /**
+     * Fork-join task evaluating a range of the dirty formulas of one level
+     */
+    private static final class EvaluateRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Cell> dirty;
+        private final EvaluationBudget budget;
+        private final long current;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructor to initialize the task
+         *
+         * @param dirty   dirty formulas of the level
+         * @param budget  limits of every evaluation
+         * @param current number of this pass
+         * @param from    index of the first formula of the range, inclusive
+         * @param to      index of the last formula of the range, exclusive
+         */
+        private EvaluateRange(List<Cell> dirty, EvaluationBudget budget, long current, int from, int to) {
+            this.dirty = dirty;
+            this.budget = budget;
+            this.current = current;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Splits the range in two until it is below the threshold, then evaluates it
+         */
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateRange(dirty, budget, current, from, middle),
+                        new EvaluateRange(dirty, budget, current, middle, to));
+                return;
+            }
+            evaluate(dirty, budget, current, from, to);
+        }
+    }
+
+    /**
+     * Method to print the value of every cell in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Cell cell : cells.values()) {
+            sb.append(cell.name).append(" = ");
+            if (cell.formula != null)
+                sb.append(cell.formula.getExpression()).append(" = ");
+            sb.append(cell.error != null ? "#" + cell.error : String.valueOf(cell.value)).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Registry of the functions that math expressions can call by name, such as {@code sqrt(x)} or
+ * {@code min(a, b, c)}.
+ * <p>
+ * The registry starts with these functions:
+ * <ul>
+ *     <li>min - smallest of one or more arguments.</li>
+ *     <li>max - largest of one or more arguments.</li>
+ *     <li>sqrt - square root of 1 argument, which must not be negative.</li>
+ *     <li>log - natural logarithm of 1 argument, which must be positive.</li>
+ *     <li>abs - absolute value of 1 argument.</li>
+ * </ul>
+ * More functions can be registered at any time, under names that are not registered yet.
+ * Calls are resolved when an expression is compiled, so a function must be registered before the
+ * expressions calling it are compiled. The registry is shared by all calculators and is thread-safe.
+ */
+public final class FunctionRegistry {
+    private static final Map<String, MathFunction> FUNCTIONS = new ConcurrentHashMap<>();
+
+    static {
+        register(new MathFunction("min", 1, MathFunction.MAX_ARGUMENTS, (args, from, count) -> {
+            double min = args[from];
+            for (int i = from + 1; i < from + count; i++) {
+                min = Math.min(min, args[i]);
+            }
+            return min;
+        }));
+        register(new MathFunction("max", 1, MathFunction.MAX_ARGUMENTS, (args, from, count) -> {
+            double max = args[from];
+            for (int i = from + 1; i < from + count; i++) {
+                max = Math.max(max, args[i]);
+            }
+            return max;
+        }));
+        register("sqrt", a -> {
+            if (a < 0) {
+                throw new ArithmeticException("Square root of a negative number");
+            }
+            return Math.sqrt(a);
+        });
+        register("log", a -> {
+            if (a <= 0) {
+                throw new ArithmeticException("Logarithm of a non-positive number");
+            }
+            return Math.log(a);
+        });
+        register("abs", Math::abs);
+    }
+
+    private FunctionRegistry() {
+    }
+
+    /**
+     * Registers a function
+     *
+     * @param function function to register
+     * @throws IllegalArgumentException when a function with the same name is already registered
+     */
+    public static void register(MathFunction function) {
+        if (FUNCTIONS.putIfAbsent(function.getName(), function) != null) {
+            throw new IllegalArgumentException("Function " + function.getName() + " is already registered");
+        }
+    }
+
+    /**
+     * Registers a function of 1 argument
+     *
+     * @param name     name the function is called by
+     * @param function calculation of the function
+     * @throws IllegalArgumentException when the name is invalid or already registered
+     */
+    public static void register(String name, DoubleUnaryOperator function) {
+        register(new MathFunction(name, 1, 1, (args, from, count) -> function.applyAsDouble(args[from])));
+    }
+
+    /**
+     * Registers a function of 2 arguments
+     *
+     * @param name     name the function is called by
+     * @param function calculation of the function
+     * @throws IllegalArgumentException when the name is invalid or already registered
+     */
+    public static void register(String name, DoubleBinaryOperator function) {
+        register(new MathFunction(name, 2, 2, (args, from, count) -> function.applyAsDouble(args[from], args[from + 1])));
+    }
+
+    /**
+     * Looks up a function in constant time
+     *
+     * @param name name of the function
+     * @return {@link MathFunction} - the function (or {@code null} if no function has the name)
+     */
+    public static MathFunction lookup(String name) {
+        return FUNCTIONS.get(name);
+    }
+
+    /**
+     * Returns the registered functions
+     *
+     * @return the functions, keyed by name in alphabetical order
+     */
+    public static Map<String, MathFunction> getFunctions() {
+        return new TreeMap<>(FUNCTIONS);
+    }
+}
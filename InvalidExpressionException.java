@@ -0,0 +1,27 @@
+/**
+ * Thrown when a math expression is not valid, with the position in the expression where the
+ * problem was found.
+ */
+public class InvalidExpressionException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    /**
+     * Constructor to initialize the exception
+     *
+     * @param message  description of the problem
+     * @param position offset of the offending character in the expression, -1 if unknown
+     */
+    public InvalidExpressionException(String message, int position) {
+        super(message);
+        this.position = position;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return offset of the offending character in the expression, -1 if unknown
+     */
+    public int getPosition() { return position; }
+}
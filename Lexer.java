@@ -0,0 +1,391 @@
+/**
+ * Single-pass, character-level lexer for math expressions.
+ * Whitespace is optional and skipped, numbers are converted in place by {@link DecimalText} as soon
+ * as they are scanned, and operators are resolved to their {@link Operator} without any lookup.
+ * Invalid input is reported with the position of the offending character, never by catching exceptions.
+ * <p>
+ * Infix expressions are validated in the same pass: operands and operators must alternate, which the
+ * last token scanned tells, and brackets are paired with a depth counter. The first error is reported
+ * where it occurs, so invalid input costs no more than valid input.
+ */
+public final class Lexer {
+    private Lexer() {
+    }
+
+    /**
+     * Splits a math expression into tokens.
+     * A {@code -} or {@code +} directly followed by a digit is read as the sign of a number when it
+     * starts the expression or follows an operator other than {@code !}, a left bracket, a comma, a
+     * logical operator or a part of a conditional. A name directly followed by a left bracket is a
+     * function call, any other name is a variable.
+     *
+     * @param mathExp math expression, whitespaces between tokens are optional
+     * @return {@link TokenStream} - the tokens of the expression
+     * @throws UnbalancedBracketsException when the brackets of the expression do not pair up
+     * @throws InvalidExpressionException  when the expression contains an invalid character or number,
+     *                                     or an operand or operator is missing
+     */
+    public static TokenStream tokenize(CharSequence mathExp) {
+        return tokenize(mathExp, false);
+    }
+
+    /**
+     * Splits a postfix math expression into tokens.
+     * A {@code -} or {@code +} directly followed by a digit is always read as the sign of a number,
+     * as operators in postfix never come right before an operand they apply to.
+     *
+     * @param mathExp postfix math expression, whitespaces between tokens are optional
+     * @return {@link TokenStream} - the tokens of the expression
+     * @throws InvalidExpressionException when the expression contains an invalid character or number
+     */
+    public static TokenStream tokenizePostfix(CharSequence mathExp) {
+        return tokenize(mathExp, true);
+    }
+
+    /**
+     * Helper method to split a math expression into tokens, recording the time taken in the metrics
+     *
+     * @param mathExp math expression, whitespaces between tokens are optional
+     * @param postfix whether a sign directly followed by a digit always belongs to a number
+     * @return {@link TokenStream} - the tokens of the expression
+     * @throws InvalidExpressionException when the expression contains an invalid character or number
+     */
+    private static TokenStream tokenize(CharSequence mathExp, boolean postfix) {
+        Metrics metrics = Metrics.recording();
+        if (metrics == null) {
+            return scan(mathExp, postfix);
+        }
+        long start = System.nanoTime();
+        TokenStream tokens = scan(mathExp, postfix);
+        metrics.recordTokenization(System.nanoTime() - start);
+        return tokens;
+    }
+
+    /**
+     * Helper method to split a math expression into tokens, see {@link #tokenize(CharSequence)}
+     *
+     * @param mathExp math expression, whitespaces between tokens are optional
+     * @param postfix whether a sign directly followed by a digit always belongs to a number, and the
+     *                order of the tokens is left to the postfix compiler
+     * @return {@link TokenStream} - the tokens of the expression
+     * @throws InvalidExpressionException when the expression contains an invalid character or number,
+     *                                    or when an infix expression is not valid
+     */
+    private static TokenStream scan(CharSequence mathExp, boolean postfix) {
+        int length = mathExp.length();
+        TokenStream tokens = new TokenStream(mathExp, length / 2 + 1);
+        int i = 0;
+
+        // Open brackets, and the position of the outermost one
+        int depth = 0;
+        int outermost = -1;
+
+        while (i < length) {
+            char c = mathExp.charAt(i);
+
+            // Skip whitespaces
+            if (Character.isWhitespace(c)) {
+                i++;
+            }
+
+            // Numbers, including a leading sign where an operand is expected
+            else if (isDigitOrPoint(c) || ((c == '-' || c == '+') && (postfix || expectsOperand(tokens))
+                    && i + 1 < length && isDigitOrPoint(mathExp.charAt(i + 1)))) {
+                if (!postfix)
+                    checkOrder(mathExp, tokens, true, i, 1);
+                i = scanNumber(mathExp, i, tokens);
+            }
+
+            // Variable names, or function names when a left bracket follows
+            else if (isVariableStart(c)) {
+                int start = i;
+                while (i < length && isVariablePart(mathExp.charAt(i)))
+                    i++;
+                int next = i;
+                while (next < length && Character.isWhitespace(mathExp.charAt(next)))
+                    next++;
+                boolean call = next < length && mathExp.charAt(next) == '(';
+                if (!postfix)
+                    checkOrder(mathExp, tokens, true, start, i - start);
+                tokens.add(call ? TokenStream.FUNCTION : TokenStream.VARIABLE, 0, start, i - start);
+            }
+
+            // Brackets, paired by counting
+            else if (c == '(') {
+                if (!postfix) {
+                    checkOrder(mathExp, tokens, true, i, 1);
+                    if (depth++ == 0)
+                        outermost = i;
+                }
+                tokens.add(TokenStream.LEFT_BRACKET, 0, i++, 1);
+            } else if (c == ')') {
+                if (!postfix) {
+                    if (depth-- == 0)
+                        throw new UnbalancedBracketsException(i);
+                    checkOrder(mathExp, tokens, false, i, 1);
+                }
+                tokens.add(TokenStream.RIGHT_BRACKET, 0, i++, 1);
+            } else if (c == ',') {
+                if (!postfix)
+                    checkOrder(mathExp, tokens, false, i, 1);
+                tokens.add(TokenStream.COMMA, 0, i++, 1);
+            }
+
+            // Logical operators and conditionals
+            else if ((c == '&' || c == '|') && i + 1 < length && mathExp.charAt(i + 1) == c) {
+                if (!postfix)
+                    checkOrder(mathExp, tokens, false, i, 2);
+                tokens.add(c == '&' ? TokenStream.AND : TokenStream.OR, 0, i, 2);
+                i += 2;
+            } else if (c == '?' || c == ':') {
+                if (!postfix)
+                    checkOrder(mathExp, tokens, false, i, 1);
+                tokens.add(c == '?' ? TokenStream.CONDITION : TokenStream.ALTERNATIVE, 0, i++, 1);
+            }
+
+            // Operators
+            else {
+                Operator operator = operatorAt(mathExp, i);
+                if (operator == null) {
+                    throw new InvalidExpressionException("Invalid character '" + c + "' at position " + i
+                            + " in math expression: " + mathExp, i);
+                }
+                if (!postfix)
+                    checkOrder(mathExp, tokens, false, i, operator.getSymbol().length());
+                tokens.add(TokenStream.OPERATOR, operator.ordinal(), i, operator.getSymbol().length());
+                i += operator.getSymbol().length();
+            }
+        }
+
+        if (!postfix) {
+            if (depth > 0)
+                throw new UnbalancedBracketsException(outermost);
+            if (tokens.isEmpty())
+                throw new InvalidExpressionException("Invalid math expression: " + mathExp, 0);
+            if (expectsOperand(tokens))
+                throw new InvalidExpressionException("Missing operand at position " + length
+                        + " in math expression: " + mathExp, length);
+        }
+        return tokens;
+    }
+
+    /**
+     * Helper method to check that operands and operators alternate before a token is added
+     *
+     * @param mathExp  math expression
+     * @param tokens   tokens scanned so far
+     * @param operand  whether the token starts an operand (a number, a name or a left bracket),
+     *                 rather than following one
+     * @param position position of the token
+     * @param length   length of the token
+     * @throws InvalidExpressionException when an operand follows an operand, or an operator or closing
+     *                                    token comes where an operand is expected
+     */
+    private static void checkOrder(CharSequence mathExp, TokenStream tokens, boolean operand, int position,
+                                   int length) {
+        if (operand == expectsOperand(tokens))
+            return;
+        if (operand) {
+            throw new InvalidExpressionException("Missing operator at position " + position
+                    + " in math expression: " + mathExp, position);
+        }
+
+        int last = tokens.getSize() - 1;
+        if (last < 0)
+            throw new InvalidExpressionException("Invalid math expression: " + mathExp, position);
+        if (tokens.type(last) == TokenStream.OPERATOR) {
+            throw new InvalidExpressionException("Invalid operator combination in math expression: "
+                    + tokens.text(last) + " and " + mathExp.subSequence(position, position + length), position);
+        }
+        // A function can be called without arguments
+        if (mathExp.charAt(position) == ')' && tokens.type(last) == TokenStream.LEFT_BRACKET && last > 0
+                && tokens.type(last - 1) == TokenStream.FUNCTION)
+            return;
+        throw new InvalidExpressionException("Missing operand at position " + position
+                + " in math expression: " + mathExp, position);
+    }
+
+    /**
+     * Helper method to check if the input is a number, with an optional sign and decimal point
+     *
+     * @param str input value
+     * @return {@code true} if it's a number, else {@code false}
+     */
+    public static boolean isNumber(CharSequence str) {
+        int i = 0;
+        int length = str.length();
+        if (length > 0 && (str.charAt(0) == '-' || str.charAt(0) == '+'))
+            i++;
+
+        boolean digits = false;
+        boolean point = false;
+        for (; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return false;
+            }
+        }
+        return digits;
+    }
+
+    /**
+     * Helper method to check if the input is a variable name: a letter or underscore followed by
+     * letters, digits or underscores
+     *
+     * @param str input value
+     * @return {@code true} if it's a variable name, else {@code false}
+     */
+    public static boolean isVariable(CharSequence str) {
+        if (str.length() == 0 || !isVariableStart(str.charAt(0)))
+            return false;
+        for (int i = 1; i < str.length(); i++) {
+            if (!isVariablePart(str.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolves an operator character to its operator
+     *
+     * @param c operator character
+     * @return {@link Operator} - the operator (or {@code null} if the character is not an operator)
+     */
+    static Operator operatorOf(char c) {
+        switch (c) {
+            case '+':
+                return Operator.ADDITION;
+            case '-':
+                return Operator.SUBTRACTION;
+            case '*':
+                return Operator.MULTIPLICATION;
+            case '/':
+                return Operator.DIVISION;
+            case '%':
+                return Operator.MODULUS;
+            case '^':
+                return Operator.POWER;
+            case '!':
+                return Operator.FACTORIAL;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Resolves the operator starting at a position, preferring two-character comparisons such as
+     * {@code <=} over their first character
+     *
+     * @param mathExp math expression
+     * @param i       position of the first character of the operator
+     * @return {@link Operator} - the operator (or {@code null} if no operator starts there)
+     */
+    static Operator operatorAt(CharSequence mathExp, int i) {
+        char c = mathExp.charAt(i);
+        boolean equals = i + 1 < mathExp.length() && mathExp.charAt(i + 1) == '=';
+        switch (c) {
+            case '<':
+                return equals ? Operator.LESS_OR_EQUAL : Operator.LESS;
+            case '>':
+                return equals ? Operator.GREATER_OR_EQUAL : Operator.GREATER;
+            case '=':
+                return equals ? Operator.EQUAL : null;
+            case '!':
+                return equals ? Operator.NOT_EQUAL : Operator.FACTORIAL;
+            default:
+                return operatorOf(c);
+        }
+    }
+
+    /**
+     * Scans a number starting at the given position and appends it to the tokens.
+     * The number is validated while it is scanned, then converted in place by {@link DecimalText}.
+     *
+     * @param mathExp math expression
+     * @param start   position of the first character of the number, possibly a sign
+     * @param tokens  tokens to append the number to
+     * @return position of the first character after the number
+     * @throws IllegalArgumentException when the number has no digits or more than one decimal point
+     */
+    private static int scanNumber(CharSequence mathExp, int start, TokenStream tokens) {
+        int length = mathExp.length();
+        int i = start;
+        if (mathExp.charAt(i) == '-' || mathExp.charAt(i) == '+')
+            i++;
+
+        int digits = 0;
+        boolean point = false;
+        for (; i < length && isDigitOrPoint(mathExp.charAt(i)); i++) {
+            char c = mathExp.charAt(i);
+            if (c == '.') {
+                if (point) {
+                    throw new InvalidExpressionException("Invalid number at position " + start
+                            + " in math expression: " + mathExp, start);
+                }
+                point = true;
+            } else {
+                digits++;
+            }
+        }
+
+        if (digits == 0) {
+            throw new InvalidExpressionException("Invalid number at position " + start
+                    + " in math expression: " + mathExp, start);
+        }
+
+        tokens.add(TokenStream.NUMBER, DecimalText.parse(mathExp, start, i), start, i - start);
+        return i;
+    }
+
+    /**
+     * Checks whether the next token must be an operand, i.e. a sign belongs to a number
+     *
+     * @param tokens tokens scanned so far
+     * @return {@code true} at the start, after a function name, a left bracket, a comma, a logical
+     * operator or a part of a conditional, or after an operator other than {@code !}
+     */
+    private static boolean expectsOperand(TokenStream tokens) {
+        if (tokens.isEmpty())
+            return true;
+        int last = tokens.getSize() - 1;
+        byte type = tokens.type(last);
+        return type == TokenStream.FUNCTION || type == TokenStream.LEFT_BRACKET || type == TokenStream.COMMA
+                || type == TokenStream.AND || type == TokenStream.OR || type == TokenStream.CONDITION
+                || type == TokenStream.ALTERNATIVE
+                || (type == TokenStream.OPERATOR && tokens.operator(last) != Operator.FACTORIAL);
+    }
+
+    /**
+     * Helper method to check if the character can be part of a number
+     *
+     * @param c character to check
+     * @return {@code true} for a digit or a decimal point, else {@code false}
+     */
+    static boolean isDigitOrPoint(char c) {
+        return (c >= '0' && c <= '9') || c == '.';
+    }
+
+    /**
+     * Helper method to check if the character can start a variable name
+     *
+     * @param c character to check
+     * @return {@code true} for a letter or an underscore, else {@code false}
+     */
+    static boolean isVariableStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /**
+     * Helper method to check if the character can be part of a variable name
+     *
+     * @param c character to check
+     * @return {@code true} for a letter, a digit or an underscore, else {@code false}
+     */
+    static boolean isVariablePart(char c) {
+        return isVariableStart(c) || (c >= '0' && c <= '9');
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for an {@link EvaluationServer}.
+ * <p>
+ * Each connection is driven by its own thread, which keeps up to a pipeline depth of requests in
+ * flight: it sends requests until that many are unanswered, then reads one response before sending
+ * the next. The latency of every request, from the moment it is sent to the moment its response is
+ * read, is recorded in a {@link LatencyHistogram} shared by all connections.
+ */
+public final class LoadGenerator {
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int depth;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private long elapsed;
+
+    /**
+     * Parameterized constructor
+     *
+     * @param address     address of the server
+     * @param connections number of concurrent connections
+     * @param depth       number of requests each connection keeps in flight
+     * @throws IllegalArgumentException when the number of connections or the depth is not positive
+     */
+    public LoadGenerator(InetSocketAddress address, int connections, int depth) {
+        if (connections < 1 || depth < 1) {
+            throw new IllegalArgumentException("Connections and pipeline depth must be positive");
+        }
+        this.address = address;
+        this.connections = connections;
+        this.depth = depth;
+    }
+
+    /**
+     * Sends requests on every connection and waits until all of them are answered
+     *
+     * @param requests number of requests per connection
+     * @param lines    request lines, sent in turn
+     * @throws IOException when a connection fails
+     */
+    public void run(int requests, List<String> lines) throws IOException {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    drive(requests, lines);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "load-" + c);
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for responses", e);
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        if (!failures.isEmpty()) {
+            Throwable failure = failures.get(0);
+            throw failure instanceof UncheckedIOException ? ((UncheckedIOException) failure).getCause()
+                    : new IOException("Connection failed", failure);
+        }
+    }
+
+    /**
+     * Helper method to drive one connection
+     *
+     * @param requests number of requests to send
+     * @param lines    request lines, sent in turn
+     * @throws IOException when the connection fails or is closed early
+     */
+    private void drive(int requests, List<String> lines) throws IOException {
+        byte[][] encoded = new byte[lines.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = (lines.get(i) + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            // Send times of the requests in flight, by sequence number modulo the depth
+            long[] sent = new long[depth];
+            int sending = 0;
+            int received = 0;
+            while (received < requests) {
+                // Fill the pipeline, then read one response
+                if (sending < requests && sending - received < depth) {
+                    int window = Math.min(requests, received + depth) - sending;
+                    for (int i = 0; i < window; i++, sending++) {
+                        sent[sending % depth] = System.nanoTime();
+                        out.write(encoded[sending % encoded.length]);
+                    }
+                    out.flush();
+                }
+                String response = in.readLine();
+                if (response == null) {
+                    throw new IOException("Connection closed after " + received + " of " + requests + " responses");
+                }
+                latency.record(System.nanoTime() - sent[received % depth]);
+                if (!response.startsWith("OK "))
+                    errors.increment();
+                received++;
+            }
+        }
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return latencies of the answered requests
+     */
+    public LatencyHistogram getLatency() { return latency; }
+
+    /**
+     * Accessor method
+     *
+     * @return number of requests answered with an error
+     */
+    public long getErrorCount() { return errors.sum(); }
+
+    /**
+     * Returns the throughput of the last run
+     *
+     * @return {@code double} - requests answered per second
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : latency.getCount() * 1e9 / elapsed;
+    }
+
+    /**
+     * Method to print the results in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("%d requests on %d connections, pipeline depth %d: %.0f requests/s, %d errors%n"
+                        + "latency p50 %d us, p99 %d us, p99.9 %d us, max %d us",
+                latency.getCount(), connections, depth, getThroughput(), getErrorCount(),
+                latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000,
+                latency.getValueAtPercentile(99.9) / 1000, latency.getMax() / 1000);
+    }
+
+    /**
+     * Runs a load test and prints the results
+     *
+     * @param args host, port, connections, requests per connection, pipeline depth, then the request
+     *             lines to send in turn (by default a few expressions with and without variables)
+     * @throws IOException when a connection fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.err.println("Usage: java LoadGenerator <host> <port> <connections> <requests> <depth> [request...]");
+            System.exit(1);
+        }
+        List<String> lines = args.length > 5 ? List.of(args).subList(5, args.length)
+                : List.of("( 1 + 2 ) * 3 - 4 / 5", "( x + 1 ) * y ; 2 3", "max(a, b) ^ 2 ; 1.5 -4");
+        LoadGenerator generator = new LoadGenerator(new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+                Integer.parseInt(args[2]), Integer.parseInt(args[4]));
+        generator.run(Integer.parseInt(args[3]), lines);
+        System.out.println(generator);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Function that can be called by name in math expressions, such as {@code max(a, b, c)}.
+ * Functions are registered with the {@link FunctionRegistry} and resolved when an expression is
+ * compiled, so evaluating a call never looks the function up again. Functions use double arithmetic.
+ */
+public final class MathFunction {
+    /**
+     * Largest number of arguments of a call, used as the maximum arity of variadic functions
+     */
+    public static final int MAX_ARGUMENTS = 255;
+
+    /**
+     * Name of the built-in conditional {@code if(c, a, b)}, which is not a function as it evaluates
+     * only one of its branches
+     */
+    public static final String CONDITIONAL = "if";
+
+    /**
+     * Calculation of a function over its arguments
+     */
+    @FunctionalInterface
+    public interface Body {
+        /**
+         * Calculates the function. The arguments are read in place from the operand stack, so the
+         * array must neither be modified nor kept.
+         *
+         * @param args  array holding the arguments
+         * @param from  index of the first argument
+         * @param count number of arguments, within the arity of the function
+         * @return calculated output
+         * @throws ArithmeticException when the function is not defined for its arguments
+         */
+        double apply(double[] args, int from, int count);
+    }
+
+    private final String name;
+    private final int minArity;
+    private final int maxArity;
+    private final Body body;
+
+    /**
+     * Constructor to initialize a function
+     *
+     * @param name     name the function is called by
+     * @param minArity smallest number of arguments
+     * @param maxArity largest number of arguments
+     * @param body     calculation of the function
+     * @throws IllegalArgumentException when the name is not a valid name, is {@link #CONDITIONAL} or the
+     *                                  arity is invalid
+     */
+    public MathFunction(String name, int minArity, int maxArity, Body body) {
+        if (name == null || !Lexer.isVariable(name)) {
+            throw new IllegalArgumentException("Invalid function name: " + name);
+        }
+        if (name.equals(CONDITIONAL)) {
+            throw new IllegalArgumentException("Function name " + name + " is reserved for conditionals");
+        }
+        if (minArity < 0 || maxArity < minArity || maxArity > MAX_ARGUMENTS) {
+            throw new IllegalArgumentException("Invalid arity " + minArity + " to " + maxArity + " of function " + name);
+        }
+        this.name = name;
+        this.minArity = minArity;
+        this.maxArity = maxArity;
+        this.body = body;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return name the function is called by
+     */
+    public String getName() { return name; }
+
+    /**
+     * Accessor method
+     *
+     * @return smallest number of arguments
+     */
+    public int getMinArity() { return minArity; }
+
+    /**
+     * Accessor method
+     *
+     * @return largest number of arguments
+     */
+    public int getMaxArity() { return maxArity; }
+
+    /**
+     * Checks if the function accepts a number of arguments
+     *
+     * @param count number of arguments of a call
+     * @return {@code boolean} - {@code true} if within the arity, else {@code false}
+     */
+    public boolean accepts(int count) {
+        return count >= minArity && count <= maxArity;
+    }
+
+    /**
+     * Calculates the function over arguments held in an array
+     *
+     * @param args  array holding the arguments
+     * @param from  index of the first argument
+     * @param count number of arguments
+     * @return {@code double} - calculated output
+     * @throws ArithmeticException when the function is not defined for its arguments
+     */
+    public double apply(double[] args, int from, int count) {
+        return body.apply(args, from, count);
+    }
+
+    /**
+     * Method to print the function in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return minArity == maxArity ? name + "/" + minArity : name + "/" + minArity + ".." + maxArity;
+    }
+}
@@ -0,0 +1,309 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in metrics of the calculator: latency histograms of tokenization, shunting-yard conversion
+ * and evaluation, the number of times each operator was applied, cache hits and misses, and failed
+ * evaluations by error code.
+ * <p>
+ * Metrics are disabled by default and enabled with {@link #setEnabled(boolean)}, over JMX, or with
+ * the {@code rpn.metrics} system property. Instrumented code asks {@link #recording()} first, so
+ * when disabled the only cost is reading one static field. Every counter and histogram is lock-free.
+ * Conversion latencies include the tokenization of the expression.
+ */
+public final class Metrics implements MetricsMXBean {
+    /**
+     * Name under which the metrics are registered with JMX
+     */
+    public static final String OBJECT_NAME = "rpncalculator:type=Metrics";
+
+    private static final Metrics INSTANCE = new Metrics();
+    private static volatile Metrics recording = Boolean.getBoolean("rpn.metrics") ? INSTANCE : null;
+    private static ScheduledExecutorService reporters;
+
+    private final LatencyHistogram tokenization = new LatencyHistogram();
+    private final LatencyHistogram conversion = new LatencyHistogram();
+    private final LatencyHistogram evaluation = new LatencyHistogram();
+    private final LongAdder[] operators = adders(Operator.values().length);
+    private final LongAdder[] errors = adders(EvaluationResult.ErrorCode.values().length);
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /**
+     * Private constructor, the metrics are shared by the whole calculator
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Returns the metrics of the calculator, whether or not they are enabled
+     *
+     * @return {@link Metrics} - the metrics
+     */
+    public static Metrics get() { return INSTANCE; }
+
+    /**
+     * Returns the metrics to record to, if enabled. This is the check instrumented code does first.
+     *
+     * @return {@link Metrics} - the metrics (or {@code null} if disabled)
+     */
+    static Metrics recording() { return recording; }
+
+    /**
+     * Accessor method
+     *
+     * @return whether metrics are recorded
+     */
+    @Override
+    public boolean isEnabled() { return recording != null; }
+
+    /**
+     * Mutator method
+     *
+     * @param enabled whether metrics are recorded
+     */
+    @Override
+    public void setEnabled(boolean enabled) { recording = enabled ? this : null; }
+
+    /**
+     * Registers the metrics with the platform MBean server under {@link #OBJECT_NAME}, unless
+     * already registered.
+     *
+     * @throws IllegalStateException when the registration fails
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics MBean", e);
+        }
+    }
+
+    /**
+     * Reports the metrics periodically on a shared daemon thread.
+     *
+     * @param reporter receives the metrics
+     * @param period   time between two reports
+     * @param unit     unit of the period
+     * @return {@link ScheduledFuture} - cancel it to stop reporting
+     */
+    public static synchronized ScheduledFuture<?> startReporting(MetricsReporter reporter, long period, TimeUnit unit) {
+        if (reporters == null) {
+            reporters = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "rpn-metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return reporters.scheduleAtFixedRate(() -> reporter.report(INSTANCE), period, period, unit);
+    }
+
+    /**
+     * Records the time taken to tokenize an expression
+     *
+     * @param nanos elapsed time in nanoseconds
+     */
+    void recordTokenization(long nanos) { tokenization.record(nanos); }
+
+    /**
+     * Records the time taken to convert an expression to postfix
+     *
+     * @param nanos elapsed time in nanoseconds
+     */
+    void recordConversion(long nanos) { conversion.record(nanos); }
+
+    /**
+     * Records an evaluation of a compiled expression
+     *
+     * @param nanos          elapsed time in nanoseconds
+     * @param operatorCounts number of tokens of each operator in the expression, by ordinal
+     */
+    void recordEvaluation(long nanos, int[] operatorCounts) {
+        evaluation.record(nanos);
+        for (int i = 0; i < operatorCounts.length; i++) {
+            if (operatorCounts[i] != 0)
+                operators[i].add(operatorCounts[i]);
+        }
+    }
+
+    /**
+     * Records a lookup of the expression cache
+     *
+     * @param hit whether a compiled expression was found
+     */
+    void recordCacheLookup(boolean hit) { (hit ? cacheHits : cacheMisses).increment(); }
+
+    /**
+     * Records a failed evaluation
+     *
+     * @param errorCode error code of the evaluation
+     */
+    void recordError(EvaluationResult.ErrorCode errorCode) { errors[errorCode.ordinal()].increment(); }
+
+    /**
+     * Accessor method
+     *
+     * @return latencies of tokenization
+     */
+    public LatencyHistogram getTokenizationLatency() { return tokenization; }
+
+    /**
+     * Accessor method
+     *
+     * @return latencies of conversion to postfix, tokenization included
+     */
+    public LatencyHistogram getConversionLatency() { return conversion; }
+
+    /**
+     * Accessor method
+     *
+     * @return latencies of evaluation of compiled expressions
+     */
+    public LatencyHistogram getEvaluationLatency() { return evaluation; }
+
+    /**
+     * Returns the number of times an operator was applied
+     *
+     * @param operator operator to look up
+     * @return {@code long} - number of applications
+     */
+    public long getOperatorCount(Operator operator) { return operators[operator.ordinal()].sum(); }
+
+    /**
+     * Returns the number of failed evaluations with an error code
+     *
+     * @param errorCode error code to look up
+     * @return {@code long} - number of failures
+     */
+    public long getErrorCount(EvaluationResult.ErrorCode errorCode) { return errors[errorCode.ordinal()].sum(); }
+
+    /**
+     * Accessor method
+     *
+     * @return number of cache lookups that found a compiled expression
+     */
+    @Override
+    public long getCacheHits() { return cacheHits.sum(); }
+
+    /**
+     * Accessor method
+     *
+     * @return number of cache lookups that did not find a compiled expression
+     */
+    @Override
+    public long getCacheMisses() { return cacheMisses.sum(); }
+
+    /**
+     * Returns the number of times each operator was applied
+     *
+     * @return count of each operator, keyed by operator name
+     */
+    @Override
+    public Map<String, Long> getOperatorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Operator operator : Operator.values()) {
+            counts.put(operator.name(), getOperatorCount(operator));
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of failed evaluations of each error code
+     *
+     * @return count of each error code, keyed by error code name
+     */
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (EvaluationResult.ErrorCode errorCode : EvaluationResult.ErrorCode.values()) {
+            if (errorCode != EvaluationResult.ErrorCode.NONE)
+                counts.put(errorCode.name(), getErrorCount(errorCode));
+        }
+        return counts;
+    }
+
+    /**
+     * Returns count, mean, median, 99th percentile and maximum of every latency histogram
+     *
+     * @return summary values in nanoseconds, keyed by histogram and statistic, e.g. {@code evaluation.p99}
+     */
+    @Override
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        summarize(latencies, "tokenization", tokenization);
+        summarize(latencies, "conversion", conversion);
+        summarize(latencies, "evaluation", evaluation);
+        return latencies;
+    }
+
+    /**
+     * Clears every counter and histogram
+     */
+    @Override
+    public void reset() {
+        tokenization.reset();
+        conversion.reset();
+        evaluation.reset();
+        for (LongAdder adder : operators) adder.reset();
+        for (LongAdder adder : errors) adder.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    /**
+     * Helper method to add the summary of a histogram
+     *
+     * @param latencies summary values being collected
+     * @param name      name of the histogram
+     * @param histogram histogram to summarize
+     */
+    private static void summarize(Map<String, Long> latencies, String name, LatencyHistogram histogram) {
+        latencies.put(name + ".count", histogram.getCount());
+        latencies.put(name + ".mean", Math.round(histogram.getMean()));
+        latencies.put(name + ".p50", histogram.getValueAtPercentile(50));
+        latencies.put(name + ".p99", histogram.getValueAtPercentile(99));
+        latencies.put(name + ".max", histogram.getMax());
+    }
+
+    /**
+     * Helper method to create counters
+     *
+     * @param count number of counters
+     * @return the counters
+     */
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Method to print the metrics in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return "Tokenization: " + tokenization +
+                "\nConversion: " + conversion +
+                "\nEvaluation: " + evaluation +
+                "\nOperators: " + getOperatorCounts() +
+                "\nCache: " + getCacheHits() + " hits, " + getCacheMisses() + " misses" +
+                "\nErrors: " + getErrorCounts() + "\n";
+    }
+}
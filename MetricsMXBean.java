@@ -0,0 +1,61 @@
+import java.util.Map;
+
+/**
+ * Management interface of the calculator {@link Metrics}, registered with JMX by
+ * {@link Metrics#registerMBean()}.
+ */
+public interface MetricsMXBean {
+    /**
+     * Accessor method
+     *
+     * @return whether metrics are recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * Mutator method
+     *
+     * @param enabled whether metrics are recorded
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Accessor method
+     *
+     * @return number of cache lookups that found a compiled expression
+     */
+    long getCacheHits();
+
+    /**
+     * Accessor method
+     *
+     * @return number of cache lookups that did not find a compiled expression
+     */
+    long getCacheMisses();
+
+    /**
+     * Returns the number of times each operator was applied
+     *
+     * @return count of each operator, keyed by operator name
+     */
+    Map<String, Long> getOperatorCounts();
+
+    /**
+     * Returns the number of failed evaluations of each error code
+     *
+     * @return count of each error code, keyed by error code name
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * Returns count, mean, median, 99th percentile and maximum of every latency histogram
+     *
+     * @return summary values in nanoseconds, keyed by histogram and statistic, e.g. {@code evaluation.p99}
+     */
+    Map<String, Long> getLatencies();
+
+    /**
+     * Clears every counter and histogram
+     */
+    void reset();
+}
@@ -0,0 +1,13 @@
+/**
+ * Receives the calculator {@link Metrics} periodically, see {@link Metrics#startReporting}.
+ * Implementations can log them, or push them to a monitoring system.
+ */
+@FunctionalInterface
+public interface MetricsReporter {
+    /**
+     * Reports the current metrics
+     *
+     * @param metrics metrics recorded so far
+     */
+    void report(Metrics metrics);
+}
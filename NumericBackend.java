@@ -0,0 +1,79 @@
+import java.math.MathContext;
+
+/**
+ * Arithmetic used to evaluate a compiled expression:
+ * <ul>
+ *     <li>DOUBLE - primitive double arithmetic, the fastest and the default.</li>
+ *     <li>DECIMAL - BigDecimal arithmetic with a caller-chosen MathContext. Literals keep their exact
+ *     decimal value, and {@link MathContext#UNLIMITED} gives exact results end to end.</li>
+ *     <li>LONG - long integer arithmetic that throws on overflow or on any result that is not an integer.</li>
+ * </ul>
+ * The backend is chosen when an expression is compiled, see {@link CompiledExpression#compile(String, ShuntingYard, NumericBackend)}.
+ */
+public final class NumericBackend {
+    /**
+     * Kinds of arithmetic available
+     */
+    public enum Kind { DOUBLE, DECIMAL, LONG }
+
+    /**
+     * Primitive double arithmetic
+     */
+    public static final NumericBackend DOUBLE = new NumericBackend(Kind.DOUBLE, null);
+
+    /**
+     * Exact long integer arithmetic with overflow detection
+     */
+    public static final NumericBackend LONG = new NumericBackend(Kind.LONG, null);
+
+    private final Kind kind;
+    private final MathContext mathContext;
+
+    /**
+     * Private constructor used by the constants and {@link #decimal(MathContext)}
+     *
+     * @param kind        kind of arithmetic
+     * @param mathContext precision of decimal arithmetic, {@code null} for the other kinds
+     */
+    private NumericBackend(Kind kind, MathContext mathContext) {
+        this.kind = kind;
+        this.mathContext = mathContext;
+    }
+
+    /**
+     * Creates a BigDecimal backend.
+     *
+     * @param mathContext precision and rounding mode of every operation
+     * @return {@link NumericBackend} - the backend
+     */
+    public static NumericBackend decimal(MathContext mathContext) {
+        if (mathContext == null) {
+            throw new IllegalArgumentException("MathContext of a decimal backend must not be null");
+        }
+        return new NumericBackend(Kind.DECIMAL, mathContext);
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return kind of arithmetic
+     */
+    public Kind getKind() { return kind; }
+
+    /**
+     * Accessor method
+     *
+     * @return precision of decimal arithmetic (or {@code null} for the other kinds)
+     */
+    public MathContext getMathContext() { return mathContext; }
+
+    /**
+     * Method to print the backend in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return kind == Kind.DECIMAL ? kind + "(" + mathContext + ")" : kind.toString();
+    }
+}
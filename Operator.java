@@ -3,7 +3,6 @@
  */
 
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.HashMap;
@@ -20,6 +19,12 @@ interface Operators {
     MathContext mc = new MathContext(6, RoundingMode.HALF_EVEN);
 
     BigDecimal calculate(BigDecimal a, BigDecimal b);
+
+    BigDecimal calculate(BigDecimal a, BigDecimal b, MathContext context);
+
+    double calculate(double a, double b);
+
+    long calculate(long a, long b);
 }
 
 /**
@@ -34,6 +39,8 @@ interface Operators {
  *     <li>Factorial (!) - accepts 1 input, the other input can be a constant but
  *     it MUST NOT be used. Calculation to be done using BigInteger but calculated result
  *     is to be returned as a BigDecimal.</li>
+ *     <li>Comparisons (&lt;, &lt;=, &gt;, &gt;=, ==, !=) - accept 2 inputs and return 1 if the
+ *     comparison holds, else 0.</li>
  * </ul>
  */
 public enum Operator implements Operators {
@@ -43,44 +50,135 @@ public enum Operator implements Operators {
     /**
      * Addition operation with precedence of 1
      */
-    ADDITION("+", 1),
+    ADDITION("+", 1, 2, Associativity.LEFT),
     /**
      * Subtraction operation with precedence of 1
      */
-    SUBTRACTION("-", 1),
+    SUBTRACTION("-", 1, 2, Associativity.LEFT),
     /**
      * Multiplication operation with precedence of 2
      */
-    MULTIPLICATION("*", 2),
+    MULTIPLICATION("*", 2, 2, Associativity.LEFT),
     /**
      * Division operation with precedence of 2
      */
-    DIVISION("/", 2),
+    DIVISION("/", 2, 2, Associativity.LEFT),
     /**
      * Modulus operation with precedence of 2
      */
-    MODULUS("%", 2),
+    MODULUS("%", 2, 2, Associativity.LEFT),
     /**
      * Power operation with precedence of 3
      */
-    POWER("^", 3),
+    POWER("^", 3, 2, Associativity.LEFT),
+    /**
+     * Factorial operation with precedence of 4, applied to the operand before it
+     */
+    FACTORIAL("!", 4, 1, Associativity.LEFT),
+    /**
+     * Less than comparison with precedence of 0
+     */
+    LESS("<", 0, 2, Associativity.LEFT),
+    /**
+     * Less than or equal comparison with precedence of 0
+     */
+    LESS_OR_EQUAL("<=", 0, 2, Associativity.LEFT),
+    /**
+     * Greater than comparison with precedence of 0
+     */
+    GREATER(">", 0, 2, Associativity.LEFT),
+    /**
+     * Greater than or equal comparison with precedence of 0
+     */
+    GREATER_OR_EQUAL(">=", 0, 2, Associativity.LEFT),
+    /**
+     * Equality comparison with precedence of 0
+     */
+    EQUAL("==", 0, 2, Associativity.LEFT),
+    /**
+     * Inequality comparison with precedence of 0
+     */
+    NOT_EQUAL("!=", 0, 2, Associativity.LEFT);
+
+    /**
+     * Order in which operators of the same precedence are applied:
+     * <ul>
+     *     <li>LEFT - {@code a - b - c} is {@code (a - b) - c}.</li>
+     *     <li>RIGHT - {@code a ^ b ^ c} would be {@code a ^ (b ^ c)}.</li>
+     * </ul>
+     */
+    public enum Associativity { LEFT, RIGHT }
+
+    /**
+     * Operator of each symbol, built once so that lookups take constant time
+     */
+    private static final Map<String, Operator> SYMBOLS = new HashMap<>();
+
     /**
-     * Factorial operation with precedence of 4
+     * Largest magnitude of the integer part of an exponent that {@link BigDecimal#pow} accepts
      */
-    FACTORIAL("!", 4);
+    private static final BigDecimal MAX_DECIMAL_EXPONENT = BigDecimal.valueOf(999_999_999);
+
+    static {
+        for (Operator operator : values()) {
+            SYMBOLS.put(operator.symbol, operator);
+        }
+    }
 
     private final int precedence;
     private final String symbol;
+    private final int arity;
+    private final Associativity associativity;
 
 
     /**
      * A private constructor used by the enum to initialize each enum constant with its symbol and precedence.
      * @param sym symbol of the enum
      * @param precedence precedence or weightage of each operator
+     * @param arity number of operands
+     * @param associativity order in which operators of the same precedence are applied
      */
-    Operator(String sym, int precedence) {
+    Operator(String sym, int precedence, int arity, Associativity associativity) {
         this.symbol = sym;
         this.precedence = precedence;
+        this.arity = arity;
+        this.associativity = associativity;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return symbol of the operator
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return precedence of the operator, higher precedence is applied first
+     */
+    public int getPrecedence() {
+        return precedence;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of operands of the operator
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return order in which operators of the same precedence are applied
+     */
+    public Associativity getAssociativity() {
+        return associativity;
     }
 
     /**
@@ -92,12 +190,7 @@ public enum Operator implements Operators {
     public static boolean lookupSymbol(String sym) {
         // YOUR CODE HERE
 
-        // Iterate through enum and return true if found
-        for (Operator operator : Operator.values()) {
-            if (operator.symbol.equals(sym))
-                return true;
-        }
-        return false;
+        return SYMBOLS.containsKey(sym);
     }
 
     /**
@@ -109,12 +202,7 @@ public enum Operator implements Operators {
     public static Operator getValueOfSymbol(String sym) {
         // YOUR CODE HERE
 
-        // Iterate through enum and return operator if found
-        for (Operator operator : Operator.values()) {
-            if (operator.symbol.equals(sym))
-                return operator;
-        }
-        return null;
+        return SYMBOLS.get(sym);
     }
 
     /**
@@ -139,35 +227,74 @@ public enum Operator implements Operators {
      */
     @Override
     public BigDecimal calculate(BigDecimal a, BigDecimal b) {
+        return calculate(a, b, mc);
+    }
+
+    /**
+     * Method to calculate based on selected operator with a caller-chosen precision.
+     * With {@link MathContext#UNLIMITED} every operation is exact, and an operation whose
+     * result cannot be represented exactly, such as {@code 1 / 3}, throws an ArithmeticException.
+     * The fractional part of an exponent is applied in double precision, so only powers with an
+     * integer exponent are exact.
+     * @param a       BigDecimal value of first variable
+     * @param b       BigDecimal value of second variable, ignored for factorial
+     * @param context precision and rounding mode of the calculation
+     * @return calculated output as BigDecimal
+     */
+    @Override
+    public BigDecimal calculate(BigDecimal a, BigDecimal b, MathContext context) {
         switch (this) {
             case ADDITION:
-                return a.add(b, mc);
+                return a.add(b, context);
             case SUBTRACTION:
-                return a.subtract(b, mc);
+                return a.subtract(b, context);
             case MULTIPLICATION:
-                return a.multiply(b, mc);
+                return a.multiply(b, context);
             case DIVISION:
                 if (b.compareTo(BigDecimal.ZERO) == 0) {
                     throw new ArithmeticException("Division by zero");
                 }
-                return a.divide(b, mc);
+                return a.divide(b, context);
             case MODULUS:
                 if (b.compareTo(BigDecimal.ZERO) == 0) {
                     throw new ArithmeticException("Modulus by zero");
                 }
-                return a.remainder(b, mc);
+                return a.remainder(b, context);
             case POWER: {
 
-                // Calculate integer part of the power
-                BigDecimal result = a.pow(b.intValue(), mc);
+                // Calculate integer part of the power, within the exponents BigDecimal supports
+                BigDecimal whole = b.setScale(0, RoundingMode.DOWN);
+                if (whole.abs().compareTo(MAX_DECIMAL_EXPONENT) > 0) {
+                    throw new ArithmeticException("Exponent is too large: " + b.toPlainString());
+                }
+                int exponent = whole.intValue();
+                if (exponent < 0 && a.signum() == 0) {
+                    throw new ArithmeticException("Division by zero");
+                }
+                // Without a precision a negative power is the reciprocal, exact or not at all
+                BigDecimal result = exponent < 0 && context.getPrecision() == 0
+                        ? BigDecimal.ONE.divide(a.pow(-exponent), context) : a.pow(exponent, context);
+
+                // Integer powers are done, there is no fractional part to compute
+                BigDecimal fraction = b.remainder(BigDecimal.ONE);
+                if (fraction.signum() == 0) {
+                    return result;
+                }
 
                 // Compute the fractional part separately
                 // Math.pow function used for remainder as bigDecimal power function can only accept integers
                 // Assuming 'complex numbers' will not be used per question description, this line is unlikely to make any difference to the output.
-                BigDecimal fractionalPart = BigDecimal.valueOf(Math.pow(a.doubleValue(), b.remainder(BigDecimal.ONE).doubleValue()));
+                double fractional = Math.pow(a.doubleValue(), fraction.doubleValue());
+                if (Double.isNaN(fractional)) {
+                    throw new ArithmeticException("Fractional power of a negative number");
+                }
+                if (Double.isInfinite(fractional)) {
+                    throw new ArithmeticException("Fractional power is out of range");
+                }
+                BigDecimal fractionalPart = BigDecimal.valueOf(fractional);
 
                 // Compute the final result by multiplying the integer part with the fractional part
-                result = result.multiply(fractionalPart);
+                result = result.multiply(fractionalPart, context);
 
                 return result;
             }
@@ -175,23 +302,149 @@ public enum Operator implements Operators {
                 if (a.compareTo(BigDecimal.ZERO) < 0) {
                     throw new ArithmeticException("Factorial of negative number");
                 }
-                return factorial(a.toBigInteger());
+                if (a.signum() != 0 && a.stripTrailingZeros().scale() > 0) {
+                    throw new ArithmeticException("Factorial operand must be a non-negative integer");
+                }
+                if (a.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0) {
+                    throw new ArithmeticException("Factorial operand is too large");
+                }
+                return new BigDecimal(Factorials.exact(a.intValue()), context);
+            case LESS:
+                return a.compareTo(b) < 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case LESS_OR_EQUAL:
+                return a.compareTo(b) <= 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case GREATER:
+                return a.compareTo(b) > 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case GREATER_OR_EQUAL:
+                return a.compareTo(b) >= 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case EQUAL:
+                return a.compareTo(b) == 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+            case NOT_EQUAL:
+                return a.compareTo(b) != 0 ? BigDecimal.ONE : BigDecimal.ZERO;
             default:
                 throw new UnsupportedOperationException("Unsupported operator: " + this);
         }
     }
 
     /**
-     * A helper method to calculate factorial
-     *
-     * @param i input number
-     * @return calculated factorial value in BigDecimal format
-     */
-    private BigDecimal factorial(BigInteger i) {
-        if (i.equals(BigInteger.ZERO)) {
-            return BigDecimal.ONE;
-        } else {
-            return new BigDecimal(i).multiply(factorial(i.subtract(BigInteger.ONE)), mc);
+     * Method to calculate based on selected operator using primitive double arithmetic.
+     * Unlike {@link #calculate(BigDecimal, BigDecimal)}, no intermediate objects are created.
+     * @param a value of first variable
+     * @param b value of second variable, ignored for factorial
+     * @return calculated output
+     */
+    @Override
+    public double calculate(double a, double b) {
+        switch (this) {
+            case ADDITION:
+                return a + b;
+            case SUBTRACTION:
+                return a - b;
+            case MULTIPLICATION:
+                return a * b;
+            case DIVISION:
+                if (b == 0) {
+                    throw new ArithmeticException("Division by zero");
+                }
+                return a / b;
+            case MODULUS:
+                if (b == 0) {
+                    throw new ArithmeticException("Modulus by zero");
+                }
+                return a % b;
+            case POWER:
+                return Math.pow(a, b);
+            case FACTORIAL:
+                if (a < 0 || a != (int) a) {
+                    throw new ArithmeticException("Factorial operand must be a non-negative integer");
+                }
+                return Factorials.asDouble((int) a);
+            case LESS:
+                return a < b ? 1 : 0;
+            case LESS_OR_EQUAL:
+                return a <= b ? 1 : 0;
+            case GREATER:
+                return a > b ? 1 : 0;
+            case GREATER_OR_EQUAL:
+                return a >= b ? 1 : 0;
+            case EQUAL:
+                return a == b ? 1 : 0;
+            case NOT_EQUAL:
+                return a != b ? 1 : 0;
+            default:
+                throw new UnsupportedOperationException("Unsupported operator: " + this);
+        }
+    }
+
+    /**
+     * Method to calculate based on selected operator using long integer arithmetic.
+     * Every operation is exact: a result that overflows a long, a division with a remainder,
+     * or a negative exponent throws an ArithmeticException instead of losing precision.
+     * @param a value of first variable
+     * @param b value of second variable, ignored for factorial
+     * @return calculated output
+     */
+    @Override
+    public long calculate(long a, long b) {
+        switch (this) {
+            case ADDITION:
+                return Math.addExact(a, b);
+            case SUBTRACTION:
+                return Math.subtractExact(a, b);
+            case MULTIPLICATION:
+                return Math.multiplyExact(a, b);
+            case DIVISION:
+                if (b == 0) {
+                    throw new ArithmeticException("Division by zero");
+                }
+                if (a % b != 0) {
+                    throw new ArithmeticException("Division result is not an integer");
+                }
+                if (a == Long.MIN_VALUE && b == -1) {
+                    throw new ArithmeticException("long overflow");
+                }
+                return a / b;
+            case MODULUS:
+                if (b == 0) {
+                    throw new ArithmeticException("Modulus by zero");
+                }
+                return a % b;
+            case POWER: {
+                if (b < 0) {
+                    throw new ArithmeticException("Negative exponent in integer arithmetic");
+                }
+
+                // Exponentiation by squaring
+                long result = 1;
+                long base = a;
+                while (b > 0) {
+                    if ((b & 1) == 1)
+                        result = Math.multiplyExact(result, base);
+                    b >>= 1;
+                    if (b > 0)
+                        base = Math.multiplyExact(base, base);
+                }
+                return result;
+            }
+            case FACTORIAL:
+                if (a < 0) {
+                    throw new ArithmeticException("Factorial operand must be a non-negative integer");
+                }
+                return Factorials.asLong(a);
+            case LESS:
+                return a < b ? 1 : 0;
+            case LESS_OR_EQUAL:
+                return a <= b ? 1 : 0;
+            case GREATER:
+                return a > b ? 1 : 0;
+            case GREATER_OR_EQUAL:
+                return a >= b ? 1 : 0;
+            case EQUAL:
+                return a == b ? 1 : 0;
+            case NOT_EQUAL:
+                return a != b ? 1 : 0;
+            default:
+                throw new UnsupportedOperationException("Unsupported operator: " + this);
         }
     }
 }
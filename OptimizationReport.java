@@ -0,0 +1,76 @@
+/**
+ * Outcome of an {@link ExpressionOptimizer} pass: the optimized program and how many rewrites of
+ * each kind were applied to it.
+ */
+public final class OptimizationReport {
+    private final CompiledExpression original;
+    private final CompiledExpression optimized;
+    private final int folded;
+    private final int identities;
+    private final int strengthReductions;
+
+    /**
+     * Constructor to initialize report
+     *
+     * @param original           program before the pass
+     * @param optimized          program after the pass
+     * @param folded             number of operations calculated at compile time
+     * @param identities         number of operations removed by an algebraic identity
+     * @param strengthReductions number of powers replaced by multiplications
+     */
+    OptimizationReport(CompiledExpression original, CompiledExpression optimized, int folded, int identities,
+                       int strengthReductions) {
+        this.original = original;
+        this.optimized = optimized;
+        this.folded = folded;
+        this.identities = identities;
+        this.strengthReductions = strengthReductions;
+    }
+
+    /**
+     * Accessor method
+     * @return program before the pass
+     */
+    public CompiledExpression getOriginal() { return original; }
+
+    /**
+     * Accessor method
+     * @return program after the pass
+     */
+    public CompiledExpression getOptimized() { return optimized; }
+
+    /**
+     * Accessor method
+     * @return number of operations calculated at compile time
+     */
+    public int getFolded() { return folded; }
+
+    /**
+     * Accessor method
+     * @return number of operations removed by an algebraic identity
+     */
+    public int getIdentities() { return identities; }
+
+    /**
+     * Accessor method
+     * @return number of powers replaced by multiplications
+     */
+    public int getStrengthReductions() { return strengthReductions; }
+
+    /**
+     * Returns the number of postfix tokens removed by the pass. Strength reduction adds tokens, as a
+     * power call becomes several cheaper multiplications, so the count can be negative.
+     * @return {@code int} - number of tokens eliminated
+     */
+    public int getEliminated() { return original.size() - optimized.size(); }
+
+    /**
+     * Method to print the report in desired format
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        return String.format("Optimized %s: %d -> %d tokens, %d folded, %d identities, %d strength reductions\n",
+                original.getExpression(), original.size(), optimized.size(), folded, identities, strengthReductions);
+    }
+}
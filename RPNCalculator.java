@@ -2,126 +2,311 @@ import java.math.BigDecimal;
 
 /**
  * Reverse polish notation calculator implementation.
+ * The calculator keeps no per-evaluation state, so one instance can be shared by many threads.
  */
 
 public class RPNCalculator {
+    /**
+     * Cache shared by every calculator created with the default constructor
+     */
+    private static final ExpressionCache SHARED_CACHE = new ExpressionCache();
+
     private final ShuntingYard sy;
-    private String postfixStr;
+    private final ExpressionCache cache;
+    private final NumericBackend backend;
+    private final boolean optimizing;
+    private final EvaluationBudget budget;
 
     /**
      * Default constructor
      */
     public RPNCalculator() {
-        this.postfixStr = null;
+        this(SHARED_CACHE);
+    }
+
+    /**
+     * Constructor to initialize the calculator with its own expression cache
+     *
+     * @param cache cache holding the compiled form of evaluated expressions
+     */
+    public RPNCalculator(ExpressionCache cache) {
+        this(cache, NumericBackend.DOUBLE);
+    }
+
+    /**
+     * Constructor to initialize the calculator with another arithmetic and a cache of its own
+     *
+     * @param backend arithmetic used to evaluate expressions
+     */
+    public RPNCalculator(NumericBackend backend) {
+        this(new ExpressionCache(), backend);
+    }
+
+    /**
+     * Constructor to initialize the calculator with another arithmetic.
+     * The cache must only be shared with calculators using the same backend.
+     *
+     * @param cache   cache holding the compiled form of evaluated expressions
+     * @param backend arithmetic used to evaluate expressions
+     */
+    public RPNCalculator(ExpressionCache cache, NumericBackend backend) {
+        this(cache, backend, false);
+    }
+
+    /**
+     * Constructor to initialize the calculator, optionally running the {@link ExpressionOptimizer}
+     * over every compiled expression before it is cached.
+     * The cache must only be shared with calculators using the same backend and optimization.
+     *
+     * @param cache      cache holding the compiled form of evaluated expressions
+     * @param backend    arithmetic used to evaluate expressions
+     * @param optimizing whether compiled expressions are optimized
+     */
+    public RPNCalculator(ExpressionCache cache, NumericBackend backend, boolean optimizing) {
+        this(cache, backend, optimizing, EvaluationBudget.UNLIMITED);
+    }
+
+    /**
+     * Constructor to initialize the calculator with limits on every compilation and evaluation.
+     * Expressions exceeding the budget fail with {@link EvaluationResult.ErrorCode#BUDGET_EXCEEDED}.
+     * The cache must only be shared with calculators using the same backend and optimization.
+     *
+     * @param cache      cache holding the compiled form of evaluated expressions
+     * @param backend    arithmetic used to evaluate expressions
+     * @param optimizing whether compiled expressions are optimized
+     * @param budget     limits of every expression
+     */
+    public RPNCalculator(ExpressionCache cache, NumericBackend backend, boolean optimizing, EvaluationBudget budget) {
         this.sy = new ShuntingYard();
+        this.cache = cache;
+        this.backend = backend;
+        this.optimizing = optimizing;
+        this.budget = budget;
     }
 
+    /**
+     * Accessor method
+     *
+     * @return cache holding the compiled form of evaluated expressions
+     */
+    public ExpressionCache getCache() { return cache; }
+
+    /**
+     * Accessor method
+     *
+     * @return arithmetic used to evaluate expressions
+     */
+    public NumericBackend getBackend() { return backend; }
+
+    /**
+     * Accessor method
+     *
+     * @return whether compiled expressions are optimized
+     */
+    public boolean isOptimizing() { return optimizing; }
+
+    /**
+     * Accessor method
+     *
+     * @return limits of every expression
+     */
+    public EvaluationBudget getBudget() { return budget; }
+
     /**
      * Evaluates the math expression using Reverse Polish Notation.
      *
-     * @param mathExpression a math expression in String format delimited using whitespaces.
+     * @param mathExpression a math expression in String format, whitespaces between tokens are optional.
      * @return {@link String} - message of the evaluation.
      */
     public String evaluate(String mathExpression) {
         // YOUR CODE HERE
-        if (mathExpression == null || mathExpression.isEmpty()) {
-            return "Math expression is empty";
-        }
+        return evaluateResult(mathExpression).toString();
+    }
 
-        if (!checkForBalancedBrackets(mathExpression)) {
-            return "Unbalanced brackets in math expression";
+    /**
+     * Evaluates the math expression using Reverse Polish Notation without formatting anything.
+     *
+     * @param mathExpression a math expression in String format, whitespaces between tokens are optional.
+     * @return {@link EvaluationResult} - the calculated value, or the error and its position
+     */
+    public EvaluationResult evaluateResult(String mathExpression) {
+        if (mathExpression == null || mathExpression.isEmpty()) {
+            return failure(mathExpression, null, EvaluationResult.ErrorCode.EMPTY_EXPRESSION,
+                    "Math expression is empty", -1);
         }
 
+        // Expressions seen before skip validation and parsing entirely, others are validated as
+        // they are tokenized
+        CompiledExpression compiled = lookup(mathExpression);
         try {
-            postfixStr = sy.convertToPostfix(mathExpression);
-            double result = calculate();
-            return "Math Expression: " + mathExpression +
-                    "\nPostfix Expression: " + postfixStr +
-                    "\nCalculated Result: " + String.format("%.2f", result);
-        } catch (ArithmeticException e) {
-            return "ArithmeticException: " + e.getMessage();
-        } catch (IllegalArgumentException e) {
-            return "IllegalArgumentException: " + e.getMessage();
+            if (compiled == null) {
+                compiled = cache.put(mathExpression, compileUncached(mathExpression));
+            } else {
+                // The program may have been cached by a calculator with another budget
+                budget.checkProgram(compiled);
+            }
+            return calculate(compiled);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            return failure(mathExpression, compiled, e);
         }
     }
 
     /**
-     * Calculates the value of the math expression using reverse polish notation.
+     * Evaluates a math expression written in postfix (reverse polish) notation, such as {@code 1 2 +},
+     * without converting it. Postfix expressions are not cached, as they need no conversion.
      *
-     * @return {@link Double} - the calculated value or null for invalid math expressions
-     * @throws ArithmeticException when the factorial is a decimal number
+     * @param postfixExpression postfix math expression, tokens delimited using whitespaces
+     * @return {@link EvaluationResult} - the calculated value, or the error and its position
      */
-    private Double calculate() throws ArithmeticException {
-        // YOUR CODE HERE
-        if (postfixStr == null || postfixStr.isEmpty()) {
-            throw new ArithmeticException("Postfix expression is empty. Cannot calculate RPN.");
+    public EvaluationResult evaluatePostfix(String postfixExpression) {
+        if (postfixExpression == null || postfixExpression.isEmpty()) {
+            return failure(postfixExpression, null, EvaluationResult.ErrorCode.EMPTY_EXPRESSION,
+                    "Math expression is empty", -1);
         }
 
-        Stack<Double> stack = new Stack<>();
-
-        String[] tokens = postfixStr.split(" ");
-
-        for (String token : tokens) {
+        CompiledExpression compiled = null;
+        try {
+            compiled = compilePostfix(postfixExpression);
+            return calculate(compiled);
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            return failure(postfixExpression, compiled, e);
+        }
+    }
 
-            // When you encounter an operand, push it onto the stack
-            if (sy.isNumeric(token)) {
-                stack.push(Double.parseDouble(token));
-            }
+    /**
+     * Compiles a math expression written in postfix (reverse polish) notation into a reusable program.
+     *
+     * @param postfixExpression postfix math expression, tokens delimited using whitespaces
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws IllegalArgumentException when the expression is empty or not a valid postfix expression
+     * @throws BudgetExceededException  when the program exceeds the token or depth limit of the budget
+     * @throws ArithmeticException      when the expression contains no operands
+     */
+    public CompiledExpression compilePostfix(String postfixExpression) {
+        if (postfixExpression == null || postfixExpression.isEmpty()) {
+            throw new IllegalArgumentException("Math expression is empty");
+        }
+        CompiledExpression compiled = CompiledExpression.compilePostfix(postfixExpression, backend);
+        budget.checkProgram(compiled);
+        return optimizing ? ExpressionOptimizer.optimize(compiled, budget).getOptimized() : compiled;
+    }
 
-            // When you encounter an operator, pop either the last two or last value/s from the stack,
-            // apply the operation (thus evaluating the expression), then push the result back onto the stack
-            else {
-                Operator operator = Operator.getValueOfSymbol(token);
-                if (operator == null) {
-                    throw new IllegalArgumentException("Invalid operator: " + token);
-                }
-                if (operator == Operator.FACTORIAL) {
-                    double num = stack.pop();
-                    if (num < 0 || num != (int) num) {
-                        throw new ArithmeticException("Factorial operand must be a non-negative integer");
-                    }
-                    stack.push(operator.calculate(BigDecimal.valueOf(num), null).doubleValue());
-                } else {
-                    BigDecimal num2 = BigDecimal.valueOf(stack.pop());
-                    BigDecimal num1 = BigDecimal.valueOf(stack.pop());
-                    stack.push(operator.calculate(num1, num2).doubleValue());
-                }
-            }
+    /**
+     * Evaluates a compiled expression with the arithmetic it was compiled for, within the budget of
+     * the calculator
+     *
+     * @param compiled compiled expression
+     * @return {@link EvaluationResult} - the calculated value
+     * @throws BudgetExceededException when the evaluation exceeds a limit of the budget
+     * @throws ArithmeticException     when an operation is not defined for its operands
+     */
+    EvaluationResult calculate(CompiledExpression compiled) {
+        switch (compiled.getBackend().getKind()) {
+            case DECIMAL:
+                return EvaluationResult.success(compiled, compiled.evaluateDecimal(budget));
+            case LONG:
+                return EvaluationResult.success(compiled, BigDecimal.valueOf(compiled.evaluateLong(budget)));
+            default:
+                return EvaluationResult.success(compiled, compiled.evaluate(budget));
         }
+    }
 
-        // When you have finished (been through the whole expression), pop the final answer from the stack and return it
-        if (stack.getSize() != 1) {
-            throw new IllegalArgumentException("Invalid expression");
+    /**
+     * Compiles the math expression into a reusable postfix program, or returns the cached
+     * program if the expression was compiled before.
+     *
+     * @param mathExpression a math expression in String format, whitespaces between tokens are optional.
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws IllegalArgumentException    when the expression is empty or not a valid math expression
+     * @throws UnbalancedBracketsException when the brackets of the expression do not pair up
+     * @throws BudgetExceededException     when the program exceeds the token or depth limit of the budget
+     * @throws ArithmeticException         when the expression contains no operands
+     */
+    public CompiledExpression compile(String mathExpression) {
+        if (mathExpression == null || mathExpression.isEmpty()) {
+            throw new IllegalArgumentException("Math expression is empty");
         }
-        return stack.pop();
 
+        CompiledExpression compiled = lookup(mathExpression);
+        if (compiled != null) {
+            // The program may have been cached by a calculator with another budget
+            budget.checkProgram(compiled);
+            return compiled;
+        }
+        return cache.put(mathExpression, compileUncached(mathExpression));
     }
 
     /**
-     * Check the expression for balanced pairs of brackets.
+     * Helper method to look an expression up in the cache, recording the outcome in the metrics
      *
-     * @param exp math expression to check
-     * @return boolean - true for successful, false otherwise
+     * @param mathExpression a math expression in String format
+     * @return {@link CompiledExpression} - the cached program (or {@code null} if absent)
      */
-    private boolean checkForBalancedBrackets(String exp) {
-        // YOUR CODE HERE
+    private CompiledExpression lookup(String mathExpression) {
+        CompiledExpression compiled = cache.get(mathExpression);
+        Metrics metrics = Metrics.recording();
+        if (metrics != null)
+            metrics.recordCacheLookup(compiled != null);
+        return compiled;
+    }
 
-        Stack<Character> stack = new Stack<>();
-
-        // Add the expression to a char array.
-        // If value is '(', push to stack
-        // if value is ')' pop '(' from stack
-        for (char c : exp.toCharArray()) {
-            if (c == '(') {
-                stack.push(c);
-            } else if (c == ')') {
-                if (stack.isEmpty() || stack.pop() != '(') {
-                    return false;
-                }
-            }
+    /**
+     * Helper method to create the result of an evaluation that threw, with the position of the error
+     * if the exception carries one
+     *
+     * @param mathExpression evaluated math expression
+     * @param compiled       compiled form of the expression, {@code null} if it could not be compiled
+     * @param e              ArithmeticException or IllegalArgumentException thrown
+     * @return {@link EvaluationResult} - the result
+     */
+    static EvaluationResult failure(String mathExpression, CompiledExpression compiled, RuntimeException e) {
+        if (e instanceof BudgetExceededException) {
+            return failure(mathExpression, compiled, EvaluationResult.ErrorCode.BUDGET_EXCEEDED,
+                    e.getMessage(), ((BudgetExceededException) e).getPosition());
         }
+        if (e instanceof UnbalancedBracketsException) {
+            return failure(mathExpression, compiled, EvaluationResult.ErrorCode.UNBALANCED_BRACKETS,
+                    e.getMessage(), ((UnbalancedBracketsException) e).getPosition());
+        }
+        if (e instanceof ArithmeticException) {
+            int position = e instanceof EvaluationException ? ((EvaluationException) e).getPosition() : -1;
+            return failure(mathExpression, compiled, EvaluationResult.ErrorCode.ARITHMETIC_ERROR,
+                    e.getMessage(), position);
+        }
+        int position = e instanceof InvalidExpressionException ? ((InvalidExpressionException) e).getPosition() : -1;
+        return failure(mathExpression, compiled, EvaluationResult.ErrorCode.INVALID_EXPRESSION,
+                e.getMessage(), position);
+    }
 
-        // If stack is empty, returns true
-        return stack.isEmpty();
+    /**
+     * Helper method to create the result of a failed evaluation, recording the error in the metrics
+     *
+     * @param mathExpression evaluated math expression
+     * @param compiled       compiled form of the expression, {@code null} if it could not be compiled
+     * @param errorCode      error code of the evaluation
+     * @param errorMessage   description of the error
+     * @param position       offset of the error in the expression, -1 if unknown
+     * @return {@link EvaluationResult} - the result
+     */
+    private static EvaluationResult failure(String mathExpression, CompiledExpression compiled,
+                                            EvaluationResult.ErrorCode errorCode, String errorMessage, int position) {
+        Metrics metrics = Metrics.recording();
+        if (metrics != null)
+            metrics.recordError(errorCode);
+        return EvaluationResult.failure(mathExpression, compiled, errorCode, errorMessage, position);
+    }
+
+    /**
+     * Helper method to compile an expression with the backend of the calculator, and optimize it
+     * if enabled. Programs exceeding the budget are rejected before they are cached.
+     *
+     * @param mathExpression a math expression in String format
+     * @return {@link CompiledExpression} - the compiled program
+     * @throws BudgetExceededException when the program exceeds the token or depth limit of the budget
+     */
+    private CompiledExpression compileUncached(String mathExpression) {
+        CompiledExpression compiled = CompiledExpression.compile(mathExpression, sy, backend);
+        budget.checkProgram(compiled);
+        return optimizing ? ExpressionOptimizer.optimize(compiled, budget).getOptimized() : compiled;
     }
 }
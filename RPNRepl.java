@@ -0,0 +1,66 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+
+/**
+ * Command line reverse polish notation calculator on top of an {@link RPNSession}.
+ * Each line of input is applied to the stack as soon as it is entered and the stack is printed
+ * back. The commands {@code undo}, {@code clear} and {@code quit} are also accepted.
+ */
+public class RPNRepl {
+    private final RPNSession session;
+
+    /**
+     * Parameterized constructor
+     *
+     * @param session session holding the stack
+     */
+    public RPNRepl(RPNSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Reads lines until the input ends or {@code quit} is entered, printing the stack after each one
+     *
+     * @param in  input to read lines from
+     * @param out output to print the stack and errors to
+     * @throws IOException when the input cannot be read
+     */
+    public void run(Reader in, PrintStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String command = line.trim();
+            if (command.isEmpty())
+                continue;
+            if (command.equals("quit"))
+                break;
+
+            if (command.equals("undo")) {
+                if (!session.undo())
+                    out.println("Nothing to undo");
+            } else if (command.equals("clear")) {
+                session.clear();
+            } else {
+                try {
+                    session.enter(command);
+                } catch (ArithmeticException | IllegalArgumentException e) {
+                    out.println("Error: " + e.getMessage());
+                }
+            }
+            out.println(session);
+        }
+    }
+
+    /**
+     * Starts an interactive session on the standard input and output
+     *
+     * @param args unused
+     * @throws IOException when the standard input cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        new RPNRepl(new RPNSession()).run(new InputStreamReader(System.in), System.out);
+    }
+}
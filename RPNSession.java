@@ -0,0 +1,300 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * Interactive reverse polish notation session: every token entered updates the operand stack
+ * immediately, like the stack of an RPN pocket calculator.
+ * <p>
+ * The stack is persistent: each state is an immutable linked frame that shares everything below
+ * its top with the previous state. Pushing an operand or applying an operator therefore costs
+ * O(1) whatever the depth of the stack, and undoing a step only restores the previous frame.
+ * <p>
+ * A session is not thread-safe.
+ */
+public class RPNSession {
+    /**
+     * Immutable node of the persistent operand stack
+     */
+    private static final class Frame {
+        private final double value;
+        private final Frame next;
+        private final int size;
+
+        /**
+         * Parameterized constructor
+         *
+         * @param value value on top of the stack
+         * @param next  rest of the stack, {@code null} for the empty stack
+         */
+        private Frame(double value, Frame next) {
+            this.value = value;
+            this.next = next;
+            this.size = next == null ? 0 : next.size + 1;
+        }
+    }
+
+    /**
+     * The empty stack, shared by every session
+     */
+    private static final Frame EMPTY = new Frame(Double.NaN, null);
+
+    /**
+     * Default number of steps that can be undone
+     */
+    public static final int DEFAULT_HISTORY = 1000;
+
+    private final Map<String, Double> variables;
+    private final int historyLimit;
+    private final Deque<Frame> history = new ArrayDeque<>();
+    private Frame top = EMPTY;
+
+    /**
+     * Default constructor, creates a session without variables
+     */
+    public RPNSession() {
+        this(Collections.emptyMap());
+    }
+
+    /**
+     * Parameterized constructor
+     *
+     * @param variables value of each variable that can be entered by name
+     */
+    public RPNSession(Map<String, Double> variables) {
+        this(variables, DEFAULT_HISTORY);
+    }
+
+    /**
+     * Parameterized constructor
+     *
+     * @param variables    value of each variable that can be entered by name
+     * @param historyLimit maximum number of steps that can be undone
+     * @throws IllegalArgumentException when the history limit is negative
+     */
+    public RPNSession(Map<String, Double> variables, int historyLimit) {
+        if (historyLimit < 0) {
+            throw new IllegalArgumentException("History limit must not be negative: " + historyLimit);
+        }
+        this.variables = variables;
+        this.historyLimit = historyLimit;
+    }
+
+    /**
+     * Applies a single token: a number or a variable is pushed, an operator replaces its operands
+     * by its result. On error the stack is left unchanged.
+     *
+     * @param token number, variable name or operator symbol
+     * @return {@code double} - the value now on top of the stack
+     * @throws InvalidExpressionException when the token is invalid, or the operator lacks operands
+     * @throws EvaluationException        when the operation is not defined for its operands
+     */
+    public double push(String token) {
+        Frame next = apply(top, token, 0, token);
+        record(next);
+        return next.value;
+    }
+
+    /**
+     * Applies every token of a line of postfix input as one step. A sign directly followed by a
+     * digit is read as part of the number, so {@code 3 -4 +} is 3 plus -4. If any token fails,
+     * none of the line is applied.
+     *
+     * @param line postfix tokens, whitespaces between tokens are optional
+     * @return {@code double} - the value now on top of the stack
+     * @throws InvalidExpressionException when a token is invalid, or an operator lacks operands
+     * @throws EvaluationException        when an operation is not defined for its operands
+     */
+    public double enter(String line) {
+        TokenStream tokens = Lexer.tokenizePostfix(line);
+        if (tokens.isEmpty()) {
+            throw new InvalidExpressionException("Nothing to enter", 0);
+        }
+
+        // Apply the tokens to a new chain of frames, the current stack is never modified
+        Frame next = top;
+        for (int i = 0; i < tokens.getSize(); i++) {
+            switch (tokens.type(i)) {
+                case TokenStream.NUMBER:
+                    next = new Frame(tokens.value(i), next);
+                    break;
+                case TokenStream.VARIABLE:
+                    next = new Frame(valueOf(tokens.text(i), tokens.offset(i), line), next);
+                    break;
+                case TokenStream.OPERATOR:
+                    next = apply(next, tokens.operator(i), tokens.offset(i), line);
+                    break;
+                default:
+                    throw new InvalidExpressionException("Brackets are not allowed in postfix expressions, found '"
+                            + tokens.text(i) + "' at position " + tokens.offset(i), tokens.offset(i));
+            }
+        }
+        record(next);
+        return next.value;
+    }
+
+    /**
+     * Restores the stack as it was before the last step
+     *
+     * @return {@code boolean} - {@code true} if a step was undone, {@code false} if there was none
+     */
+    public boolean undo() {
+        if (history.isEmpty())
+            return false;
+        top = history.pop();
+        return true;
+    }
+
+    /**
+     * Removes every value from the stack, as a step that can be undone
+     */
+    public void clear() {
+        if (top != EMPTY)
+            record(EMPTY);
+    }
+
+    /**
+     * Returns the value on top of the stack
+     *
+     * @return {@code double} - the top value
+     * @throws IllegalStateException when the stack is empty
+     */
+    public double peek() {
+        if (top == EMPTY) {
+            throw new IllegalStateException("Stack is empty");
+        }
+        return top.value;
+    }
+
+    /**
+     * Accessor method
+     *
+     * @return number of values on the stack
+     */
+    public int getDepth() { return top.size; }
+
+    /**
+     * Accessor method
+     *
+     * @return whether the stack holds no value
+     */
+    public boolean isEmpty() { return top == EMPTY; }
+
+    /**
+     * Returns the values on the stack
+     *
+     * @return the values, from the bottom of the stack to the top
+     */
+    public double[] snapshot() {
+        double[] values = new double[getDepth()];
+        int i = values.length;
+        for (Frame frame = top; frame != EMPTY; frame = frame.next) {
+            values[--i] = frame.value;
+        }
+        return values;
+    }
+
+    /**
+     * Helper method to make a new stack current, remembering the previous one for undo
+     *
+     * @param next new stack
+     */
+    private void record(Frame next) {
+        if (historyLimit > 0) {
+            if (history.size() == historyLimit)
+                history.removeLast();
+            history.push(top);
+        }
+        top = next;
+    }
+
+    /**
+     * Helper method to apply a single token to a stack
+     *
+     * @param stack    stack to apply the token to
+     * @param token    number, variable name or operator symbol
+     * @param position position of the token in the input
+     * @param input    input the token was read from
+     * @return the resulting stack
+     * @throws InvalidExpressionException when the token is invalid, or the operator lacks operands
+     * @throws EvaluationException        when the operation is not defined for its operands
+     */
+    private Frame apply(Frame stack, String token, int position, String input) {
+        if (token == null || token.isEmpty()) {
+            throw new InvalidExpressionException("Nothing to enter", position);
+        }
+        if (Lexer.isNumber(token)) {
+            return new Frame(DecimalText.parse(token), stack);
+        }
+        if (Lexer.isVariable(token)) {
+            return new Frame(valueOf(token, position, input), stack);
+        }
+        if (Operator.getValueOfSymbol(token) != null) {
+            return apply(stack, Operator.getValueOfSymbol(token), position, input);
+        }
+        throw new InvalidExpressionException("Invalid token '" + token + "' at position " + position
+                + " in math expression: " + input, position);
+    }
+
+    /**
+     * Helper method to apply an operator to a stack. Only the frames of its operands are replaced.
+     *
+     * @param stack    stack to apply the operator to
+     * @param operator operator to apply
+     * @param position position of the operator in the input
+     * @param input    input the operator was read from
+     * @return the resulting stack
+     * @throws InvalidExpressionException when the stack holds too few operands
+     * @throws EvaluationException        when the operation is not defined for its operands
+     */
+    private static Frame apply(Frame stack, Operator operator, int position, String input) {
+        int arity = operator == Operator.FACTORIAL ? 1 : 2;
+        if (stack.size < arity) {
+            throw new InvalidExpressionException("Operator '" + operator.getSymbol() + "' at position " + position
+                    + " needs " + arity + " operand(s) in math expression: " + input, position);
+        }
+        try {
+            if (arity == 1)
+                return new Frame(operator.calculate(stack.value, 0), stack.next);
+            return new Frame(operator.calculate(stack.next.value, stack.value), stack.next.next);
+        } catch (ArithmeticException e) {
+            throw new EvaluationException(e.getMessage(), position);
+        }
+    }
+
+    /**
+     * Helper method to resolve the value of a variable
+     *
+     * @param name     variable name
+     * @param position position of the variable in the input
+     * @param input    input the variable was read from
+     * @return value of the variable
+     * @throws InvalidExpressionException when the variable has no value
+     */
+    private double valueOf(String name, int position, String input) {
+        Double value = variables.get(name);
+        if (value == null) {
+            throw new InvalidExpressionException("Unknown variable '" + name + "' at position " + position
+                    + " in math expression: " + input, position);
+        }
+        return value;
+    }
+
+    /**
+     * Method to print the stack in desired format
+     *
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        double[] values = snapshot();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(values[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
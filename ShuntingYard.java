@@ -1,6 +1,13 @@
 /**
  * Shunting yard algorithm to convert a conventional math expression into postfix notation for
  * reverse polish notation.
+ * <p>
+ * Logical operators and conditionals are evaluated lazily, so they become forward jumps in the
+ * postfix output instead of operators applied to both operands: {@code c ? a : b} and
+ * {@code if(c, a, b)} become {@code c ? a : b} where {@code ?} jumps past {@code :} to {@code b}
+ * when {@code c} is 0, and {@code :} jumps past {@code b}. The target of each jump is the value of
+ * its token, filled in once the end of its operand is reached. They bind less tightly than every
+ * operator, {@code ||} less tightly than {@code &&}, and conditionals least, right to left.
  */
 
 public class ShuntingYard {
@@ -16,126 +23,240 @@ public class ShuntingYard {
      *
      * @param mathExp infix math expression
      * @return {@link String} - postfix expression
-     * @throws IllegalArgumentException when the whitespaces delimiting the expression
-     *                                  is not properly set.
+     * @throws IllegalArgumentException when the expression is not a valid infix math expression
      */
     public String convertToPostfix(String mathExp) {
+        return toPostfix(mathExp).toString();
+    }
+
+    /**
+     * Shunting yard algorithm that converts the infix math expression into a stream of postfix
+     * tokens. The {@link Lexer} validates the order of the tokens and pairs the brackets as it
+     * scans them, so the conversion only checks what depends on the operator stack.
+     *
+     * @param mathExp infix math expression, whitespaces between tokens are optional
+     * @return {@link TokenStream} - postfix tokens
+     * @throws UnbalancedBracketsException when the brackets of the expression do not pair up
+     * @throws InvalidExpressionException  when the expression is not a valid infix math expression
+     */
+    public TokenStream toPostfix(CharSequence mathExp) {
+        Metrics metrics = Metrics.recording();
+        if (metrics == null) {
+            return convert(mathExp);
+        }
+        long start = System.nanoTime();
+        TokenStream output = convert(mathExp);
+        metrics.recordConversion(System.nanoTime() - start);
+        return output;
+    }
+
+    /**
+     * Helper method running the shunting yard algorithm, see {@link #toPostfix(CharSequence)}
+     *
+     * @param mathExp infix math expression, whitespaces between tokens are optional
+     * @return {@link TokenStream} - postfix tokens
+     * @throws InvalidExpressionException when the expression is not a valid infix math expression
+     */
+    private TokenStream convert(CharSequence mathExp) {
         // YOUR CODE HERE
 
-        Stack<String> outputStack = new Stack<>();
-        Stack<String> operatorStack = new Stack<>();
-        Operator currentOperator, previousOperator;
+        TokenStream tokens = Lexer.tokenize(mathExp);
+        TokenStream output = new TokenStream(mathExp, tokens.getSize());
 
-        String[] tokens = inputValidator(mathExp);
+        // Operator stack holds indices of operator, function, left bracket and jump tokens,
+        // with the number of arguments seen so far for each left bracket, and for jumps and
+        // conditional calls the index in the output of the jump waiting for its target
+        int[] operatorStack = new int[Math.max(1, tokens.getSize())];
+        int[] argumentCounts = new int[operatorStack.length];
+        int[] jumps = new int[operatorStack.length];
+        int top = 0;
 
-        for (String token : tokens) {
+        for (int i = 0; i < tokens.getSize(); i++) {
+            switch (tokens.type(i)) {
 
-            // If number, add to output Stack
-            if (isNumeric(token)) {
-                outputStack.push(token);
-            }
+                // If number or variable, add to output
+                case TokenStream.NUMBER:
+                case TokenStream.VARIABLE:
+                    output.add(tokens, i);
+                    break;
 
-            // If factorial, add to output Stack
-            else if (token.equals("!")) {
-                outputStack.push(token);
-            }
+                // Function - push to operator stack, its left bracket follows
+                case TokenStream.FUNCTION:
+                    operatorStack[top++] = i;
+                    break;
 
-            // Left bracket - push to operator stack
-            else if (token.equals("(")) {
-                operatorStack.push("(");
-            }
+                // Left bracket - push to operator stack
+                case TokenStream.LEFT_BRACKET:
+                    argumentCounts[top] = i + 1 < tokens.getSize() && tokens.type(i + 1) == TokenStream.RIGHT_BRACKET
+                            ? 0 : 1;
+                    operatorStack[top++] = i;
+                    break;
 
-            // Right bracket - pop all operators from the operator stack into the output stack till the left bracket
-            // pop the left bracket
-            else if (token.equals(")")) {
-                while (!operatorStack.isEmpty() && !operatorStack.peekTop().equals("(")) {
-                    outputStack.push(operatorStack.pop());
-                }
-                operatorStack.pop(); // Discard the "("
-            }
+                // Comma - pop all operators of the argument into the output till the left bracket of the call
+                case TokenStream.COMMA:
+                    while (top > 0 && tokens.type(operatorStack[top - 1]) != TokenStream.LEFT_BRACKET) {
+                        top--;
+                        pop(tokens, output, operatorStack[top], jumps[top]);
+                    }
+                    if (top < 2 || tokens.type(operatorStack[top - 2]) != TokenStream.FUNCTION)
+                        throw new InvalidExpressionException("Comma outside of a function call", tokens.offset(i));
 
-            // If Operator, peek at the operator at the top of the operator stack
-            // check precedence
-            // if lower precedence, pop top operator and push it to output stack
-            // else push Operator to operator stack
-            else if (Operator.lookupSymbol(token)) {
-                currentOperator = Operator.getValueOfSymbol(token);
-                previousOperator = Operator.getValueOfSymbol(operatorStack.peekTop());
-
-                // To prevent null pointer exception, pointing previous operator to current operator if null
-                if (previousOperator == null)
-                    previousOperator = currentOperator;
-
-                // To change the associativity from left to right, change <= 0 to == -1
-                while (!operatorStack.isEmpty() &&
-                        !operatorStack.peekTop().equals("(") &&
-                        currentOperator.comparePrecedence(previousOperator) <= 0) {
-                    outputStack.push(operatorStack.pop());
-                }
-                operatorStack.push(token);
-            }
-        }
+                    // The commas of if(c, a, b) are the jumps of c ? a : b
+                    if (isConditional(tokens, operatorStack[top - 2])) {
+                        if (argumentCounts[top - 1] > 2)
+                            throw new InvalidExpressionException("Function if takes 3 arguments", tokens.offset(i));
+                        if (argumentCounts[top - 1] == 2)
+                            output.setValue(jumps[top - 1], output.getSize() + 1);
+                        jumps[top - 1] = output.getSize();
+                        output.add(argumentCounts[top - 1] == 1 ? TokenStream.CONDITION : TokenStream.ALTERNATIVE, 0,
+                                tokens.offset(i), 1);
+                    }
+                    argumentCounts[top - 1]++;
+                    break;
 
-        // Move any remaining elements to output stack
-        while (!operatorStack.isEmpty()) {
-            outputStack.push(operatorStack.pop());
-        }
+                // Right bracket - pop all operators from the operator stack into the output till the left bracket
+                // pop the left bracket, which the lexer paired with it
+                case TokenStream.RIGHT_BRACKET:
+                    while (tokens.type(operatorStack[top - 1]) != TokenStream.LEFT_BRACKET) {
+                        top--;
+                        pop(tokens, output, operatorStack[top], jumps[top]);
+                    }
+                    top--; // Discard the "("
 
-        // Construct output string
-        StringBuilder postfix = new StringBuilder();
-        while (!outputStack.isEmpty()) {
-            postfix.insert(0, outputStack.pop());
-            postfix.insert(0, " ");
-        }
+                    // Close a function call, its postfix token carries the number of arguments
+                    if (top > 0 && tokens.type(operatorStack[top - 1]) == TokenStream.FUNCTION) {
+                        int function = operatorStack[--top];
+                        if (!isConditional(tokens, function)) {
+                            output.add(TokenStream.FUNCTION, argumentCounts[top + 1], tokens.offset(function),
+                                    tokens.length(function));
+                        } else if (argumentCounts[top + 1] == 3) {
+                            output.setValue(jumps[top + 1], output.getSize());
+                        } else {
+                            throw new InvalidExpressionException("Function if takes 3 arguments",
+                                    tokens.offset(function));
+                        }
+                    }
+                    break;
+
+                // Logical operator or '?' - pop what binds more tightly, then emit its jump and push it
+                case TokenStream.AND:
+                case TokenStream.OR:
+                case TokenStream.CONDITION:
+                    while (top > 0 && bindsTighter(tokens.type(operatorStack[top - 1]), tokens.type(i))) {
+                        top--;
+                        pop(tokens, output, operatorStack[top], jumps[top]);
+                    }
+                    jumps[top] = output.getSize();
+                    output.add(tokens.type(i), 0, tokens.offset(i), tokens.length(i));
+                    operatorStack[top++] = i;
+                    break;
+
+                // ':' - end the first branch of the innermost open conditional with a jump over the second
+                case TokenStream.ALTERNATIVE:
+                    while (top > 0 && bindsTighter(tokens.type(operatorStack[top - 1]), tokens.type(i))) {
+                        top--;
+                        pop(tokens, output, operatorStack[top], jumps[top]);
+                    }
+                    if (top == 0 || tokens.type(operatorStack[top - 1]) != TokenStream.CONDITION)
+                        throw new InvalidExpressionException("':' without '?' in math expression", tokens.offset(i));
+                    output.setValue(jumps[top - 1], output.getSize() + 1);
+                    jumps[top - 1] = output.getSize();
+                    output.add(tokens, i);
+                    operatorStack[top - 1] = i;
+                    break;
+
+                default:
+                    Operator currentOperator = tokens.operator(i);
+
+                    // If factorial, add to output
+                    if (currentOperator == Operator.FACTORIAL) {
+                        output.add(tokens, i);
+                        break;
+                    }
 
-        String finalPostfixExpression = postfix.toString().trim(); // Remove leading/trailing whitespaces
+                    // If Operator, peek at the operator at the top of the operator stack
+                    // check precedence
+                    // if lower precedence, or same precedence and left associative, pop top operator and push it to output
+                    // else push Operator to operator stack
+                    int limit = currentOperator.getAssociativity() == Operator.Associativity.LEFT ? 0 : -1;
+                    while (top > 0 && tokens.type(operatorStack[top - 1]) == TokenStream.OPERATOR &&
+                            currentOperator.comparePrecedence(tokens.operator(operatorStack[top - 1])) <= limit) {
+                        output.add(tokens, operatorStack[--top]);
+                    }
+                    operatorStack[top++] = i;
+            }
+        }
 
-        // Check if the input provided is already a postfix expression
-        if (finalPostfixExpression.equals(mathExp))
-            throw new IllegalArgumentException("Invalid expression " + mathExp);
+        // Move any remaining operators to output
+        while (top > 0) {
+            top--;
+            pop(tokens, output, operatorStack[top], jumps[top]);
+        }
 
-        return finalPostfixExpression;
+        return output;
     }
 
     /**
-     * Helper method to validate input
+     * Helper method to move a token popped from the operator stack to the output. A logical operator
+     * ends its right operand with a {@link TokenStream#BOOLEAN} token, and its jump, like that of a
+     * {@code :}, targets the token after its operand.
      *
-     * @param mathExp input math expression
-     * @return a string array with input expressions split using whitespace as delimiter.
+     * @param tokens tokens of the input
+     * @param output postfix tokens
+     * @param token  index of the popped token
+     * @param jump   index in the output of the jump of a logical operator or {@code :}
+     * @throws InvalidExpressionException when a {@code ?} has no {@code :}
      */
-    private static String[] inputValidator(String mathExp) {
-        String[] tokens = mathExp.split(" ");
-
-        if (!mathExp.matches("[-+*/%^!()0-9. ]+.* +.*") || // Check if input has all valid characters and spaces
-                Operator.lookupSymbol(tokens[0])) // Check if first item is an operator
-            throw new IllegalArgumentException("Invalid math expression: " + mathExp);
-
-        // Check false operators
-        for (int i = 0; i < tokens.length - 1; i++) {
-            Boolean token = tokens[i].matches("[-+*/%^]");
-            Boolean nextToken = tokens[i + 1].matches("[-+*/%^!]");
+    private static void pop(TokenStream tokens, TokenStream output, int token, int jump) {
+        switch (tokens.type(token)) {
+            case TokenStream.AND:
+            case TokenStream.OR:
+                output.add(TokenStream.BOOLEAN, 0, tokens.offset(token), tokens.length(token));
+                output.setValue(jump, output.getSize());
+                break;
+            case TokenStream.ALTERNATIVE:
+                output.setValue(jump, output.getSize());
+                break;
+            case TokenStream.CONDITION:
+                throw new InvalidExpressionException("'?' without ':' in math expression", tokens.offset(token));
+            default:
+                output.add(tokens, token);
+        }
+    }
 
-            // Checking for 2 consecutive operators
-            if (token && nextToken) {
-                throw new IllegalArgumentException("Invalid operator combination in math expression: " + tokens[i] + " and " + tokens[i + 1]);
-            }
-            // Check consecutive whitespaces
-            if (tokens[i].isEmpty())
-                throw new IllegalArgumentException("White Spaces for delimiting are not properly set");
-
-            // Check if each token >1 in length is a Double
-            String[] individualTokens = tokens[i].split("");
-            if (individualTokens.length > 1) {
-                try {
-                    Double.parseDouble(tokens[i]);
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Invalid math expression at: " + tokens[i]);
-                }
-            }
+    /**
+     * Helper method to check if a token on the operator stack must be popped before a logical
+     * operator or a part of a conditional is handled
+     *
+     * @param stacked  type of the token on top of the operator stack
+     * @param incoming type of the logical operator or part of a conditional
+     * @return {@code true} if the stacked token binds more tightly, or as tightly and from left to right
+     */
+    private static boolean bindsTighter(byte stacked, byte incoming) {
+        switch (stacked) {
+            case TokenStream.OPERATOR:
+            case TokenStream.AND:
+                return true;
+            case TokenStream.OR:
+                return incoming != TokenStream.AND;
+            case TokenStream.ALTERNATIVE:
+                // Conditionals group from right to left, only a ':' closes the conditional before it
+                return incoming == TokenStream.ALTERNATIVE;
+            default:
+                return false;
         }
-        return tokens;
     }
 
+    /**
+     * Helper method to check if a function token is a call of the built-in conditional {@code if(c, a, b)}
+     *
+     * @param tokens tokens of the input
+     * @param i      index of the function token
+     * @return {@code true} for a call of {@code if}, else {@code false}
+     */
+    private static boolean isConditional(TokenStream tokens, int i) {
+        return tokens.length(i) == 2 && tokens.text(i).equals(MathFunction.CONDITIONAL);
+    }
 
     /**
      * Helper method to check if the input is numeric
@@ -144,11 +265,16 @@ public class ShuntingYard {
      * @return {@code true} if it's a numeric, else {@code false}
      */
     public boolean isNumeric(String str) {
-        try {
-            Double.parseDouble(str);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+        return Lexer.isNumber(str);
+    }
+
+    /**
+     * Helper method to check if the input is a variable name
+     *
+     * @param str input value
+     * @return {@code true} if it's a variable name, else {@code false}
+     */
+    public boolean isVariable(String str) {
+        return Lexer.isVariable(str);
     }
 }
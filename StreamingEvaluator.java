@@ -0,0 +1,464 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Evaluates math expressions of any size read from a channel or a memory-mapped file.
+ * Bytes are lexed one at a time and every token goes straight through the shunting yard into a
+ * {@link DoubleStack}: operands are pushed as soon as they are read and operators are applied as
+ * soon as the shunting yard releases them. Neither the expression nor its postfix form is ever
+ * held in memory, which stays proportional to the nesting depth of the expression.
+ * <p>
+ * Infix expressions follow the same order rules as the {@link Lexer}, so the same text gets the same
+ * value or is rejected alike whether it is streamed or given to an {@link RPNCalculator}. Comparisons,
+ * logical operators, conditionals and functions are not supported when streaming.
+ * <p>
+ * An evaluator is reusable but not thread-safe, every call resets its state.
+ */
+public class StreamingEvaluator {
+    /**
+     * Notations accepted by the evaluator:
+     * <ul>
+     *     <li>INFIX - conventional math expression, converted on the fly using the shunting yard.</li>
+     *     <li>POSTFIX - reverse polish notation, tokens delimited using whitespaces.</li>
+     * </ul>
+     */
+    public enum Notation { INFIX, POSTFIX }
+
+    /**
+     * Size of the buffer used to read from a channel
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Size of each memory-mapped window of a file
+     */
+    private static final long MAPPING_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Operator stack marker of a left bracket
+     */
+    private static final int LEFT_BRACKET = -1;
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private final Notation notation;
+    private final Map<String, Double> variables;
+    private final DoubleStack operands = new DoubleStack();
+    private final StringBuilder text = new StringBuilder();
+    private int[] operatorStack = new int[16];
+    private int top;
+
+    // Lexer state
+    private long position;
+    private long tokenStart;
+    private boolean inNumber;
+    private boolean inVariable;
+    private char pendingSign;
+    private int digits;
+    private boolean point;
+
+    // Parser state
+    private boolean expectOperand;
+    private boolean seenToken;
+    private Operator lastOperator;
+    private int depth;
+    private long outermost;
+
+    /**
+     * Constructor to initialize an evaluator for expressions without variables
+     *
+     * @param notation notation of the expressions
+     */
+    public StreamingEvaluator(Notation notation) {
+        this(notation, Collections.emptyMap());
+    }
+
+    /**
+     * Constructor to initialize an evaluator for expressions using variables
+     *
+     * @param notation  notation of the expressions
+     * @param variables value of each variable used by the expressions
+     */
+    public StreamingEvaluator(Notation notation, Map<String, Double> variables) {
+        this.notation = notation;
+        this.variables = variables;
+    }
+
+    /**
+     * Evaluates the expression read from a channel until its end.
+     *
+     * @param channel channel providing the expression as ASCII text
+     * @return {@code double} - the calculated value
+     * @throws IOException                 when reading from the channel fails
+     * @throws InvalidExpressionException  when the expression is not valid, with the position of the error
+     * @throws UnbalancedBracketsException when the brackets of the expression do not pair up
+     * @throws ArithmeticException         when an operation is not defined for its operands
+     */
+    public double evaluate(ReadableByteChannel channel) throws IOException {
+        reset();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            accept(buffer);
+            buffer.clear();
+        }
+        return finish();
+    }
+
+    /**
+     * Evaluates the expression stored in a file, mapping the file into memory one window at a time.
+     *
+     * @param file file holding the expression as ASCII text
+     * @return {@code double} - the calculated value
+     * @throws IOException                 when reading the file fails
+     * @throws InvalidExpressionException  when the expression is not valid, with the position of the error
+     * @throws UnbalancedBracketsException when the brackets of the expression do not pair up
+     * @throws ArithmeticException         when an operation is not defined for its operands
+     */
+    public double evaluate(Path file) throws IOException {
+        reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long offset = 0; offset < size; offset += MAPPING_SIZE) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(MAPPING_SIZE, size - offset));
+                accept(window);
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Evaluates an expression held in memory, using the same streaming path.
+     *
+     * @param mathExp the expression
+     * @return {@code double} - the calculated value
+     * @throws InvalidExpressionException  when the expression is not valid, with the position of the error
+     * @throws UnbalancedBracketsException when the brackets of the expression do not pair up
+     * @throws ArithmeticException         when an operation is not defined for its operands
+     */
+    public double evaluate(CharSequence mathExp) {
+        reset();
+        for (int i = 0; i < mathExp.length(); i++) {
+            accept(mathExp.charAt(i));
+        }
+        return finish();
+    }
+
+    /**
+     * Clears the state left by a previous evaluation
+     */
+    private void reset() {
+        operands.clear();
+        text.setLength(0);
+        top = 0;
+        position = 0;
+        inNumber = false;
+        inVariable = false;
+        pendingSign = 0;
+        expectOperand = true;
+        seenToken = false;
+        lastOperator = null;
+        depth = 0;
+    }
+
+    /**
+     * Feeds every remaining byte of a buffer to the lexer
+     *
+     * @param buffer bytes of the expression
+     */
+    private void accept(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            accept((char) (buffer.get() & 0xFF));
+        }
+    }
+
+    /**
+     * Lexes one character of the expression, completing the current token when the character
+     * cannot be part of it.
+     *
+     * @param c next character of the expression
+     */
+    private void accept(char c) {
+        // A sign directly followed by a digit belongs to a number, otherwise it is an operator
+        if (pendingSign != 0) {
+            char sign = pendingSign;
+            pendingSign = 0;
+            if (Lexer.isDigitOrPoint(c)) {
+                startNumber(position - 1);
+                text.append(sign);
+            } else {
+                operator(Lexer.operatorOf(sign), position - 1);
+            }
+        }
+
+        if (inNumber) {
+            if (Lexer.isDigitOrPoint(c)) {
+                appendDigit(c);
+                position++;
+                return;
+            }
+            endNumber();
+        } else if (inVariable) {
+            if (Lexer.isVariablePart(c)) {
+                text.append(c);
+                position++;
+                return;
+            }
+            endVariable();
+        }
+
+        if (Lexer.isDigitOrPoint(c)) {
+            startNumber(position);
+            appendDigit(c);
+        } else if (Lexer.isVariableStart(c)) {
+            inVariable = true;
+            tokenStart = position;
+            text.setLength(0);
+            text.append(c);
+        } else if ((c == '-' || c == '+') && (notation == Notation.POSTFIX || expectOperand)) {
+            pendingSign = c;
+        } else if (c == '(' || c == ')') {
+            bracket(c == '(', position);
+        } else if (!Character.isWhitespace(c)) {
+            Operator op = Lexer.operatorOf(c);
+            if (op == null) {
+                throw new InvalidExpressionException("Invalid character '" + c + "' at position " + position,
+                        offset(position));
+            }
+            operator(op, position);
+        }
+        position++;
+    }
+
+    /**
+     * Completes the evaluation once the whole expression has been read
+     *
+     * @return {@code double} - the calculated value
+     */
+    private double finish() {
+        if (pendingSign != 0) {
+            operator(Lexer.operatorOf(pendingSign), position - 1);
+            pendingSign = 0;
+        }
+        if (inNumber)
+            endNumber();
+        else if (inVariable)
+            endVariable();
+
+        if (!seenToken) {
+            throw new InvalidExpressionException("Math expression is empty", -1);
+        }
+
+        if (notation == Notation.INFIX) {
+            // A bracket left open is reported before a missing operand, as by the lexer
+            if (depth > 0)
+                throw new UnbalancedBracketsException(offset(outermost));
+            if (expectOperand) {
+                throw new InvalidExpressionException("Math expression ends with an operator at position " + position,
+                        offset(position));
+            }
+            // Apply any remaining operators, every bracket is closed
+            while (top > 0) {
+                apply(OPERATORS[operatorStack[--top]], position);
+            }
+        }
+
+        // Only postfix expressions can leave operands without an operator, infix ones are rejected as read
+        if (operands.getSize() != 1) {
+            throw new InvalidExpressionException("Missing operator in postfix expression, " + operands.getSize()
+                    + " operands left at position " + position, offset(position));
+        }
+        return operands.pop();
+    }
+
+    /**
+     * Starts scanning a number
+     *
+     * @param start position of the first character of the number
+     */
+    private void startNumber(long start) {
+        inNumber = true;
+        tokenStart = start;
+        text.setLength(0);
+        digits = 0;
+        point = false;
+    }
+
+    /**
+     * Adds one character to the number being scanned
+     *
+     * @param c digit or decimal point
+     */
+    private void appendDigit(char c) {
+        text.append(c);
+        if (c == '.') {
+            if (point)
+                throw new InvalidExpressionException("Invalid number at position " + tokenStart, offset(tokenStart));
+            point = true;
+        } else {
+            digits++;
+        }
+    }
+
+    /**
+     * Completes the number being scanned and hands it to the parser
+     */
+    private void endNumber() {
+        inNumber = false;
+        if (digits == 0)
+            throw new InvalidExpressionException("Invalid number at position " + tokenStart, offset(tokenStart));
+
+        operand(DecimalText.parse(text, 0, text.length()), tokenStart);
+    }
+
+    /**
+     * Completes the variable being scanned and hands its value to the parser
+     */
+    private void endVariable() {
+        inVariable = false;
+        Double value = variables.get(text.toString());
+        if (value == null)
+            throw new InvalidExpressionException("Unbound variable " + text + " at position " + tokenStart,
+                    offset(tokenStart));
+        operand(value, tokenStart);
+    }
+
+    /**
+     * Parser step for an operand
+     *
+     * @param value    value of the operand
+     * @param location position of the operand
+     */
+    private void operand(double value, long location) {
+        if (notation == Notation.INFIX && !expectOperand)
+            throw new InvalidExpressionException("Missing operator before position " + location, offset(location));
+        seenToken = true;
+        expectOperand = false;
+        lastOperator = null;
+        operands.push(value);
+    }
+
+    /**
+     * Parser step for a bracket
+     *
+     * @param left     {@code true} for a left bracket, {@code false} for a right bracket
+     * @param location position of the bracket
+     */
+    private void bracket(boolean left, long location) {
+        if (notation == Notation.POSTFIX)
+            throw new InvalidExpressionException("Brackets are not allowed in postfix expressions, at position "
+                    + location, offset(location));
+        seenToken = true;
+        lastOperator = null;
+
+        // Left bracket - push to operator stack
+        if (left) {
+            if (!expectOperand)
+                throw new InvalidExpressionException("Missing operator before position " + location, offset(location));
+            if (depth++ == 0)
+                outermost = location;
+            pushOperator(LEFT_BRACKET);
+            return;
+        }
+
+        // Right bracket - apply all operators from the operator stack till the left bracket
+        // pop the left bracket
+        // A right bracket without a left one is reported before a missing operand, as by the lexer
+        if (depth == 0)
+            throw new UnbalancedBracketsException(offset(location));
+        if (expectOperand)
+            throw new InvalidExpressionException("Missing operand before position " + location, offset(location));
+        while (operatorStack[top - 1] != LEFT_BRACKET) {
+            apply(OPERATORS[operatorStack[--top]], location);
+        }
+        depth--;
+        top--; // Discard the "("
+    }
+
+    /**
+     * Parser step for an operator
+     *
+     * @param op       the operator
+     * @param location position of the operator
+     */
+    private void operator(Operator op, long location) {
+        if (notation == Notation.POSTFIX) {
+            seenToken = true;
+            apply(op, location);
+            return;
+        }
+
+        if (expectOperand) {
+            if (lastOperator != null)
+                throw new InvalidExpressionException("Invalid operator combination in math expression: "
+                        + lastOperator.getSymbol() + " and " + op.getSymbol() + " at position " + location,
+                        offset(location));
+            throw new InvalidExpressionException("Missing operand before position " + location, offset(location));
+        }
+        seenToken = true;
+
+        // Factorial applies to the operand just read
+        if (op == Operator.FACTORIAL) {
+            apply(op, location);
+            return;
+        }
+
+        // Apply operators of higher or equal precedence, then push this one
+        while (top > 0 && operatorStack[top - 1] != LEFT_BRACKET
+                && op.comparePrecedence(OPERATORS[operatorStack[top - 1]]) <= 0) {
+            apply(OPERATORS[operatorStack[--top]], location);
+        }
+        pushOperator(op.ordinal());
+        expectOperand = true;
+        lastOperator = op;
+    }
+
+    /**
+     * Helper method to convert a position in the stream to the offset of an exception
+     *
+     * @param location position in the stream
+     * @return offset of the position, -1 if it does not fit in an int
+     */
+    private static int offset(long location) {
+        return location <= Integer.MAX_VALUE ? (int) location : -1;
+    }
+
+    /**
+     * Pushes a code onto the operator stack, growing it if needed
+     *
+     * @param code operator ordinal or {@link #LEFT_BRACKET}
+     */
+    private void pushOperator(int code) {
+        if (top == operatorStack.length)
+            operatorStack = Arrays.copyOf(operatorStack, top * 2);
+        operatorStack[top++] = code;
+    }
+
+    /**
+     * Applies an operator to the operands on top of the operand stack
+     *
+     * @param op       the operator
+     * @param location position of the operator, for error messages
+     */
+    private void apply(Operator op, long location) {
+        int arity = op == Operator.FACTORIAL ? 1 : 2;
+        if (operands.getSize() < arity)
+            throw new InvalidExpressionException("Missing operand for " + op.getSymbol() + " at position " + location,
+                    offset(location));
+        if (arity == 1) {
+            operands.setTop(op.calculate(operands.peekTop(), 0));
+        } else {
+            double num2 = operands.pop();
+            operands.setTop(op.calculate(operands.peekTop(), num2));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.util.Arrays;
+
+/**
+ * Compact sequence of tokens produced by the {@link Lexer}.
+ * Tokens are stored column-wise: a type code, a parsed value and the position of the token in the
+ * source text. Numbers keep their parsed value, operators keep the ordinal of their {@link Operator},
+ * and every token can be traced back to its text through its offset and length.
+ */
+public final class TokenStream {
+    /**
+     * Type code of a numeric literal, its value is the parsed number
+     */
+    public static final byte NUMBER = 0;
+    /**
+     * Type code of a variable name
+     */
+    public static final byte VARIABLE = 1;
+    /**
+     * Type code of an operator, its value is the ordinal of the {@link Operator}
+     */
+    public static final byte OPERATOR = 2;
+    /**
+     * Type code of a left bracket
+     */
+    public static final byte LEFT_BRACKET = 3;
+    /**
+     * Type code of a right bracket
+     */
+    public static final byte RIGHT_BRACKET = 4;
+    /**
+     * Type code of a function name followed by its left bracket. In postfix output, its value is
+     * the number of arguments of the call.
+     */
+    public static final byte FUNCTION = 5;
+    /**
+     * Type code of a comma separating the arguments of a function call
+     */
+    public static final byte COMMA = 6;
+    /**
+     * Type code of a logical and ({@code &&}). In postfix output, it jumps to the token at its value,
+     * leaving 0, when its left operand is 0, and drops its left operand otherwise.
+     */
+    public static final byte AND = 7;
+    /**
+     * Type code of a logical or ({@code ||}). In postfix output, it jumps to the token at its value,
+     * leaving 1, when its left operand is not 0, and drops its left operand otherwise.
+     */
+    public static final byte OR = 8;
+    /**
+     * Type code of the {@code ?} of a conditional. In postfix output, it pops the condition and
+     * jumps to the token at its value when the condition is 0.
+     */
+    public static final byte CONDITION = 9;
+    /**
+     * Type code of the {@code :} of a conditional. In postfix output, it ends the first branch by
+     * jumping to the token at its value.
+     */
+    public static final byte ALTERNATIVE = 10;
+    /**
+     * Type code of the postfix token ending the right operand of a logical operator, which replaces
+     * the operand by 1 if it is not 0
+     */
+    public static final byte BOOLEAN = 11;
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private final CharSequence source;
+    private byte[] types;
+    private double[] values;
+    private int[] offsets;
+    private int[] lengths;
+    private int size;
+
+    /**
+     * Constructor to initialize an empty token stream
+     *
+     * @param source   text the tokens are taken from
+     * @param capacity number of tokens the stream can hold before it first grows
+     */
+    TokenStream(CharSequence source, int capacity) {
+        this.source = source;
+        capacity = Math.max(4, capacity);
+        this.types = new byte[capacity];
+        this.values = new double[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    /**
+     * Appends a token to the stream
+     *
+     * @param type   type code of the token
+     * @param value  parsed value of the token
+     * @param offset position of the first character of the token in the source
+     * @param length number of characters of the token
+     */
+    void add(byte type, double value, int offset, int length) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        types[size] = type;
+        values[size] = value;
+        offsets[size] = offset;
+        lengths[size] = length;
+        size++;
+    }
+
+    /**
+     * Replaces the value of a token, such as the target of a jump once it is known
+     *
+     * @param i     index of the token
+     * @param value new value of the token
+     */
+    void setValue(int i, double value) {
+        values[i] = value;
+    }
+
+    /**
+     * Appends a copy of a token of another stream over the same source
+     *
+     * @param other stream holding the token
+     * @param i     index of the token in the other stream
+     */
+    void add(TokenStream other, int i) {
+        add(other.types[i], other.values[i], other.offsets[i], other.lengths[i]);
+    }
+
+    /**
+     * Returns the number of tokens in the stream
+     * @return {@code int} - number of tokens
+     */
+    public int getSize() { return size; }
+
+    /**
+     * Tests whether the stream is empty.
+     * @return {@code boolean} - {@code true} if the stream has no tokens, {@code false} otherwise
+     */
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * Accessor method
+     * @return text the tokens are taken from
+     */
+    public CharSequence getSource() { return source; }
+
+    /**
+     * Returns the type code of a token
+     * @param i index of the token
+     * @return one of the type codes, such as {@link #NUMBER} or {@link #OPERATOR}
+     */
+    public byte type(int i) { return types[i]; }
+
+    /**
+     * Returns the parsed value of a numeric token
+     * @param i index of the token
+     * @return value of the number
+     */
+    public double value(int i) { return values[i]; }
+
+    /**
+     * Returns the operator of an operator token
+     * @param i index of the token
+     * @return {@link Operator} - the operator (or {@code null} if the token is not an operator)
+     */
+    public Operator operator(int i) {
+        return types[i] == OPERATOR ? OPERATORS[(int) values[i]] : null;
+    }
+
+    /**
+     * Returns the position of a token in the source
+     * @param i index of the token
+     * @return offset of the first character of the token
+     */
+    public int offset(int i) { return offsets[i]; }
+
+    /**
+     * Returns the length of a token in the source
+     * @param i index of the token
+     * @return number of characters of the token
+     */
+    public int length(int i) { return lengths[i]; }
+
+    /**
+     * Returns the source text of a token
+     * @param i index of the token
+     * @return text of the token
+     */
+    public String text(int i) {
+        return source.subSequence(offsets[i], offsets[i] + lengths[i]).toString();
+    }
+
+    /**
+     * Method to print the tokens delimited using whitespaces
+     * @return output string in desired format
+     */
+    @Override
+    public String toString() {
+        StringBuilder temp = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            // Jumps are written with their infix symbol, whichever syntax they came from
+            if (types[i] == BOOLEAN)
+                continue;
+            if (temp.length() > 0)
+                temp.append(' ');
+            if (types[i] == CONDITION)
+                temp.append('?');
+            else if (types[i] == ALTERNATIVE)
+                temp.append(':');
+            else
+                temp.append(source, offsets[i], offsets[i] + lengths[i]);
+        }
+        return temp.toString();
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Thrown when the brackets of a math expression do not pair up, with the position of the right
+ * bracket that has no left bracket, or of the outermost left bracket that is never closed.
+ */
+public class UnbalancedBracketsException extends InvalidExpressionException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor to initialize the exception
+     *
+     * @param position offset of the unpaired bracket in the expression
+     */
+    public UnbalancedBracketsException(int position) {
+        super("Unbalanced brackets in math expression", position);
+    }
+}
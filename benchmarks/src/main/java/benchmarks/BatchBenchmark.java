@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures evaluating a batch of formulas sharing subexpressions for one row of values, formula by
+ * formula with {@code CompiledExpression.evaluate} and once per unique subexpression with {@code CompiledBatch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({"100", "1000", "10000"})
+    int formulas;
+
+    private Object[] compiled;
+    private Object batch;
+    private final double[] values = {1.5, 2.5, 3.5};
+    private double[] out;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Object calculator = Targets.NEW_CALCULATOR.invoke(Targets.NEW_CACHE.invoke());
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < formulas; i++) {
+            expressions.add("( x + y ) * z - ( x * y + z ) / ( z - y ) + ( x + y ) ^ 2 + " + (i % 100));
+        }
+
+        compiled = new Object[formulas];
+        for (int i = 0; i < formulas; i++) {
+            compiled[i] = Targets.COMPILE.invoke(calculator, expressions.get(i));
+        }
+        batch = Targets.COMPILE_BATCH.invoke(expressions, calculator);
+        out = new double[formulas];
+    }
+
+    /**
+     * One walk of its postfix program per formula
+     */
+    @Benchmark
+    public double[] formulaByFormula() throws Throwable {
+        for (int i = 0; i < compiled.length; i++) {
+            out[i] = (double) Targets.EVALUATE_COMPILED.invoke(compiled[i], values);
+        }
+        return out;
+    }
+
+    /**
+     * One evaluation per unique subexpression of the batch
+     */
+    @Benchmark
+    public double[] sharedSubexpressions() throws Throwable {
+        Targets.EVALUATE_BATCH.invoke(batch, values, out);
+        return out;
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures evaluating one formula over columns of variable values, row by row with
+ * {@code CompiledExpression.evaluateColumns} and a block of rows at a time with {@code ColumnEvaluator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    @Param({"( x * y ) - z", "( x + 1 ) * ( y - 2 ) / z + x * 3 - y / 2"})
+    String formula;
+
+    private Object compiled;
+    private Object evaluator;
+    private double[][] columns;
+    private double[] out;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Object calculator = Targets.NEW_CALCULATOR.invoke(Targets.NEW_CACHE.invoke());
+        compiled = Targets.COMPILE.invoke(calculator, formula);
+        evaluator = Targets.NEW_COLUMN_EVALUATOR.invoke(compiled);
+
+        Random random = new Random(42);
+        columns = new double[3][rows];
+        for (double[] column : columns) {
+            for (int r = 0; r < rows; r++) {
+                column[r] = 1 + random.nextDouble() * 100;
+            }
+        }
+        out = new double[rows];
+    }
+
+    /**
+     * One walk of the postfix program per row
+     */
+    @Benchmark
+    public double[] rowAtATime() throws Throwable {
+        Targets.EVALUATE_COLUMNS.invoke(compiled, columns, out);
+        return out;
+    }
+
+    /**
+     * One walk of the postfix program per block of rows
+     */
+    @Benchmark
+    public double[] columnAtATime() throws Throwable {
+        Targets.EVALUATE_BLOCKS.invoke(evaluator, columns, out);
+        return out;
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code RPNCalculator.evaluate} with and without the compiled expression cache, and
+ * evaluation of an already compiled expression on its own, tiered and as generated bytecode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluateBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    int tokens;
+
+    @Param({"INTEGERS", "DECIMALS", "MIXED"})
+    NumberMix mix;
+
+    private Object calculator;
+    private Object compiled;
+    private Object formula;
+    private String expression;
+    private String[] distinctExpressions;
+    private int next;
+
+    @Setup
+    public void setUp() throws Throwable {
+        calculator = Targets.NEW_CALCULATOR.invoke(Targets.NEW_CACHE.invoke());
+        expression = Expressions.generate(tokens, mix, 42);
+        compiled = Targets.COMPILE.invoke(calculator, expression);
+        formula = Targets.TO_FORMULA.invoke(compiled);
+
+        // Enough distinct expressions to overflow the default cache, so every lookup misses
+        distinctExpressions = new String[8192];
+        for (int i = 0; i < distinctExpressions.length; i++) {
+            distinctExpressions[i] = Expressions.generate(Math.min(tokens, 1000), mix, i);
+        }
+    }
+
+    /**
+     * Repeated evaluation of one expression, served from the cache after the first call
+     */
+    @Benchmark
+    public String evaluateCached() throws Throwable {
+        return (String) Targets.EVALUATE.invoke(calculator, expression);
+    }
+
+    /**
+     * Evaluation of expressions that are not cached, paying for validation and parsing every time
+     */
+    @Benchmark
+    public String evaluateUncached() throws Throwable {
+        String current = distinctExpressions[next];
+        next = (next + 1) % distinctExpressions.length;
+        return (String) Targets.EVALUATE.invoke(calculator, current);
+    }
+
+    /**
+     * Evaluation of a compiled expression without any string handling
+     */
+    @Benchmark
+    public double evaluateCompiled() throws Throwable {
+        return (double) Targets.EVALUATE_COMPILED.invoke(compiled, new double[0]);
+    }
+
+    /**
+     * Evaluation of the same expression translated to bytecode, falling back to the interpreter
+     * for expressions too large to translate
+     */
+    @Benchmark
+    public double evaluateFormula() throws Throwable {
+        return (double) Targets.EVAL_FORMULA.invoke(formula, new double[0]);
+    }
+}
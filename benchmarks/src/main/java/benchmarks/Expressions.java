@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates valid, whitespace-delimited infix expressions for the benchmarks.
+ */
+final class Expressions {
+    private static final String[] OPERATORS = {"+", "-", "*", "/"};
+
+    private Expressions() {
+    }
+
+    /**
+     * Builds an expression with roughly the given number of tokens. Every few terms a bracketed
+     * sum of two positive numbers is used as an operand, so division never divides by zero.
+     *
+     * @param tokens number of tokens to generate
+     * @param mix    kind of numbers to use as operands
+     * @param seed   seed of the generator, the same seed always gives the same expression
+     * @return the expression
+     */
+    static String generate(int tokens, NumberMix mix, long seed) {
+        Random random = new Random(seed);
+        StringBuilder expression = new StringBuilder(tokens * 6);
+        int count = 0;
+
+        appendNumber(expression, mix, random);
+        count++;
+        while (count + 2 <= tokens) {
+            expression.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+            if (count + 6 <= tokens && random.nextInt(4) == 0) {
+                expression.append("( ");
+                appendNumber(expression, mix, random);
+                expression.append(" + ");
+                appendNumber(expression, mix, random);
+                expression.append(" )");
+                count += 6;
+            } else {
+                appendNumber(expression, mix, random);
+                count += 2;
+            }
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Appends one positive operand
+     *
+     * @param expression expression being built
+     * @param mix        kind of number to append
+     * @param random     source of randomness
+     */
+    private static void appendNumber(StringBuilder expression, NumberMix mix, Random random) {
+        boolean decimal = mix == NumberMix.DECIMALS || (mix == NumberMix.MIXED && random.nextBoolean());
+        if (decimal) {
+            expression.append(1 + random.nextInt(999)).append('.').append(1 + random.nextInt(999));
+        } else {
+            expression.append(1 + random.nextInt(999));
+        }
+    }
+}
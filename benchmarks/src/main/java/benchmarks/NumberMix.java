@@ -0,0 +1,11 @@
+package benchmarks;
+
+/**
+ * Kinds of numbers used as operands in generated expressions:
+ * <ul>
+ *     <li>INTEGERS - whole numbers only.</li>
+ *     <li>DECIMALS - numbers with a fractional part only.</li>
+ *     <li>MIXED - an even mix of both.</li>
+ * </ul>
+ */
+public enum NumberMix { INTEGERS, DECIMALS, MIXED }
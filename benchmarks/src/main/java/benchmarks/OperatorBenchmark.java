@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each case of {@code Operator.calculate}, on doubles and on BigDecimals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorBenchmark {
+    @Param({"ADDITION", "SUBTRACTION", "MULTIPLICATION", "DIVISION", "MODULUS", "POWER", "FACTORIAL"})
+    String operatorName;
+
+    @Param({"INTEGERS", "DECIMALS"})
+    NumberMix mix;
+
+    private Object operator;
+    private double a;
+    private double b;
+    private BigDecimal bigA;
+    private BigDecimal bigB;
+
+    @Setup
+    public void setUp() {
+        operator = Targets.operator(operatorName);
+        boolean factorial = operatorName.equals("FACTORIAL");
+        a = factorial ? 12 : mix == NumberMix.INTEGERS ? 47 : 47.125;
+        b = mix == NumberMix.INTEGERS ? 3 : 3.5;
+        bigA = BigDecimal.valueOf(a);
+        bigB = BigDecimal.valueOf(b);
+    }
+
+    @Benchmark
+    public double calculateDouble() throws Throwable {
+        return (double) Targets.CALCULATE_DOUBLE.invoke(operator, a, b);
+    }
+
+    @Benchmark
+    public BigDecimal calculateBigDecimal() throws Throwable {
+        return (BigDecimal) Targets.CALCULATE_BIG_DECIMAL.invoke(operator, bigA, bigB);
+    }
+}
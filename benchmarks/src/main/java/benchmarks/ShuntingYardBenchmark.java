@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures tokenization and infix to postfix conversion by {@code ShuntingYard.convertToPostfix}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShuntingYardBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    int tokens;
+
+    @Param({"INTEGERS", "DECIMALS", "MIXED"})
+    NumberMix mix;
+
+    private Object shuntingYard;
+    private String expression;
+
+    @Setup
+    public void setUp() throws Throwable {
+        shuntingYard = Targets.NEW_SHUNTING_YARD.invoke();
+        expression = Expressions.generate(tokens, mix, 42);
+    }
+
+    @Benchmark
+    public String convertToPostfix() throws Throwable {
+        return (String) Targets.CONVERT_TO_POSTFIX.invoke(shuntingYard, expression);
+    }
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures pushing and then popping a number of boxed doubles on the linked-list {@code Stack}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StackBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    int size;
+
+    @Benchmark
+    public void pushPop(Blackhole blackhole) throws Throwable {
+        Object stack = Targets.NEW_STACK.invoke();
+        for (int i = 0; i < size; i++) {
+            Targets.PUSH.invoke(stack, (Object) (double) i);
+        }
+        for (int i = 0; i < size; i++) {
+            blackhole.consume(Targets.POP.invoke(stack));
+        }
+    }
+}
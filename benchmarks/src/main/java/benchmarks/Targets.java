@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Method handles to the calculator classes.
+ * The calculator lives in the unnamed package, which cannot be imported from a named package, and JMH
+ * refuses benchmarks in the unnamed package. The handles are constants, so the JIT inlines the calls
+ * just like direct invocations.
+ */
+final class Targets {
+    static final MethodHandle NEW_SHUNTING_YARD;
+    static final MethodHandle CONVERT_TO_POSTFIX;
+    static final MethodHandle NEW_CALCULATOR;
+    static final MethodHandle NEW_CACHE;
+    static final MethodHandle EVALUATE;
+    static final MethodHandle COMPILE;
+    static final MethodHandle EVALUATE_COMPILED;
+    static final MethodHandle TO_FORMULA;
+    static final MethodHandle EVAL_FORMULA;
+    static final MethodHandle EVALUATE_COLUMNS;
+    static final MethodHandle NEW_COLUMN_EVALUATOR;
+    static final MethodHandle EVALUATE_BLOCKS;
+    static final MethodHandle COMPILE_BATCH;
+    static final MethodHandle EVALUATE_BATCH;
+    static final MethodHandle NEW_STACK;
+    static final MethodHandle PUSH;
+    static final MethodHandle POP;
+    static final MethodHandle CALCULATE_DOUBLE;
+    static final MethodHandle CALCULATE_BIG_DECIMAL;
+
+    private static final Class<?> OPERATOR;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> shuntingYard = Class.forName("ShuntingYard");
+            Class<?> calculator = Class.forName("RPNCalculator");
+            Class<?> cache = Class.forName("ExpressionCache");
+            Class<?> compiled = Class.forName("CompiledExpression");
+            Class<?> formula = Class.forName("Formula");
+            Class<?> columnEvaluator = Class.forName("ColumnEvaluator");
+            Class<?> compiledBatch = Class.forName("CompiledBatch");
+            Class<?> stack = Class.forName("Stack");
+            OPERATOR = Class.forName("Operator");
+
+            NEW_SHUNTING_YARD = lookup.findConstructor(shuntingYard, MethodType.methodType(void.class));
+            CONVERT_TO_POSTFIX = lookup.findVirtual(shuntingYard, "convertToPostfix",
+                    MethodType.methodType(String.class, String.class));
+            NEW_CALCULATOR = lookup.findConstructor(calculator, MethodType.methodType(void.class, cache));
+            NEW_CACHE = lookup.findConstructor(cache, MethodType.methodType(void.class));
+            EVALUATE = lookup.findVirtual(calculator, "evaluate", MethodType.methodType(String.class, String.class));
+            COMPILE = lookup.findVirtual(calculator, "compile", MethodType.methodType(compiled, String.class));
+            EVALUATE_COMPILED = lookup.findVirtual(compiled, "evaluate",
+                    MethodType.methodType(double.class, double[].class));
+            TO_FORMULA = lookup.findVirtual(compiled, "toFormula", MethodType.methodType(formula));
+            EVAL_FORMULA = lookup.findVirtual(formula, "eval", MethodType.methodType(double.class, double[].class));
+            EVALUATE_COLUMNS = lookup.findVirtual(compiled, "evaluateColumns",
+                    MethodType.methodType(void.class, double[][].class, double[].class));
+            NEW_COLUMN_EVALUATOR = lookup.findConstructor(columnEvaluator, MethodType.methodType(void.class, compiled));
+            EVALUATE_BLOCKS = lookup.findVirtual(columnEvaluator, "evaluate",
+                    MethodType.methodType(void.class, double[][].class, double[].class));
+            COMPILE_BATCH = lookup.findStatic(compiledBatch, "compile",
+                    MethodType.methodType(compiledBatch, List.class, calculator));
+            EVALUATE_BATCH = lookup.findVirtual(compiledBatch, "evaluate",
+                    MethodType.methodType(void.class, double[].class, double[].class));
+            NEW_STACK = lookup.findConstructor(stack, MethodType.methodType(void.class));
+            PUSH = lookup.findVirtual(stack, "push", MethodType.methodType(void.class, Object.class));
+            POP = lookup.findVirtual(stack, "pop", MethodType.methodType(Object.class));
+            CALCULATE_DOUBLE = lookup.findVirtual(OPERATOR, "calculate",
+                    MethodType.methodType(double.class, double.class, double.class));
+            CALCULATE_BIG_DECIMAL = lookup.findVirtual(OPERATOR, "calculate",
+                    MethodType.methodType(BigDecimal.class, BigDecimal.class, BigDecimal.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Targets() {
+    }
+
+    /**
+     * Resolves an {@code Operator} constant by name
+     *
+     * @param name name of the enum constant, e.g. {@code ADDITION}
+     * @return the operator
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object operator(String name) {
+        return Enum.valueOf((Class) OPERATOR, name);
+    }
+}